@@ -20,6 +20,15 @@ public class ArchiveList extends ArrayList<Archive> {
 
     private int totalCount;
 
+    public ArchiveList() {
+    }
+
+    // a copy that can be modified without affecting the original
+    ArchiveList(ArchiveList archives) {
+        super(archives);
+        this.totalCount = archives.totalCount;
+    }
+
     /**
      * The total number of Archives for the API Key.
      */
@@ -0,0 +1,82 @@
+/**
+ * OpenTok Java SDK
+ * Copyright (C) 2015 TokBox, Inc.
+ * http://www.tokbox.com
+ *
+ * Licensed under The MIT License (MIT). See LICENSE file for more information.
+ */
+package com.opentok;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import com.opentok.exception.OpenTokException;
+
+/**
+ * The results of an operation performed on a batch of items, such as
+ * {@link OpenTok#generateTokens(String, List)}. Results are in the same order as the items of the batch. An item
+ * that failed does not fail the rest of the batch; its exception is reported by {@link #getErrors()} instead.
+ *
+ * @param <T> The type of the result of each item.
+ */
+public class BatchResult<T> {
+
+    private final List<T> results;
+    private final Map<Integer, OpenTokException> errors;
+
+    BatchResult(T[] results, OpenTokException[] errors) {
+        this.results = Collections.unmodifiableList(Arrays.asList(results));
+        Map<Integer, OpenTokException> errorMap = new TreeMap<Integer, OpenTokException>();
+        for (int i = 0; i < errors.length; i++) {
+            if (errors[i] != null) {
+                errorMap.put(i, errors[i]);
+            }
+        }
+        this.errors = Collections.unmodifiableMap(errorMap);
+    }
+
+    /**
+     * Returns the number of items in the batch.
+     */
+    public int size() {
+        return results.size();
+    }
+
+    /**
+     * Returns the result of the item at the given index of the batch.
+     *
+     * @throws OpenTokException The exception that caused this item to fail.
+     */
+    public T get(int index) throws OpenTokException {
+        OpenTokException error = errors.get(index);
+        if (error != null) {
+            throw error;
+        }
+        return results.get(index);
+    }
+
+    /**
+     * Returns the results of the batch, in the order of its items. The result of an item that failed is
+     * <code>null</code>.
+     */
+    public List<T> getResults() {
+        return results;
+    }
+
+    /**
+     * Returns the exceptions of the items that failed, keyed by their index in the batch.
+     */
+    public Map<Integer, OpenTokException> getErrors() {
+        return errors;
+    }
+
+    /**
+     * Returns whether any item of the batch failed.
+     */
+    public boolean hasErrors() {
+        return !errors.isEmpty();
+    }
+}
@@ -0,0 +1,27 @@
+/**
+ * OpenTok Java SDK
+ * Copyright (C) 2015 TokBox, Inc.
+ * http://www.tokbox.com
+ *
+ * Licensed under The MIT License (MIT). See LICENSE file for more information.
+ */
+package com.opentok;
+
+/**
+ * Groups the calls to the OpenTok REST API whose endpoints tend to fail together, for settings that are shared by
+ * these calls, such as their {@link com.opentok.util.CircuitBreaker}.
+ */
+public enum EndpointFamily {
+    /**
+     * Creating sessions.
+     */
+    SESSION_CREATE,
+    /**
+     * Getting and listing archives.
+     */
+    ARCHIVE_READ,
+    /**
+     * Starting, stopping and deleting archives.
+     */
+    ARCHIVE_WRITE
+}
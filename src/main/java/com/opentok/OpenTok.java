@@ -8,28 +8,49 @@
 package com.opentok;
 
 import java.io.IOException;
-import java.io.StringReader;
-import java.io.UnsupportedEncodingException;
-import java.util.Collection;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.security.Provider;
+import java.security.Security;
+import java.util.Arrays;
+import java.util.EnumMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
-import javax.xml.xpath.XPath;
-import javax.xml.xpath.XPathExpressionException;
-import javax.xml.xpath.XPathFactory;
+import javax.xml.stream.XMLStreamException;
 
 import com.fasterxml.jackson.core.JsonParseException;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.JsonMappingException;
+import com.ning.http.client.AsyncHttpProviderConfig;
+import com.ning.http.client.ListenableFuture;
+import com.ning.http.client.Response;
 import com.opentok.exception.OpenTokException;
 import com.opentok.exception.InvalidArgumentException;
 import com.opentok.exception.RequestException;
-import com.opentok.util.Crypto;
+import com.opentok.exception.RequestTimeoutException;
+import com.opentok.util.CacheStats;
+import com.opentok.util.CircuitBreaker;
 import com.opentok.util.HttpClient;
+import com.opentok.util.LruCache;
+import com.opentok.util.NonceSource;
+import com.opentok.util.RateLimiter;
+import com.opentok.util.SessionResponseParser;
+import com.opentok.util.ThreadLocalNonceSource;
+import com.opentok.util.TokenSigner;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.ObjectReader;
-import org.xml.sax.InputSource;
 
 /**
 * Contains methods for creating OpenTok sessions, generating tokens, and working with archives.
@@ -43,9 +64,36 @@ import org.xml.sax.InputSource;
 */
 public class OpenTok {
 
+    // the number of recently used sessions that stay registered even when the application holds no reference to them
+    private static final int MAX_RECENT_SESSIONS = 1024;
+    // token batches are split in up to this many chunks, each at least MIN_TOKEN_BATCH_CHUNK tokens long
+    private static final int TOKEN_BATCH_CHUNKS = Runtime.getRuntime().availableProcessors() * 4;
+    private static final int MIN_TOKEN_BATCH_CHUNK = 64;
+
+    /**
+     * The number of requests that {@link #createSessions(List)} and {@link #createSessions(int, SessionProperties)}
+     * send at once.
+     */
+    public static final int DEFAULT_SESSION_BATCH_CONCURRENCY = 8;
+
+    private static Executor tokenExecutor;
+    // the time spent measuring the signing providers when selectFastestSigningProvider() is used
+    private static final long PROVIDER_SELECTION_MILLIS = 200;
+
     private int apiKey;
     private String apiSecret;
+    private volatile TokenSigner signer;
+    private final NonceSource nonceSource;
+    private final Provider signingProvider;
+    private final SessionRegistry sessions = new SessionRegistry(MAX_RECENT_SESSIONS);
+    private final LruCache<String, SessionId> sessionIdCache;
+    private final TokenCache tokenCache;
+    private final RetryPolicy retryPolicy;
+    // concurrent reads of the same archive or page of archives, or null if they are not coalesced
+    private final SingleFlight<String, Archive> archiveReads;
+    private final SingleFlight<Long, ArchiveList> archiveListReads;
     protected HttpClient client;
+    private static final SessionResponseParser sessionResponseParser = new SessionResponseParser();
     static protected ObjectReader archiveReader = new ObjectMapper()
             .reader(Archive.class);
     static protected ObjectReader archiveListReader = new ObjectMapper()
@@ -64,11 +112,56 @@ public class OpenTok {
     }
 
     public OpenTok(int apiKey, String apiSecret, String apiUrl) {
-        this.apiKey = apiKey;
-        this.apiSecret = apiSecret.trim();
-        this.client = new HttpClient.Builder(apiKey, apiSecret)
-                .apiUrl(apiUrl)
-                .build();
+        this(new Builder(apiKey, apiSecret).apiUrl(apiUrl));
+    }
+
+    private OpenTok(Builder builder) {
+        this.apiKey = builder.apiKey;
+        this.apiSecret = builder.apiSecret.trim();
+        this.nonceSource = builder.nonceSource;
+        this.signingProvider = builder.selectFastestSigningProvider
+                ? TokenSigner.findFastestProvider(PROVIDER_SELECTION_MILLIS, TimeUnit.MILLISECONDS)
+                : builder.signingProvider;
+        this.sessionIdCache = builder.sessionIdCacheSize > 0
+                ? new LruCache<String, SessionId>(builder.sessionIdCacheSize)
+                : null;
+        this.tokenCache = builder.tokenCacheSize > 0
+                ? new TokenCache(builder.tokenCacheSize, builder.tokenCacheMinRemainingLifetime)
+                : null;
+        this.retryPolicy = builder.retryPolicy != null ? builder.retryPolicy : RetryPolicy.noRetries();
+        if (builder.coalesceArchiveReads) {
+            // archives are immutable, but each caller gets its own list
+            this.archiveReads = new SingleFlight<String, Archive>(null);
+            this.archiveListReads = new SingleFlight<Long, ArchiveList>(
+                    new OpenTokFuture.Transformer<ArchiveList, ArchiveList>() {
+                        public ArchiveList apply(ArchiveList archives) {
+                            return new ArchiveList(archives);
+                        }
+                    });
+        } else {
+            this.archiveReads = null;
+            this.archiveListReads = null;
+        }
+        HttpClient.Builder clientBuilder = new HttpClient.Builder(builder.apiKey, builder.apiSecret)
+                .apiUrl(builder.apiUrl)
+                .maxConnections(builder.maxConnectionsTotal, builder.maxConnectionsPerHost)
+                .keepAliveTimeout(builder.keepAliveTimeoutMs)
+                .connectionTtl(builder.connectionTtlMs)
+                .connectionPooling(builder.connectionPooling)
+                .ioThreadMultiplier(builder.ioThreadMultiplier)
+                .providerConfig(builder.httpProviderConfig)
+                .connectTimeout(builder.connectTimeoutMs)
+                .readTimeout(builder.readTimeoutMs)
+                .requestTimeout(builder.requestTimeoutMs)
+                .circuitBreaker(builder.circuitBreaker);
+        for (Map.Entry<Operation, Integer> timeout : builder.requestTimeouts.entrySet()) {
+            clientBuilder.requestTimeout(timeout.getKey(), timeout.getValue());
+        }
+        for (Map.Entry<Operation, Builder.RateLimit> rateLimit : builder.rateLimits.entrySet()) {
+            clientBuilder.rateLimit(rateLimit.getKey(), rateLimit.getValue().limiter, rateLimit.getValue().priority,
+                    rateLimit.getValue().maxWaitMs);
+        }
+        this.client = clientBuilder.build();
     }
 
     /**
@@ -122,23 +215,70 @@ public class OpenTok {
      * @return The token string.
      */
     public String generateToken(String sessionId, TokenOptions tokenOptions) throws OpenTokException {
-        List<String> sessionIdParts = null;
-        if(sessionId == null || sessionId == "") {
-            throw new InvalidArgumentException("Session not valid");
-        }
+        validateSessionId(sessionId);
+        return generateToken(getTokenTemplate(sessionId), tokenOptions);
+    }
 
-        try {
-            sessionIdParts = Crypto.decodeSessionId(sessionId);
-        } catch (UnsupportedEncodingException e) {
-            throw new InvalidArgumentException("Session ID was not valid");
-        }
-        if (!sessionIdParts.contains(Integer.toString(this.apiKey))) {
-            throw new InvalidArgumentException("Session ID was not valid");
-        }
+    /**
+     * Creates a token for connecting to an OpenTok session, identified by a session ID that has already been
+     * parsed. Only the API key of the session is checked, since the session ID doesn't need to be decoded again.
+     *
+     * @param sessionId The session ID corresponding to the session to which the user will connect.
+     *
+     * @param tokenOptions This TokenOptions object defines options for the token.
+     *
+     * @return The token string.
+     *
+     * @see #generateToken(String, TokenOptions)
+     */
+    public String generateToken(SessionId sessionId, TokenOptions tokenOptions) throws OpenTokException {
+        validateSessionId(sessionId);
+        return generateToken(getTokenTemplate(sessionId.toString()), tokenOptions);
+    }
+
+    private String generateToken(TokenTemplate template, TokenOptions tokenOptions) throws OpenTokException {
+        return tokenCache != null ? tokenCache.generate(template, tokenOptions) : template.generate(tokenOptions);
+    }
+
+    /**
+     * Creates a token for connecting to an OpenTok session, writing it as ASCII bytes directly into an array
+     * instead of returning a String.
+     *
+     * @param sessionId The session ID corresponding to the session to which the user will connect.
+     *
+     * @param tokenOptions This TokenOptions object defines options for the token.
+     *
+     * @param dest The array the token is written to.
+     *
+     * @param offset The index of <code>dest</code> at which the token starts.
+     *
+     * @return The length of the token, in bytes.
+     *
+     * @see Session#generateToken(TokenOptions, byte[], int)
+     */
+    public int generateToken(String sessionId, TokenOptions tokenOptions, byte[] dest, int offset)
+            throws OpenTokException {
+        validateSessionId(sessionId);
+        return getTokenTemplate(sessionId).generate(tokenOptions, dest, offset);
+    }
 
-        // NOTE: kind of wasteful of a Session instance
-        Session session = new Session(sessionId, apiKey, apiSecret);
-        return session.generateToken(tokenOptions);
+    /**
+     * Creates a token for connecting to an OpenTok session, writing it as ASCII bytes directly into a heap or
+     * direct buffer instead of returning a String.
+     *
+     * @param sessionId The session ID corresponding to the session to which the user will connect.
+     *
+     * @param tokenOptions This TokenOptions object defines options for the token.
+     *
+     * @param dest The buffer the token is written to, starting at its current position.
+     *
+     * @return The length of the token, in bytes.
+     *
+     * @see Session#generateToken(TokenOptions, ByteBuffer)
+     */
+    public int generateToken(String sessionId, TokenOptions tokenOptions, ByteBuffer dest) throws OpenTokException {
+        validateSessionId(sessionId);
+        return getTokenTemplate(sessionId).generate(tokenOptions, dest);
     }
 
     /**
@@ -181,6 +321,162 @@ public class OpenTok {
         return generateToken(sessionId, new TokenOptions.Builder().build());
     }
 
+    /**
+     * Creates a token for each of the given TokenOptions objects, all for connecting to the same OpenTok session.
+     * The session ID is validated once for the whole batch, and the tokens are generated in parallel using a
+     * shared pool of threads (one per processor).
+     * <p>
+     * The following example generates the tokens for the attendees of a large event:
+     * <p>
+     * <pre>
+     * List&lt;TokenOptions&gt; options = new ArrayList&lt;TokenOptions&gt;();
+     * for (Attendee attendee : attendees) {
+     *     options.add(new TokenOptions.Builder().role(Role.SUBSCRIBER).data(attendee.getName()).build());
+     * }
+     * BatchResult&lt;String&gt; tokens = sdk.generateTokens(sessionId, options);
+     * for (int i = 0; i &lt; tokens.size(); i++) {
+     *     attendees.get(i).setToken(tokens.get(i));
+     * }
+     * </pre>
+     *
+     * @param sessionId The session ID corresponding to the session to which the users will connect.
+     *
+     * @param tokenOptions The options for each token. See {@link #generateToken(String, TokenOptions)}.
+     *
+     * @return The tokens, in the same order as <code>tokenOptions</code>. A token that could not be generated
+     * (for example, because of an invalid expiration time) is reported by {@link BatchResult#getErrors()}, and does
+     * not fail the other tokens.
+     *
+     * @throws InvalidArgumentException The session ID is not valid.
+     */
+    public BatchResult<String> generateTokens(String sessionId, List<TokenOptions> tokenOptions)
+            throws OpenTokException {
+        return generateTokens(sessionId, tokenOptions, getTokenExecutor());
+    }
+
+    /**
+     * Creates a token for each of the given TokenOptions objects, generating them in parallel on the given
+     * executor.
+     *
+     * @param sessionId The session ID corresponding to the session to which the users will connect.
+     *
+     * @param tokenOptions The options for each token. See {@link #generateToken(String, TokenOptions)}.
+     *
+     * @param executor The executor that runs the token generation, such as a
+     * {@link java.util.concurrent.ThreadPoolExecutor} sized to the number of processors. The parts of the batch it
+     * rejects are generated on the calling thread.
+     *
+     * @return The tokens, in the same order as <code>tokenOptions</code>.
+     *
+     * @see #generateTokens(String, List)
+     */
+    public BatchResult<String> generateTokens(String sessionId, List<TokenOptions> tokenOptions, Executor executor)
+            throws OpenTokException {
+        if (tokenOptions == null) {
+            throw new InvalidArgumentException("Token options cannot be null");
+        }
+        validateSessionId(sessionId);
+        TokenTemplate template = getTokenTemplate(sessionId);
+        return generateTokens(template, tokenOptions.toArray(new TokenOptions[tokenOptions.size()]), executor);
+    }
+
+    /**
+     * Creates a number of tokens with the same options for connecting to an OpenTok session. Each token has a
+     * different nonce (and creation time). The tokens are generated in parallel using a shared pool of threads.
+     *
+     * @param sessionId The session ID corresponding to the session to which the users will connect.
+     *
+     * @param count The number of tokens to generate.
+     *
+     * @param tokenOptions The options of all the tokens. See {@link #generateToken(String, TokenOptions)}.
+     *
+     * @return The tokens.
+     *
+     * @see #generateTokens(String, List)
+     */
+    public BatchResult<String> generateTokens(String sessionId, int count, TokenOptions tokenOptions)
+            throws OpenTokException {
+        return generateTokens(sessionId, count, tokenOptions, getTokenExecutor());
+    }
+
+    /**
+     * Creates a number of tokens with the same options for connecting to an OpenTok session, generating them in
+     * parallel on the given executor.
+     *
+     * @param sessionId The session ID corresponding to the session to which the users will connect.
+     *
+     * @param count The number of tokens to generate.
+     *
+     * @param tokenOptions The options of all the tokens. See {@link #generateToken(String, TokenOptions)}.
+     *
+     * @param executor The executor that runs the token generation. The parts of the batch it rejects are generated on
+     * the calling thread.
+     *
+     * @return The tokens.
+     *
+     * @see #generateTokens(String, List)
+     */
+    public BatchResult<String> generateTokens(String sessionId, int count, TokenOptions tokenOptions,
+                                              Executor executor) throws OpenTokException {
+        if (count < 0) {
+            throw new InvalidArgumentException("Token count cannot be negative. count = " + count);
+        }
+        if (tokenOptions == null) {
+            throw new InvalidArgumentException("Token options cannot be null");
+        }
+        validateSessionId(sessionId);
+        TokenTemplate template = getTokenTemplate(sessionId);
+        TokenOptions[] options = new TokenOptions[count];
+        Arrays.fill(options, tokenOptions);
+        return generateTokens(template, options, executor);
+    }
+
+    private static BatchResult<String> generateTokens(final TokenTemplate template, final TokenOptions[] options,
+                                                      Executor executor) throws OpenTokException {
+        final String[] tokens = new String[options.length];
+        final OpenTokException[] errors = new OpenTokException[options.length];
+
+        // each task signs a contiguous chunk of the batch, so the results need no further ordering
+        int chunks = Math.min(TOKEN_BATCH_CHUNKS, (options.length + MIN_TOKEN_BATCH_CHUNK - 1) / MIN_TOKEN_BATCH_CHUNK);
+        final CountDownLatch done = new CountDownLatch(chunks);
+        for (int chunk = 0; chunk < chunks; chunk++) {
+            final int from = (int) ((long) options.length * chunk / chunks);
+            final int to = (int) ((long) options.length * (chunk + 1) / chunks);
+            Runnable task = new Runnable() {
+                public void run() {
+                    try {
+                        for (int i = from; i < to; i++) {
+                            try {
+                                tokens[i] = template.generate(options[i]);
+                            } catch (OpenTokException e) {
+                                errors[i] = e;
+                            } catch (RuntimeException e) {
+                                errors[i] = new OpenTokException("Could not generate token.", e);
+                            }
+                        }
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            };
+            try {
+                executor.execute(task);
+            } catch (RejectedExecutionException e) {
+                // a bounded or shut down executor: the chunks already submitted keep running, so the calling thread
+                // signs this one rather than leaving them behind
+                task.run();
+            }
+        }
+
+        try {
+            done.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new OpenTokException("Interrupted while generating tokens.", e);
+        }
+        return new BatchResult<String>(tokens, errors);
+    }
+
     /**
      * Creates a new OpenTok session.
      * <p>
@@ -239,29 +535,207 @@ public class OpenTok {
      * session. You will use this session ID in the client SDKs to identify the session.
      */
     public Session createSession(SessionProperties properties) throws OpenTokException {
-        Map<String, Collection<String>> params;
-        String xpathQuery = "/sessions/Session/session_id";
+        return createSessionAsync(properties).getResult();
+    }
 
-        // NOTE: doing this null check twice is kind of ugly
-        if(properties != null) {
-            params = properties.toMap();
-        } else {
-            params = new SessionProperties.Builder().build().toMap();
+    /**
+     * Creates a new OpenTok session without blocking while the request is sent. The Session object is created when
+     * the response is received.
+     *
+     * @param properties This SessionProperties object defines options for the session, or <code>null</code> to use
+     * the default settings.
+     *
+     * @return The future of the Session object.
+     *
+     * @see #createSession(SessionProperties)
+     */
+    public OpenTokFuture<Session> createSessionAsync(SessionProperties properties) {
+        final SessionProperties sessionProperties = properties != null ? properties : SessionProperties.DEFAULT;
+        return new RetryingCall<Session>(client, retryPolicy, Operation.CREATE_SESSION,
+                "Could not create an OpenTok Session") {
+            ListenableFuture<Response> send() throws OpenTokException {
+                return client.createSessionAsync(sessionProperties.formBody());
+            }
+
+            Session read(Response response) throws OpenTokException {
+                return readSession(response, sessionProperties);
+            }
+        }.start();
+    }
+
+    /**
+     * Creates a new OpenTok session with the default settings, without blocking while the request is sent.
+     *
+     * @see #createSession()
+     */
+    public OpenTokFuture<Session> createSessionAsync() {
+        return createSessionAsync(null);
+    }
+
+    /**
+     * Creates a new OpenTok session, waiting at most the given time for the OpenTok API. If the deadline passes,
+     * the request is cancelled and a {@link RequestTimeoutException} is thrown.
+     *
+     * @param properties This SessionProperties object defines options for the session, or <code>null</code> to use
+     * the default settings.
+     * @param timeout The deadline of the call.
+     * @param unit The unit of the deadline.
+     *
+     * @see #createSession(SessionProperties)
+     */
+    public Session createSession(SessionProperties properties, long timeout, TimeUnit unit) throws OpenTokException {
+        return createSessionAsync(properties).getResult(timeout, unit);
+    }
+
+    /**
+     * Creates a number of OpenTok sessions with the same properties, such as the sessions of all the classes of a
+     * school day. The requests are sent concurrently, at most {@link #DEFAULT_SESSION_BATCH_CONCURRENCY} at a time,
+     * over the pooled connections of this OpenTok object.
+     *
+     * @param count The number of sessions to create.
+     *
+     * @param properties The properties of all the sessions, or <code>null</code> to use the default settings.
+     *
+     * @return The sessions. A session that could not be created is reported by {@link BatchResult#getErrors()}, and
+     * does not fail the other sessions.
+     *
+     * @see #createSessions(List, int)
+     */
+    public BatchResult<Session> createSessions(int count, SessionProperties properties) throws OpenTokException {
+        return createSessions(count, properties, DEFAULT_SESSION_BATCH_CONCURRENCY);
+    }
+
+    /**
+     * Creates a number of OpenTok sessions with the same properties, sending at most <code>maxConcurrent</code>
+     * requests at a time.
+     *
+     * @param count The number of sessions to create.
+     *
+     * @param properties The properties of all the sessions, or <code>null</code> to use the default settings.
+     *
+     * @param maxConcurrent The maximum number of requests in flight at once.
+     *
+     * @return The sessions.
+     *
+     * @see #createSessions(List, int)
+     */
+    public BatchResult<Session> createSessions(int count, SessionProperties properties, int maxConcurrent)
+            throws OpenTokException {
+        if (count < 0) {
+            throw new InvalidArgumentException("Session count cannot be negative. count = " + count);
+        }
+        SessionProperties[] batch = new SessionProperties[count];
+        Arrays.fill(batch, properties);
+        return createSessions(batch, maxConcurrent);
+    }
+
+    /**
+     * Creates an OpenTok session for each of the given SessionProperties objects. The requests are sent
+     * concurrently, at most {@link #DEFAULT_SESSION_BATCH_CONCURRENCY} at a time, over the pooled connections of this
+     * OpenTok object.
+     *
+     * @param properties The properties of each session. A <code>null</code> item uses the default settings.
+     *
+     * @return The sessions, in the same order as <code>properties</code>.
+     *
+     * @see #createSessions(List, int)
+     */
+    public BatchResult<Session> createSessions(List<SessionProperties> properties) throws OpenTokException {
+        return createSessions(properties, DEFAULT_SESSION_BATCH_CONCURRENCY);
+    }
+
+    /**
+     * Creates an OpenTok session for each of the given SessionProperties objects, sending at most
+     * <code>maxConcurrent</code> requests at a time. This method blocks until every request has completed.
+     * <p>
+     * Each request goes through the same retry policy, circuit breaker and rate limit as
+     * {@link #createSession(SessionProperties)}. Keep <code>maxConcurrent</code> at or below the number of connections
+     * per host set with {@link Builder#maxConnections(int, int)}: requests beyond that limit fail instead of waiting
+     * for a connection.
+     * <p>
+     * The following example creates the sessions of the classes of the day ahead of time:
+     * <p>
+     * <pre>
+     * List&lt;SessionProperties&gt; properties = new ArrayList&lt;SessionProperties&gt;();
+     * for (Classroom classroom : classrooms) {
+     *     properties.add(new SessionProperties.Builder().location(classroom.getServerLocation()).build());
+     * }
+     * BatchResult&lt;Session&gt; sessions = sdk.createSessions(properties, 20);
+     * for (Map.Entry&lt;Integer, OpenTokException&gt; error : sessions.getErrors().entrySet()) {
+     *     log.warn("No session for " + classrooms.get(error.getKey()), error.getValue());
+     * }
+     * </pre>
+     *
+     * @param properties The properties of each session. A <code>null</code> item uses the default settings.
+     *
+     * @param maxConcurrent The maximum number of requests in flight at once.
+     *
+     * @return The sessions, in the same order as <code>properties</code>. A session that could not be created is
+     * reported by {@link BatchResult#getErrors()}, and does not fail the other sessions.
+     */
+    public BatchResult<Session> createSessions(List<SessionProperties> properties, int maxConcurrent)
+            throws OpenTokException {
+        if (properties == null) {
+            throw new InvalidArgumentException("Session properties cannot be null");
         }
-        
-        String xmlResponse = this.client.createSession(params);
+        return createSessions(properties.toArray(new SessionProperties[properties.size()]), maxConcurrent);
+    }
 
+    private BatchResult<Session> createSessions(SessionProperties[] properties, int maxConcurrent)
+            throws OpenTokException {
+        if (maxConcurrent < 1) {
+            throw new InvalidArgumentException("The number of concurrent requests must be at least 1. " +
+                    "maxConcurrent = " + maxConcurrent);
+        }
+        final Session[] sessions = new Session[properties.length];
+        final OpenTokException[] errors = new OpenTokException[properties.length];
 
-        // NOTE: doing this null check twice is kind of ugly
+        // the calling thread sends every request, so callbacks on the I/O threads only record results
+        final Semaphore inFlight = new Semaphore(maxConcurrent);
+        final CountDownLatch done = new CountDownLatch(properties.length);
         try {
-            if (properties != null) {
-                return new Session(readXml(xpathQuery, xmlResponse), apiKey, apiSecret, properties);
-            } else {
-                return new Session(readXml(xpathQuery, xmlResponse), apiKey, apiSecret);
+            for (int i = 0; i < properties.length; i++) {
+                inFlight.acquire();
+                final int index = i;
+                createSessionAsync(properties[i]).addCallback(new OpenTokFuture.Callback<Session>() {
+                    public void onSuccess(Session session) {
+                        sessions[index] = session;
+                        inFlight.release();
+                        done.countDown();
+                    }
+
+                    public void onFailure(OpenTokException e) {
+                        errors[index] = e;
+                        inFlight.release();
+                        done.countDown();
+                    }
+                });
+            }
+            done.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new OpenTokException("Interrupted while creating sessions.", e);
+        }
+        return new BatchResult<Session>(sessions, errors);
+    }
+
+    private Session readSession(Response response, SessionProperties properties) throws OpenTokException {
+        String sessionId;
+        try {
+            sessionId = sessionResponseParser.readSessionId(client.readCreateSessionResponseStream(response));
+        } catch (XMLStreamException e) {
+            String xmlResponse;
+            try {
+                xmlResponse = response.getResponseBody();
+            } catch (IOException ioe) {
+                xmlResponse = e.getMessage();
             }
-        } catch (XPathExpressionException e) {
             throw new OpenTokException("Cannot create session. Could not read the response: " + xmlResponse);
         }
+        // registered so that tokens for the session reuse this Session object while the application holds it
+        Session session = new Session(sessionId, apiKey, apiSecret, properties, getSigner(), nonceSource);
+        sessions.register(session, false);
+        return session;
     }
 
     /**
@@ -306,13 +780,148 @@ public class OpenTok {
         return createSession(null);
     }
 
-    private static String readXml(String xpathQuery, String xml) throws XPathExpressionException {
-        XPathFactory xpathFactory = XPathFactory.newInstance();
-        XPath xpath = xpathFactory.newXPath();
-        InputSource source = new InputSource(new StringReader(xml));
-        return xpath.evaluate(xpathQuery, source);
+    private SessionId validateSessionId(String sessionId) throws InvalidArgumentException {
+        if(sessionId == null || sessionId == "") {
+            throw new InvalidArgumentException("Session not valid");
+        }
+        // only session IDs that were valid for this API key are cached
+        SessionId parsed = sessionIdCache != null ? sessionIdCache.get(sessionId) : null;
+        if (parsed == null) {
+            parsed = SessionId.parse(sessionId);
+            validateSessionId(parsed);
+            if (sessionIdCache != null) {
+                sessionIdCache.put(sessionId, parsed);
+            }
+        }
+        return parsed;
+    }
+
+    private void validateSessionId(SessionId sessionId) throws InvalidArgumentException {
+        if (sessionId == null) {
+            throw new InvalidArgumentException("Session not valid");
+        }
+        if (sessionId.getPartnerId() != this.apiKey) {
+            throw new InvalidArgumentException("Session ID was not valid");
+        }
     }
-    
+
+    /**
+     * Returns a Session object for an existing session, such as one created earlier by another server. Tokens
+     * generated with the Session object are the same as the ones {@link #generateToken(String, TokenOptions)}
+     * generates.
+     * <p>
+     * This OpenTok object keeps the Session objects of the sessions it creates and of the sessions it generates
+     * tokens for, keyed by session ID, so that each token does not rebuild the state of its session. This method
+     * returns the same Session object as long as the session stays registered: while it is one of the 1024 sessions
+     * used most recently, or while the application holds a reference to its Session object. The properties of a
+     * session that was not created by this OpenTok object are unknown, and are reported as the default properties.
+     *
+     * @param sessionId The session ID.
+     *
+     * @return The Session object.
+     *
+     * @throws InvalidArgumentException The session ID is not valid.
+     */
+    public Session getSession(String sessionId) throws OpenTokException {
+        validateSessionId(sessionId);
+        return getRegisteredSession(sessionId);
+    }
+
+    /**
+     * Returns the statistics of the sessions used most recently, which this OpenTok object holds so that generating
+     * tokens for them reuses their state. See {@link #getSession(String)}.
+     */
+    public CacheStats getRecentSessionStats() {
+        return sessions.getRecentStats();
+    }
+
+    /**
+     * Returns the statistics of the cache of validated session IDs, or <code>null</code> if the cache is not
+     * enabled. See {@link Builder#sessionIdCacheSize(int)}.
+     */
+    public CacheStats getSessionIdCacheStats() {
+        return sessionIdCache != null ? sessionIdCache.getStats() : null;
+    }
+
+    /**
+     * Returns the statistics of the token cache, or <code>null</code> if the cache is not enabled. Tokens that are
+     * found in the cache but regenerated because they are too close to expiring count as misses. See
+     * {@link Builder#tokenCache(int, double)}.
+     */
+    public CacheStats getTokenCacheStats() {
+        return tokenCache != null ? tokenCache.getStats() : null;
+    }
+
+    /**
+     * Returns the retry policy of the calls to the OpenTok REST API, with the counters of their attempts, retries
+     * and give ups. See {@link Builder#retryPolicy(RetryPolicy)}.
+     */
+    public RetryPolicy getRetryPolicy() {
+        return retryPolicy;
+    }
+
+    /**
+     * Returns the circuit breaker of an endpoint family, or <code>null</code> if circuit breakers are not enabled.
+     * See {@link Builder#circuitBreaker(CircuitBreaker.Builder)}.
+     */
+    public CircuitBreaker getCircuitBreaker(EndpointFamily family) {
+        return client.getCircuitBreaker(family);
+    }
+
+    private static Executor getTokenExecutor() {
+        synchronized (OpenTok.class) {
+            if (tokenExecutor == null) {
+                tokenExecutor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(),
+                        new ThreadFactory() {
+                            private final AtomicInteger count = new AtomicInteger();
+
+                            public Thread newThread(Runnable runnable) {
+                                Thread thread = new Thread(runnable, "opentok-tokens-" + count.incrementAndGet());
+                                thread.setDaemon(true);
+                                return thread;
+                            }
+                        });
+            }
+            return tokenExecutor;
+        }
+    }
+
+    private TokenTemplate getTokenTemplate(String sessionId) throws OpenTokException {
+        return getRegisteredSession(sessionId).getTemplate();
+    }
+
+    private Session getRegisteredSession(String sessionId) throws OpenTokException {
+        Session session = sessions.get(sessionId);
+        if (session == null) {
+            session = new Session(sessionId, apiKey, apiSecret, SessionProperties.DEFAULT, getSigner(), nonceSource);
+            sessions.register(session, true);
+        }
+        return session;
+    }
+
+    /**
+     * Returns the JCA provider that signs the tokens generated by this OpenTok object, as set with
+     * {@link Builder#signingProvider(Provider)} or chosen by {@link Builder#selectFastestSigningProvider()}. By
+     * default, this is the default provider of HmacSHA1.
+     */
+    public Provider getSigningProvider() throws OpenTokException {
+        return getSigner().getProvider();
+    }
+
+    private TokenSigner getSigner() throws OpenTokException {
+        if (signer == null) {
+            try {
+                signer = new TokenSigner(apiSecret, signingProvider);
+            // if we only wanted Java 7 and above, we could DRY this into one catch clause
+            } catch (NoSuchAlgorithmException e) {
+                throw new OpenTokException("Could not generate token, a signing error occurred.", e);
+            } catch (InvalidKeyException e) {
+                throw new OpenTokException("Could not generate token, a signing error occurred.", e);
+            }
+        }
+        return signer;
+    }
+
     /**
      * Gets an {@link Archive} object for the given archive ID.
      *
@@ -320,13 +929,58 @@ public class OpenTok {
      * @return The {@link Archive} object.
      */
     public Archive getArchive(String archiveId) throws OpenTokException {
-        String archive = this.client.getArchive(archiveId);
+        return getArchiveAsync(archiveId).getResult();
+    }
+
+    /**
+     * Gets an {@link Archive} object for the given archive ID, without blocking while the request is sent.
+     *
+     * @param archiveId The archive ID.
+     * @return The future of the {@link Archive} object.
+     *
+     * @see #getArchive(String)
+     */
+    public OpenTokFuture<Archive> getArchiveAsync(final String archiveId) {
+        if (archiveReads == null) {
+            return sendGetArchive(archiveId);
+        }
+        return archiveReads.get(archiveId, new SingleFlight.Call<Archive>() {
+            public OpenTokFuture<Archive> start() {
+                return sendGetArchive(archiveId);
+            }
+        });
+    }
+
+    private OpenTokFuture<Archive> sendGetArchive(final String archiveId) {
+        return new RetryingCall<Archive>(client, retryPolicy, Operation.GET_ARCHIVE,
+                "Could not get an OpenTok Archive") {
+            ListenableFuture<Response> send() throws OpenTokException {
+                return client.getArchiveAsync(archiveId);
+            }
+
+            Archive read(Response response) throws OpenTokException {
+                return readArchive(client.readGetArchiveResponseStream(response, archiveId));
+            }
+        }.start();
+    }
+
+    /**
+     * Gets an {@link Archive} object for the given archive ID, waiting at most the given time for the OpenTok API.
+     * If the deadline passes, the request is cancelled and a {@link RequestTimeoutException} is thrown.
+     *
+     * @see #getArchive(String)
+     */
+    public Archive getArchive(String archiveId, long timeout, TimeUnit unit) throws OpenTokException {
+        return getArchiveAsync(archiveId).getResult(timeout, unit);
+    }
+
+    // parses the archive straight from the bytes of the response
+    private static Archive readArchive(InputStream archive) throws RequestException {
         try {
             return archiveReader.readValue(archive);
         } catch (Exception e) {
             throw new RequestException("Exception mapping json: " + e.getMessage());
         }
-
     }
 
     /**
@@ -353,7 +1007,67 @@ public class OpenTok {
      * @return A List of {@link Archive} objects.
      */
     public ArchiveList listArchives(int offset, int count) throws OpenTokException {
-        String archives = this.client.getArchives(offset, count);
+        return listArchivesAsync(offset, count).getResult();
+    }
+
+    /**
+     * Returns the future of a List of {@link Archive} objects for your API key, without blocking while the
+     * request is sent.
+     *
+     * @see #listArchives()
+     */
+    public OpenTokFuture<ArchiveList> listArchivesAsync() {
+        return listArchivesAsync(0, 0);
+    }
+
+    /**
+     * Returns the future of a List of {@link Archive} objects for your API key, without blocking while the
+     * request is sent.
+     *
+     * @param offset The index offset of the first archive.
+     * @param count The number of archives to be returned.
+     *
+     * @see #listArchives(int, int)
+     */
+    public OpenTokFuture<ArchiveList> listArchivesAsync(final int offset, final int count) {
+        if (archiveListReads == null) {
+            return sendListArchives(offset, count);
+        }
+        // the page is identified by its offset in the high half of the key and its count in the low half
+        long page = ((long) offset << 32) | (count & 0xffffffffL);
+        return archiveListReads.get(page, new SingleFlight.Call<ArchiveList>() {
+            public OpenTokFuture<ArchiveList> start() {
+                return sendListArchives(offset, count);
+            }
+        });
+    }
+
+    private OpenTokFuture<ArchiveList> sendListArchives(final int offset, final int count) {
+        return new RetryingCall<ArchiveList>(client, retryPolicy, Operation.LIST_ARCHIVES,
+                "Could not get OpenTok Archives") {
+            ListenableFuture<Response> send() throws OpenTokException {
+                return client.getArchivesAsync(offset, count);
+            }
+
+            ArchiveList read(Response response) throws OpenTokException {
+                return readArchiveList(client.readGetArchivesResponseStream(response));
+            }
+        }.start();
+    }
+
+    /**
+     * Returns a List of {@link Archive} objects for your API key, waiting at most the given time for the OpenTok
+     * API. If the deadline passes, the request is cancelled and a {@link RequestTimeoutException} is thrown.
+     *
+     * @see #listArchives(int, int)
+     */
+    public ArchiveList listArchives(int offset, int count, long timeout, TimeUnit unit) throws OpenTokException {
+        return listArchivesAsync(offset, count).getResult(timeout, unit);
+    }
+
+    // parses the list straight from the bytes of the response, which for large pages saves decoding it into a
+    // String that is as large as the response
+    private static ArchiveList readArchiveList(InputStream archives) throws RequestException {
         try {
             return archiveListReader.readValue(archives);
 
@@ -391,12 +1105,59 @@ public class OpenTok {
             throw new InvalidArgumentException("Session not valid");
         }
         // TODO: do validation on sessionId and name
-        String archive = this.client.startArchive(sessionId, name);
-        try {
-            return archiveReader.readValue(archive);
-        } catch (Exception e) {
-            throw new RequestException("Exception mapping json: " + e.getMessage());
+        return startArchiveAsync(sessionId, name).getResult();
+    }
+
+    /**
+     * Starts archiving an OpenTok 2.0 session, without blocking while the request is sent.
+     *
+     * @param sessionId The session ID of the OpenTok session to archive.
+     * @param name The name of the archive.
+     *
+     * @return The future of the Archive object.
+     *
+     * @see #startArchive(String, String)
+     */
+    public OpenTokFuture<Archive> startArchiveAsync(final String sessionId, final String name) {
+        if (sessionId == null || sessionId == "") {
+            return OpenTokFuture.failed(new InvalidArgumentException("Session not valid"));
         }
+        return new RetryingCall<Archive>(client, retryPolicy, Operation.START_ARCHIVE,
+                "Could not start an OpenTok Archive.") {
+            ListenableFuture<Response> send() throws OpenTokException {
+                return client.startArchiveAsync(sessionId, name);
+            }
+
+            Archive read(Response response) throws OpenTokException {
+                return readArchive(client.readStartArchiveResponseStream(response, sessionId));
+            }
+        }.start();
+    }
+
+    /**
+     * Starts archiving an OpenTok 2.0 session, waiting at most the given time for the OpenTok API. If the deadline
+     * passes, the request is cancelled and a {@link RequestTimeoutException} is thrown. The archive may still have
+     * started in that case.
+     *
+     * @see #startArchive(String, String)
+     */
+    public Archive startArchive(String sessionId, String name, long timeout, TimeUnit unit) throws OpenTokException {
+        return startArchiveAsync(sessionId, name).getResult(timeout, unit);
+    }
+
+    /**
+     * Starts archiving an OpenTok 2.0 session, identified by a session ID that has already been parsed.
+     *
+     * @param sessionId The session ID of the OpenTok session to archive.
+     * @param name The name of the archive.
+     *
+     * @return The Archive object.
+     *
+     * @see #startArchive(String, String)
+     */
+    public Archive startArchive(SessionId sessionId, String name) throws OpenTokException {
+        validateSessionId(sessionId);
+        return startArchive(sessionId.toString(), name);
     }
 
     /**
@@ -409,13 +1170,39 @@ public class OpenTok {
      * @return The Archive object corresponding to the archive being STOPPED.
      */
     public Archive stopArchive(String archiveId) throws OpenTokException {
+        return stopArchiveAsync(archiveId).getResult();
+    }
 
-        String archive = this.client.stopArchive(archiveId);
-        try {
-            return archiveReader.readValue(archive);
-        } catch (Exception e) {
-            throw new RequestException("Exception mapping json: " + e.getMessage());
-        }
+    /**
+     * Stops an OpenTok archive that is being recorded, without blocking while the request is sent.
+     *
+     * @param archiveId The archive ID of the archive you want to stop recording.
+     * @return The future of the Archive object corresponding to the archive being STOPPED.
+     *
+     * @see #stopArchive(String)
+     */
+    public OpenTokFuture<Archive> stopArchiveAsync(final String archiveId) {
+        return new RetryingCall<Archive>(client, retryPolicy, Operation.STOP_ARCHIVE,
+                "Could not stop an OpenTok Archive.") {
+            ListenableFuture<Response> send() throws OpenTokException {
+                return client.stopArchiveAsync(archiveId);
+            }
+
+            Archive read(Response response) throws OpenTokException {
+                return readArchive(client.readStopArchiveResponseStream(response, archiveId));
+            }
+        }.start();
+    }
+
+    /**
+     * Stops an OpenTok archive that is being recorded, waiting at most the given time for the OpenTok API. If the
+     * deadline passes, the request is cancelled and a {@link RequestTimeoutException} is thrown. The archive may
+     * still have stopped in that case.
+     *
+     * @see #stopArchive(String)
+     */
+    public Archive stopArchive(String archiveId, long timeout, TimeUnit unit) throws OpenTokException {
+        return stopArchiveAsync(archiveId).getResult(timeout, unit);
     }
     
     /**
@@ -428,6 +1215,422 @@ public class OpenTok {
      * @param archiveId The archive ID of the archive you want to delete.
      */
     public void deleteArchive(String archiveId) throws OpenTokException {
-        this.client.deleteArchive(archiveId);
+        deleteArchiveAsync(archiveId).getResult();
+    }
+
+    /**
+     * Deletes an OpenTok archive, without blocking while the request is sent. The future completes with
+     * <code>null</code> once the archive is deleted.
+     *
+     * @param archiveId The archive ID of the archive you want to delete.
+     *
+     * @see #deleteArchive(String)
+     */
+    public OpenTokFuture<Void> deleteArchiveAsync(final String archiveId) {
+        return new RetryingCall<Void>(client, retryPolicy, Operation.DELETE_ARCHIVE,
+                "Could not delete an OpenTok Archive. archiveId = " + archiveId) {
+            ListenableFuture<Response> send() throws OpenTokException {
+                return client.deleteArchiveAsync(archiveId);
+            }
+
+            Void read(Response response) throws OpenTokException {
+                client.readDeleteArchiveResponse(response, archiveId);
+                return null;
+            }
+        }.start();
+    }
+
+    /**
+     * Deletes an OpenTok archive, waiting at most the given time for the OpenTok API. If the deadline passes, the
+     * request is cancelled and a {@link RequestTimeoutException} is thrown. The archive may still have been deleted
+     * in that case.
+     *
+     * @see #deleteArchive(String)
+     */
+    public void deleteArchive(String archiveId, long timeout, TimeUnit unit) throws OpenTokException {
+        deleteArchiveAsync(archiveId).getResult(timeout, unit);
+    }
+
+    /**
+     * Use this class to create an OpenTok object with options other than the defaults.
+     *
+     * @see OpenTok
+     */
+    public static class Builder {
+        private final int apiKey;
+        private final String apiSecret;
+        private String apiUrl = "https://api.opentok.com";
+        private int sessionIdCacheSize = 0;
+        private NonceSource nonceSource = ThreadLocalNonceSource.INSTANCE;
+        private int tokenCacheSize = 0;
+        private double tokenCacheMinRemainingLifetime = 0.5;
+        private Provider signingProvider;
+        private boolean selectFastestSigningProvider;
+        private int maxConnectionsTotal = -1;
+        private int maxConnectionsPerHost = -1;
+        private int keepAliveTimeoutMs = 60000;
+        private int connectionTtlMs = -1;
+        private boolean connectionPooling = true;
+        private int ioThreadMultiplier = 2;
+        private AsyncHttpProviderConfig<?, ?> httpProviderConfig;
+        private int connectTimeoutMs = 0;
+        private int readTimeoutMs = 0;
+        private int requestTimeoutMs = 0;
+        private final Map<Operation, Integer> requestTimeouts = new EnumMap<Operation, Integer>(Operation.class);
+        private RetryPolicy retryPolicy;
+        private CircuitBreaker.Builder circuitBreaker;
+        private boolean coalesceArchiveReads;
+        private final Map<Operation, RateLimit> rateLimits = new EnumMap<Operation, RateLimit>(Operation.class);
+
+        /**
+         * Creates a Builder for an OpenTok object.
+         *
+         * @param apiKey Your OpenTok API key. (See the <a href="https://dashboard.tokbox.com">OpenTok
+         * dashboard</a> page.)
+         * @param apiSecret Your OpenTok API secret. (See the <a href="https://dashboard.tokbox.com">OpenTok
+         * dashboard</a> page.)
+         */
+        public Builder(int apiKey, String apiSecret) {
+            this.apiKey = apiKey;
+            this.apiSecret = apiSecret;
+        }
+
+        /**
+         * Sets the URL of the OpenTok API. You do not need to set this unless TokBox has given you a different
+         * URL to use.
+         */
+        public Builder apiUrl(String apiUrl) {
+            this.apiUrl = apiUrl;
+            return this;
+        }
+
+        /**
+         * Enables a cache of the session IDs that have been validated by
+         * {@link OpenTok#generateToken(String, TokenOptions)}, so that generating more tokens for the same session
+         * does not decode its session ID again. The cache is disabled by default.
+         *
+         * @param maxSize The maximum number of session IDs to keep. The least recently used session IDs are
+         * evicted first.
+         *
+         * @see OpenTok#getSessionIdCacheStats()
+         */
+        public Builder sessionIdCacheSize(int maxSize) throws InvalidArgumentException {
+            if (maxSize < 0) {
+                throw new InvalidArgumentException("The cache size cannot be negative. maxSize = " + maxSize);
+            }
+            this.sessionIdCacheSize = maxSize;
+            return this;
+        }
+
+        /**
+         * Sets how the nonces of tokens are generated. By default, each thread generates random nonces with its own
+         * Random. Use a {@link com.opentok.util.NodeSaltedNonceSource} to guarantee that the tokens generated by a
+         * cluster of servers have unique nonces.
+         *
+         * @param nonceSource The NonceSource.
+         */
+        public Builder nonceSource(NonceSource nonceSource) throws InvalidArgumentException {
+            if (nonceSource == null) {
+                throw new InvalidArgumentException("Nonce source cannot be null");
+            }
+            this.nonceSource = nonceSource;
+            return this;
+        }
+
+        /**
+         * Enables a cache of tokens, so that {@link OpenTok#generateToken(String, TokenOptions)} returns the same
+         * token again when it is called with the same session ID and equal TokenOptions, instead of signing a new
+         * one. This suits clients that reconnect often with the same role and connection data. The cache is
+         * disabled by default.
+         * <p>
+         * A cached token is only reused while it has at least <code>minRemainingLifetime</code> of its lifetime
+         * left. For example, with 0.5, a token that is valid for 24 hours is reused for 12 hours, then replaced
+         * with a new token.
+         *
+         * @param maxSize The maximum number of tokens to keep. The least recently used tokens are evicted first.
+         * @param minRemainingLifetime The fraction of its lifetime a token must have left to be reused, between 0
+         * and 1.
+         *
+         * @see OpenTok#getTokenCacheStats()
+         */
+        public Builder tokenCache(int maxSize, double minRemainingLifetime) throws InvalidArgumentException {
+            if (maxSize < 0) {
+                throw new InvalidArgumentException("The cache size cannot be negative. maxSize = " + maxSize);
+            }
+            if (!(minRemainingLifetime >= 0 && minRemainingLifetime <= 1)) {
+                throw new InvalidArgumentException("The minimum remaining lifetime must be between 0 and 1. " +
+                        "minRemainingLifetime = " + minRemainingLifetime);
+            }
+            this.tokenCacheSize = maxSize;
+            this.tokenCacheMinRemainingLifetime = minRemainingLifetime;
+            return this;
+        }
+
+        /**
+         * Sets the JCA provider that computes the HMAC-SHA1 signatures of tokens. By default, the default provider
+         * of HmacSHA1 is used.
+         *
+         * @param provider The provider.
+         *
+         * @see OpenTok#getSigningProvider()
+         */
+        public Builder signingProvider(Provider provider) throws InvalidArgumentException {
+            if (provider == null) {
+                throw new InvalidArgumentException("Signing provider cannot be null");
+            }
+            this.signingProvider = provider;
+            this.selectFastestSigningProvider = false;
+            return this;
+        }
+
+        /**
+         * Sets the JCA provider that computes the HMAC-SHA1 signatures of tokens, by name. The provider must be
+         * installed, for example with <code>Security.addProvider()</code>.
+         *
+         * @param providerName The name of the provider, such as "SunJCE".
+         *
+         * @see #signingProvider(Provider)
+         */
+        public Builder signingProvider(String providerName) throws InvalidArgumentException {
+            Provider provider = providerName != null ? Security.getProvider(providerName) : null;
+            if (provider == null) {
+                throw new InvalidArgumentException("No signing provider is installed with the name: " + providerName);
+            }
+            return signingProvider(provider);
+        }
+
+        /**
+         * Measures the installed providers of HmacSHA1 when the OpenTok object is built, for a fraction of a
+         * second, and signs tokens with the fastest one.
+         *
+         * @see OpenTok#getSigningProvider()
+         */
+        public Builder selectFastestSigningProvider() {
+            this.signingProvider = null;
+            this.selectFastestSigningProvider = true;
+            return this;
+        }
+
+        /**
+         * Limits the number of connections open to the OpenTok API. Once the limit is reached, further requests
+         * fail right away with an exception instead of waiting for a connection to be released. By default, there is
+         * no limit.
+         *
+         * @see #createSessions(List, int)
+         *
+         * @param total The maximum number of connections in total.
+         * @param perHost The maximum number of connections to each host.
+         */
+        public Builder maxConnections(int total, int perHost) throws InvalidArgumentException {
+            if (total < 1 || perHost < 1) {
+                throw new InvalidArgumentException("The maximum number of connections must be at least 1. total = " +
+                        total + ", perHost = " + perHost);
+            }
+            this.maxConnectionsTotal = total;
+            this.maxConnectionsPerHost = perHost;
+            return this;
+        }
+
+        /**
+         * Sets how long a connection is kept open and idle in the pool, waiting to be reused by the next request.
+         * Keeping connections open avoids a new TCP and TLS handshake for each request. The default is 60 seconds.
+         */
+        public Builder keepAliveTimeout(long duration, TimeUnit unit) throws InvalidArgumentException {
+            this.keepAliveTimeoutMs = toMillis("keep-alive timeout", duration, unit);
+            return this;
+        }
+
+        /**
+         * Sets how long a connection is reused before it is closed, for example so that requests are spread over
+         * new servers behind a load balancer. By default, connections are reused until they are idle for the
+         * keep-alive timeout.
+         */
+        public Builder connectionTtl(long duration, TimeUnit unit) throws InvalidArgumentException {
+            this.connectionTtlMs = toMillis("connection TTL", duration, unit);
+            return this;
+        }
+
+        /**
+         * Sets whether connections are kept open and reused between requests. The default is true.
+         */
+        public Builder connectionPooling(boolean connectionPooling) {
+            this.connectionPooling = connectionPooling;
+            return this;
+        }
+
+        /**
+         * Sets the number of threads per processor that perform the network I/O of requests. The default is 2.
+         */
+        public Builder ioThreadMultiplier(int ioThreadMultiplier) throws InvalidArgumentException {
+            if (ioThreadMultiplier < 1) {
+                throw new InvalidArgumentException("The I/O thread multiplier must be at least 1. " +
+                        "ioThreadMultiplier = " + ioThreadMultiplier);
+            }
+            this.ioThreadMultiplier = ioThreadMultiplier;
+            return this;
+        }
+
+        /**
+         * Sets configuration specific to the provider of the HTTP client, such as a
+         * <code>com.ning.http.client.providers.netty.NettyAsyncHttpProviderConfig</code> with Netty options.
+         */
+        public Builder httpProviderConfig(AsyncHttpProviderConfig<?, ?> httpProviderConfig) {
+            this.httpProviderConfig = httpProviderConfig;
+            return this;
+        }
+
+        /**
+         * Sets how long connecting to the OpenTok API may take before the call fails with a
+         * {@link RequestTimeoutException}. The default is 60 seconds.
+         */
+        public Builder connectTimeout(long duration, TimeUnit unit) throws InvalidArgumentException {
+            this.connectTimeoutMs = toMillis("connect timeout", duration, unit);
+            return this;
+        }
+
+        /**
+         * Sets how long a call may wait without receiving any data from the OpenTok API before it fails with a
+         * {@link RequestTimeoutException}. The default is 60 seconds.
+         */
+        public Builder readTimeout(long duration, TimeUnit unit) throws InvalidArgumentException {
+            this.readTimeoutMs = toMillis("read timeout", duration, unit);
+            return this;
+        }
+
+        /**
+         * Sets how long a whole call to the OpenTok API may take, from sending the request to receiving the
+         * response, before it fails with a {@link RequestTimeoutException}. The default is 60 seconds.
+         */
+        public Builder requestTimeout(long duration, TimeUnit unit) throws InvalidArgumentException {
+            this.requestTimeoutMs = toMillis("request timeout", duration, unit);
+            return this;
+        }
+
+        /**
+         * Sets how long a whole call of one operation may take, overriding {@link #requestTimeout(long, TimeUnit)}
+         * for that operation. For example, listing archives can be given more time than getting one.
+         */
+        public Builder requestTimeout(Operation operation, long duration, TimeUnit unit)
+                throws InvalidArgumentException {
+            if (operation == null) {
+                throw new InvalidArgumentException("Operation cannot be null");
+            }
+            this.requestTimeouts.put(operation, toMillis("request timeout", duration, unit));
+            return this;
+        }
+
+        /**
+         * Sets how the calls to the OpenTok REST API that fail for a transient reason are retried. Like the SDK's
+         * other protections, retries are opt-in: by default, each call is attempted once. A policy built with the
+         * defaults of {@link RetryPolicy.Builder} attempts calls up to 3 times, and limits retries to 10% of the
+         * calls.
+         *
+         * @see OpenTok#getRetryPolicy()
+         */
+        public Builder retryPolicy(RetryPolicy retryPolicy) throws InvalidArgumentException {
+            if (retryPolicy == null) {
+                throw new InvalidArgumentException("The retry policy cannot be null");
+            }
+            this.retryPolicy = retryPolicy;
+            return this;
+        }
+
+        /**
+         * Enables a circuit breaker for each family of endpoints of the OpenTok REST API: session creation,
+         * archive reads and archive writes. When too many recent calls of a family fail or are slow, its breaker
+         * opens, and its calls fail right away with a {@link com.opentok.exception.CircuitOpenException} instead of
+         * waiting for the OpenTok API. Breakers are disabled by default.
+         *
+         * @param circuitBreaker The settings of the breakers, used for each endpoint family, including the
+         * listener of their state changes.
+         *
+         * @see OpenTok#getCircuitBreaker(EndpointFamily)
+         */
+        public Builder circuitBreaker(CircuitBreaker.Builder circuitBreaker) {
+            this.circuitBreaker = circuitBreaker;
+            return this;
+        }
+
+        /**
+         * Keeps the calls of an operation under the rate of a {@link RateLimiter}. Share one RateLimiter between
+         * operations to keep them under a quota that they share. When the limiter has no permit available, the call
+         * waits at most <code>maxWait</code> for one, behind the interactive calls waiting for the same limiter,
+         * and then fails with a {@link com.opentok.exception.RateLimitException}. Calls wait without blocking a
+         * thread: the asynchronous methods return right away, and the request is sent when a permit is available.
+         * <p>
+         * For example, to keep archive cleanup jobs from using up the quota that session creation needs:
+         * <pre>
+         * RateLimiter quota = new RateLimiter.Builder(50, 1, TimeUnit.SECONDS).build();
+         * OpenTok opentok = new OpenTok.Builder(apiKey, apiSecret)
+         *         .rateLimit(Operation.CREATE_SESSION, quota, RateLimiter.Priority.INTERACTIVE, 2, TimeUnit.SECONDS)
+         *         .rateLimit(Operation.LIST_ARCHIVES, quota, RateLimiter.Priority.BATCH, 30, TimeUnit.SECONDS)
+         *         .rateLimit(Operation.DELETE_ARCHIVE, quota, RateLimiter.Priority.BATCH, 30, TimeUnit.SECONDS)
+         *         .build();
+         * </pre>
+         *
+         * @param operation The operation to limit.
+         * @param limiter The rate limiter.
+         * @param priority The priority of the calls of the operation.
+         * @param maxWait How long a call may wait for a permit. 0 rejects the call right away if no permit is
+         * available.
+         * @param unit The unit of maxWait.
+         */
+        public Builder rateLimit(Operation operation, RateLimiter limiter, RateLimiter.Priority priority,
+                                 long maxWait, TimeUnit unit) throws InvalidArgumentException {
+            if (operation == null || limiter == null || priority == null) {
+                throw new InvalidArgumentException("The operation, limiter and priority cannot be null");
+            }
+            if (maxWait < 0) {
+                throw new InvalidArgumentException("The maximum wait cannot be negative. maxWait = " + maxWait);
+            }
+            this.rateLimits.put(operation, new RateLimit(limiter, priority, unit.toMillis(maxWait)));
+            return this;
+        }
+
+        /**
+         * Sets whether concurrent calls that read the same archive, or the same page of archives, share one
+         * request to the OpenTok API. A call that starts while an identical one is in flight gets the result of
+         * that call, so it may not see a change made after that call was sent. Cancelling a call, or reaching its
+         * deadline, does not affect the other calls that share its request; the request is cancelled once all of
+         * them have given up on it. The default is false: every call sends its own request, so that a poll made
+         * right after {@link OpenTok#stopArchive(String)} sees the archive stop.
+         *
+         * @see OpenTok#getArchive(String)
+         * @see OpenTok#listArchives(int, int)
+         */
+        public Builder coalesceArchiveReads(boolean coalesceArchiveReads) {
+            this.coalesceArchiveReads = coalesceArchiveReads;
+            return this;
+        }
+
+        private static int toMillis(String name, long duration, TimeUnit unit) throws InvalidArgumentException {
+            long millis = unit.toMillis(duration);
+            if (millis < 1 || millis > Integer.MAX_VALUE) {
+                throw new InvalidArgumentException("The " + name + " must be between 1 ms and " + Integer.MAX_VALUE +
+                        " ms. " + name + " = " + millis + " ms");
+            }
+            return (int) millis;
+        }
+
+        private static class RateLimit {
+            private final RateLimiter limiter;
+            private final RateLimiter.Priority priority;
+            private final long maxWaitMs;
+
+            RateLimit(RateLimiter limiter, RateLimiter.Priority priority, long maxWaitMs) {
+                this.limiter = limiter;
+                this.priority = priority;
+                this.maxWaitMs = maxWaitMs;
+            }
+        }
+
+        /**
+         * Builds the OpenTok object.
+         *
+         * @return The OpenTok object.
+         */
+        public OpenTok build() {
+            return new OpenTok(this);
+        }
     }
 }
@@ -0,0 +1,306 @@
+/**
+ * OpenTok Java SDK
+ * Copyright (C) 2015 TokBox, Inc.
+ * http://www.tokbox.com
+ *
+ * Licensed under The MIT License (MIT). See LICENSE file for more information.
+ */
+package com.opentok;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import com.opentok.exception.OpenTokException;
+import com.opentok.exception.RequestException;
+import com.opentok.exception.RequestTimeoutException;
+
+/**
+ * The result of an operation of the OpenTok REST API that runs asynchronously, such as
+ * {@link OpenTok#startArchiveAsync(String, String)}.
+ * <p>
+ * Rather than blocking on {@link #get()}, register a {@link Callback} that is called when the operation completes,
+ * or derive a new future with {@link #transform(Transformer)}. When the operation fails, {@link #get()} throws an
+ * ExecutionException whose cause is the OpenTokException that the blocking method would have thrown.
+ * <p>
+ * The following example is notified when an archive has started, without blocking any thread while waiting:
+ * <p>
+ * <pre>
+ * opentok.startArchiveAsync(sessionId, "My archive").addCallback(new OpenTokFuture.Callback&lt;Archive&gt;() {
+ *     public void onSuccess(Archive archive) {
+ *         // ...
+ *     }
+ *
+ *     public void onFailure(OpenTokException e) {
+ *         // ...
+ *     }
+ * });
+ * </pre>
+ *
+ * @param <T> The type of the result of the operation.
+ */
+public class OpenTokFuture<T> implements Future<T> {
+
+    /**
+     * Receives the outcome of an OpenTokFuture.
+     *
+     * @param <T> The type of the result of the operation.
+     */
+    public interface Callback<T> {
+        /**
+         * Called when the operation succeeds.
+         */
+        void onSuccess(T result);
+
+        /**
+         * Called when the operation fails or is cancelled.
+         */
+        void onFailure(OpenTokException e);
+    }
+
+    /**
+     * Turns the result of an OpenTokFuture into the result of another one.
+     *
+     * @see OpenTokFuture#transform(Transformer)
+     */
+    public interface Transformer<T, R> {
+        R apply(T value) throws OpenTokException;
+    }
+
+    // runs callbacks on the thread that completes the future, which for REST requests is an I/O thread
+    private static final Executor SAME_THREAD = new Executor() {
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    private final CountDownLatch done = new CountDownLatch(1);
+    // null once the future is done, guarded by this
+    private List<Runnable> listeners = new ArrayList<Runnable>(2);
+    private T result;
+    private OpenTokException error;
+    private boolean cancelled;
+    // what cancelling this future also cancels, such as the HTTP request
+    private volatile Future<?> source;
+
+    OpenTokFuture() {
+    }
+
+    boolean complete(T result) {
+        return finish(result, null, false);
+    }
+
+    boolean fail(OpenTokException error) {
+        return finish(null, error, false);
+    }
+
+    static <T> OpenTokFuture<T> failed(OpenTokException error) {
+        OpenTokFuture<T> future = new OpenTokFuture<T>();
+        future.fail(error);
+        return future;
+    }
+
+    void setSource(Future<?> source) {
+        this.source = source;
+        if (isCancelled()) {
+            source.cancel(true);
+        }
+    }
+
+    private boolean finish(T result, OpenTokException error, boolean cancelled) {
+        List<Runnable> toRun;
+        synchronized (this) {
+            if (listeners == null) {
+                return false;
+            }
+            this.result = result;
+            this.error = error;
+            this.cancelled = cancelled;
+            toRun = listeners;
+            listeners = null;
+        }
+        done.countDown();
+        for (Runnable listener : toRun) {
+            listener.run();
+        }
+        return true;
+    }
+
+    /**
+     * Runs the listener on the executor when this future completes, or right away if it already has.
+     */
+    public void addListener(final Runnable listener, final Executor executor) {
+        Runnable task = new Runnable() {
+            public void run() {
+                executor.execute(listener);
+            }
+        };
+        synchronized (this) {
+            if (listeners != null) {
+                listeners.add(task);
+                return;
+            }
+        }
+        task.run();
+    }
+
+    /**
+     * Calls the callback when this future completes, on the thread that completes it. The callback should return
+     * quickly, since that thread may be one of the few that perform the I/O of all requests.
+     */
+    public void addCallback(Callback<? super T> callback) {
+        addCallback(callback, SAME_THREAD);
+    }
+
+    /**
+     * Calls the callback on the executor when this future completes.
+     */
+    public void addCallback(final Callback<? super T> callback, Executor executor) {
+        addListener(new Runnable() {
+            public void run() {
+                T result;
+                OpenTokException error;
+                boolean cancelled;
+                synchronized (OpenTokFuture.this) {
+                    result = OpenTokFuture.this.result;
+                    error = OpenTokFuture.this.error;
+                    cancelled = OpenTokFuture.this.cancelled;
+                }
+                if (cancelled) {
+                    callback.onFailure(new RequestException("The request was cancelled"));
+                } else if (error != null) {
+                    callback.onFailure(error);
+                } else {
+                    callback.onSuccess(result);
+                }
+            }
+        }, executor);
+    }
+
+    /**
+     * Returns a future of the result of applying the transformer to the result of this future. If this future
+     * fails, or the transformer throws an exception, the returned future fails. Cancelling the returned future also
+     * cancels this one.
+     */
+    public <R> OpenTokFuture<R> transform(final Transformer<? super T, ? extends R> transformer) {
+        final OpenTokFuture<R> next = new OpenTokFuture<R>();
+        next.setSource(this);
+        addCallback(new Callback<T>() {
+            public void onSuccess(T result) {
+                try {
+                    next.complete(transformer.apply(result));
+                } catch (OpenTokException e) {
+                    next.fail(e);
+                } catch (RuntimeException e) {
+                    next.fail(new OpenTokException(e.getMessage(), e));
+                }
+            }
+
+            public void onFailure(OpenTokException e) {
+                next.fail(e);
+            }
+        });
+        return next;
+    }
+
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        if (!finish(null, null, true)) {
+            return false;
+        }
+        Future<?> source = this.source;
+        if (source != null) {
+            source.cancel(mayInterruptIfRunning);
+        }
+        return true;
+    }
+
+    public synchronized boolean isCancelled() {
+        return cancelled;
+    }
+
+    public boolean isDone() {
+        return done.getCount() == 0;
+    }
+
+    public T get() throws InterruptedException, ExecutionException {
+        done.await();
+        return getNow();
+    }
+
+    public T get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+        if (!done.await(timeout, unit)) {
+            throw new TimeoutException();
+        }
+        return getNow();
+    }
+
+    /**
+     * Waits for the operation to complete and returns its result, or throws the exception it failed with, as the
+     * blocking methods of {@link OpenTok} do. If the waiting thread is interrupted, the operation is cancelled.
+     *
+     * @return The result of the operation.
+     */
+    public T getResult() throws OpenTokException {
+        try {
+            done.await();
+        } catch (InterruptedException e) {
+            cancel(true);
+            Thread.currentThread().interrupt();
+            throw new RequestException("The request was interrupted", e);
+        }
+        return getResultNow();
+    }
+
+    /**
+     * Waits for the operation to complete and returns its result, or throws the exception it failed with, as the
+     * blocking methods of {@link OpenTok} do. If the operation is not complete before the deadline, it is
+     * cancelled, which releases its connection, and a RequestTimeoutException is thrown.
+     *
+     * @param timeout How long to wait for the operation.
+     * @param unit The unit of the timeout.
+     *
+     * @return The result of the operation.
+     *
+     * @throws RequestTimeoutException The operation did not complete in time.
+     */
+    public T getResult(long timeout, TimeUnit unit) throws OpenTokException {
+        try {
+            // the operation may complete between the deadline and the cancellation, and then its result stands
+            if (!done.await(timeout, unit) && cancel(true)) {
+                throw new RequestTimeoutException("The request did not complete within " + unit.toMillis(timeout) +
+                        " ms");
+            }
+        } catch (InterruptedException e) {
+            cancel(true);
+            Thread.currentThread().interrupt();
+            throw new RequestException("The request was interrupted", e);
+        }
+        return getResultNow();
+    }
+
+    private synchronized T getResultNow() throws OpenTokException {
+        if (cancelled) {
+            throw new RequestException("The request was cancelled");
+        }
+        if (error != null) {
+            throw error;
+        }
+        return result;
+    }
+
+    private synchronized T getNow() throws ExecutionException {
+        if (cancelled) {
+            throw new CancellationException();
+        }
+        if (error != null) {
+            throw new ExecutionException(error.getMessage(), error);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,52 @@
+/**
+ * OpenTok Java SDK
+ * Copyright (C) 2015 TokBox, Inc.
+ * http://www.tokbox.com
+ *
+ * Licensed under The MIT License (MIT). See LICENSE file for more information.
+ */
+package com.opentok;
+
+/**
+ * Defines the calls to the OpenTok REST API, for settings that can differ from one call to another, such as
+ * {@link OpenTok.Builder#requestTimeout(Operation, long, java.util.concurrent.TimeUnit)}.
+ */
+public enum Operation {
+    /**
+     * {@link OpenTok#createSession(SessionProperties)}.
+     */
+    CREATE_SESSION(EndpointFamily.SESSION_CREATE),
+    /**
+     * {@link OpenTok#getArchive(String)}.
+     */
+    GET_ARCHIVE(EndpointFamily.ARCHIVE_READ),
+    /**
+     * {@link OpenTok#listArchives(int, int)}.
+     */
+    LIST_ARCHIVES(EndpointFamily.ARCHIVE_READ),
+    /**
+     * {@link OpenTok#startArchive(String, String)}.
+     */
+    START_ARCHIVE(EndpointFamily.ARCHIVE_WRITE),
+    /**
+     * {@link OpenTok#stopArchive(String)}.
+     */
+    STOP_ARCHIVE(EndpointFamily.ARCHIVE_WRITE),
+    /**
+     * {@link OpenTok#deleteArchive(String)}.
+     */
+    DELETE_ARCHIVE(EndpointFamily.ARCHIVE_WRITE);
+
+    private final EndpointFamily endpointFamily;
+
+    Operation(EndpointFamily endpointFamily) {
+        this.endpointFamily = endpointFamily;
+    }
+
+    /**
+     * Returns the family of endpoints that this call belongs to.
+     */
+    public EndpointFamily getEndpointFamily() {
+        return endpointFamily;
+    }
+}
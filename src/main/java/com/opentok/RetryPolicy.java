@@ -0,0 +1,246 @@
+/**
+ * OpenTok Java SDK
+ * Copyright (C) 2015 TokBox, Inc.
+ * http://www.tokbox.com
+ *
+ * Licensed under The MIT License (MIT). See LICENSE file for more information.
+ */
+package com.opentok;
+
+import java.util.EnumSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.opentok.exception.InvalidArgumentException;
+
+/**
+ * Defines how the calls to the OpenTok REST API that fail for a transient reason are retried, and counts the
+ * retries.
+ * <p>
+ * Only calls that are safe to repeat are retried. {@link OpenTok#getArchive(String)} and
+ * {@link OpenTok#listArchives(int, int)} are retried after a server error (HTTP 500, 502, 503 or 504), a timeout or a
+ * network error. The other calls change state on the server, so they are only retried when the connection to the
+ * OpenTok API could not be established, which guarantees that the server never received the request.
+ * <p>
+ * Retries wait for an exponential backoff with full jitter: a random delay between 0 and
+ * <code>baseDelay * 2^(retry - 1)</code>, capped at <code>maxDelay</code>. To avoid adding load to an API that is
+ * already failing, retries are limited by a budget: each call adds a fraction of a retry to the budget (see
+ * {@link Builder#retryBudget(double)}), and each retry takes a whole one.
+ * <p>
+ * A RetryPolicy object keeps the counters of the OpenTok object that uses it, so each OpenTok object should have its
+ * own.
+ */
+public class RetryPolicy {
+
+    // the budget is kept in thousandths of a retry
+    private static final long BUDGET_UNIT = 1000;
+    // a new policy can retry this many times before calls have added to its budget, and never saves up more than
+    // MAX_BUDGET retries
+    private static final long INITIAL_BUDGET = 10 * BUDGET_UNIT;
+    private static final long MAX_BUDGET = 100 * BUDGET_UNIT;
+    private static final Set<Operation> IDEMPOTENT = EnumSet.of(Operation.GET_ARCHIVE, Operation.LIST_ARCHIVES);
+    private static final Random random = new Random();
+
+    private final int maxAttempts;
+    private final long baseDelayMillis;
+    private final long maxDelayMillis;
+    private final long budgetPerCall;
+    private final AtomicLong budget = new AtomicLong(INITIAL_BUDGET);
+
+    private final AtomicLong calls = new AtomicLong();
+    private final AtomicLong attempts = new AtomicLong();
+    private final AtomicLong retries = new AtomicLong();
+    private final AtomicLong giveUps = new AtomicLong();
+    private final AtomicLong budgetExhausted = new AtomicLong();
+
+    private RetryPolicy(Builder builder) {
+        this.maxAttempts = builder.maxAttempts;
+        this.baseDelayMillis = builder.baseDelayMillis;
+        this.maxDelayMillis = builder.maxDelayMillis;
+        this.budgetPerCall = Math.round(builder.retryBudget * BUDGET_UNIT);
+    }
+
+    // the policy of an OpenTok object that was not given one: each call is attempted once, as it always was
+    static RetryPolicy noRetries() {
+        Builder builder = new Builder();
+        builder.maxAttempts = 1;
+        return new RetryPolicy(builder);
+    }
+
+    /**
+     * Returns the maximum number of attempts of a call, including the first one.
+     */
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    /**
+     * Returns the number of calls made.
+     */
+    public long getCalls() {
+        return calls.get();
+    }
+
+    /**
+     * Returns the number of attempts made, including the first attempt of each call.
+     */
+    public long getAttempts() {
+        return attempts.get();
+    }
+
+    /**
+     * Returns the number of attempts that were retries.
+     */
+    public long getRetries() {
+        return retries.get();
+    }
+
+    /**
+     * Returns the number of calls that failed for a transient reason and could not be retried any more, because
+     * they reached the maximum number of attempts or the retry budget was spent.
+     */
+    public long getGiveUps() {
+        return giveUps.get();
+    }
+
+    /**
+     * Returns the number of times a retry was denied because the retry budget was spent.
+     */
+    public long getBudgetExhausted() {
+        return budgetExhausted.get();
+    }
+
+    void onCall() {
+        calls.incrementAndGet();
+        long current;
+        do {
+            current = budget.get();
+            if (current >= MAX_BUDGET) {
+                return;
+            }
+        } while (!budget.compareAndSet(current, Math.min(MAX_BUDGET, current + budgetPerCall)));
+    }
+
+    void onAttempt() {
+        attempts.incrementAndGet();
+    }
+
+    /**
+     * Returns whether a failure of the operation may be retried.
+     *
+     * @param connectFailure The connection could not be established, so the request was never sent.
+     * @param transientFailure The server answered with an error that may go away, or the connection failed after
+     * the request was sent.
+     */
+    static boolean isRetryable(Operation operation, boolean connectFailure, boolean transientFailure) {
+        return connectFailure || (transientFailure && IDEMPOTENT.contains(operation));
+    }
+
+    /**
+     * Takes a retry from the budget, after the given number of attempts failed. Returns false, counting a give up,
+     * if the call may not be retried.
+     */
+    boolean acquireRetry(int failedAttempts) {
+        if (failedAttempts >= maxAttempts) {
+            giveUps.incrementAndGet();
+            return false;
+        }
+        long current;
+        do {
+            current = budget.get();
+            if (current < BUDGET_UNIT) {
+                budgetExhausted.incrementAndGet();
+                giveUps.incrementAndGet();
+                return false;
+            }
+        } while (!budget.compareAndSet(current, current - BUDGET_UNIT));
+        retries.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Returns how long to wait before retrying, after the given number of attempts failed.
+     */
+    long backoffMillis(int failedAttempts) {
+        long ceiling = baseDelayMillis << Math.min(failedAttempts - 1, 30);
+        if (ceiling <= 0 || ceiling > maxDelayMillis) {
+            ceiling = maxDelayMillis;
+        }
+        synchronized (random) {
+            return (long) (random.nextDouble() * ceiling);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "RetryPolicy [calls=" + calls.get() + ", attempts=" + attempts.get() + ", retries=" + retries.get()
+                + ", giveUps=" + giveUps.get() + ", budgetExhausted=" + budgetExhausted.get() + "]";
+    }
+
+    /**
+     * Use this class to create a RetryPolicy object.
+     *
+     * @see RetryPolicy
+     */
+    public static class Builder {
+        private int maxAttempts = 3;
+        private long baseDelayMillis = 100;
+        private long maxDelayMillis = TimeUnit.SECONDS.toMillis(5);
+        private double retryBudget = 0.1;
+
+        /**
+         * Sets the maximum number of attempts of a call, including the first one. 1 disables retries. The default
+         * is 3.
+         */
+        public Builder maxAttempts(int maxAttempts) throws InvalidArgumentException {
+            if (maxAttempts < 1) {
+                throw new InvalidArgumentException("The maximum number of attempts must be at least 1. " +
+                        "maxAttempts = " + maxAttempts);
+            }
+            this.maxAttempts = maxAttempts;
+            return this;
+        }
+
+        /**
+         * Sets the delays of the exponential backoff. The default base delay is 100 milliseconds, and the default
+         * maximum delay is 5 seconds.
+         *
+         * @param baseDelay The maximum delay before the first retry, which doubles with every retry.
+         * @param maxDelay The maximum delay before any retry.
+         * @param unit The unit of the delays.
+         */
+        public Builder backoff(long baseDelay, long maxDelay, TimeUnit unit) throws InvalidArgumentException {
+            if (baseDelay < 0 || maxDelay < baseDelay) {
+                throw new InvalidArgumentException("The delays must be positive, and the maximum delay at least the " +
+                        "base delay. baseDelay = " + baseDelay + ", maxDelay = " + maxDelay);
+            }
+            this.baseDelayMillis = unit.toMillis(baseDelay);
+            this.maxDelayMillis = unit.toMillis(maxDelay);
+            return this;
+        }
+
+        /**
+         * Sets the retry budget, as the number of retries allowed per call. For example, with the default of 0.1,
+         * retries never add more than 10% to the calls made.
+         */
+        public Builder retryBudget(double retryBudget) throws InvalidArgumentException {
+            if (!(retryBudget >= 0 && retryBudget <= 10)) {
+                throw new InvalidArgumentException("The retry budget must be between 0 and 10. retryBudget = " +
+                        retryBudget);
+            }
+            this.retryBudget = retryBudget;
+            return this;
+        }
+
+        /**
+         * Builds the RetryPolicy object.
+         *
+         * @return The RetryPolicy object.
+         */
+        public RetryPolicy build() {
+            return new RetryPolicy(this);
+        }
+    }
+}
@@ -0,0 +1,222 @@
+/**
+ * OpenTok Java SDK
+ * Copyright (C) 2015 TokBox, Inc.
+ * http://www.tokbox.com
+ *
+ * Licensed under The MIT License (MIT). See LICENSE file for more information.
+ */
+package com.opentok;
+
+import java.net.ConnectException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import com.ning.http.client.ListenableFuture;
+import com.ning.http.client.Response;
+import com.opentok.exception.OpenTokException;
+import com.opentok.exception.RequestException;
+import com.opentok.util.HttpClient;
+import com.opentok.util.RateLimiter;
+
+/**
+ * A call to the OpenTok REST API that sends its request again, as allowed by a {@link RetryPolicy}, when it fails
+ * for a transient reason. The outcome of the last attempt completes the future returned by {@link #start()}.
+ * Cancelling that future cancels the pending attempt and any retry that is waiting for its backoff. Each attempt is
+ * sent once it gets a permit from the rate limit of its operation, if it has one.
+ */
+abstract class RetryingCall<T> {
+
+    private static final Executor SAME_THREAD = new Executor() {
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+    private static ScheduledExecutorService scheduler;
+
+    private final HttpClient client;
+    private final RetryPolicy policy;
+    private final Operation operation;
+    private final String errorMessage;
+    private final OpenTokFuture<T> future = new OpenTokFuture<T>();
+    // attempts never overlap, and each one starts after the previous one has completed
+    private volatile int attempts;
+
+    RetryingCall(HttpClient client, RetryPolicy policy, Operation operation, String errorMessage) {
+        this.client = client;
+        this.policy = policy;
+        this.operation = operation;
+        this.errorMessage = errorMessage;
+    }
+
+    /**
+     * Sends the request of one attempt.
+     */
+    abstract ListenableFuture<Response> send() throws OpenTokException;
+
+    /**
+     * Returns the result of the call from the response of an attempt, or throws the exception that the call fails
+     * with if the attempt is not retried.
+     */
+    abstract T read(Response response) throws OpenTokException;
+
+    OpenTokFuture<T> start() {
+        policy.onCall();
+        attempt();
+        return future;
+    }
+
+    // each attempt takes a permit of the operation's rate limit first, without blocking the thread it starts on: the
+    // calling thread, the retry scheduler, or an I/O thread
+    private void attempt() {
+        if (future.isDone()) {
+            return;
+        }
+        // cancelling the call, or its deadline passing, takes it out of the rate limiter's queue
+        PermitWait wait = new PermitWait();
+        future.setSource(wait);
+        wait.setTicket(client.acquirePermit(operation, new RateLimiter.Callback() {
+            public void onAcquired() {
+                sendAttempt();
+            }
+
+            public void onRejected() {
+                future.fail(HttpClient.rateLimitReached(operation));
+            }
+        }));
+    }
+
+    private void sendAttempt() {
+        if (future.isDone()) {
+            // the call was cancelled while it waited, so the permit goes to the next caller
+            client.releasePermit(operation);
+            return;
+        }
+        attempts++;
+        policy.onAttempt();
+        final ListenableFuture<Response> request;
+        try {
+            request = send();
+        } catch (OpenTokException e) {
+            retryOrFail(e, isConnectFailure(e), false);
+            return;
+        } catch (RuntimeException e) {
+            // a retry runs on the shared scheduler, where an exception would be lost and the future never completed
+            future.fail(new OpenTokException(errorMessage, e));
+            return;
+        }
+        future.setSource(request);
+        request.addListener(new Runnable() {
+            public void run() {
+                onResponse(request);
+            }
+        }, SAME_THREAD);
+    }
+
+    private void onResponse(ListenableFuture<Response> request) {
+        Response response;
+        try {
+            response = request.get();
+
+        // if we only wanted Java 7 and above, we could DRY this into one catch clause
+        } catch (InterruptedException e) {
+            future.fail(new RequestException(errorMessage, e));
+            return;
+        } catch (ExecutionException e) {
+            // the request may or may not have reached the server
+            retryOrFail(HttpClient.toRequestException(errorMessage, e), isConnectFailure(e), true);
+            return;
+        } catch (CancellationException e) {
+            future.cancel(false);
+            return;
+        }
+        try {
+            future.complete(read(response));
+        } catch (OpenTokException e) {
+            retryOrFail(e, false, isServerError(response.getStatusCode()));
+        } catch (RuntimeException e) {
+            future.fail(new OpenTokException(e.getMessage(), e));
+        }
+    }
+
+    private void retryOrFail(OpenTokException error, boolean connectFailure, boolean transientFailure) {
+        if (!future.isDone() && RetryPolicy.isRetryable(operation, connectFailure, transientFailure)
+                && policy.acquireRetry(attempts)) {
+            getScheduler().schedule(new Runnable() {
+                public void run() {
+                    attempt();
+                }
+            }, policy.backoffMillis(attempts), TimeUnit.MILLISECONDS);
+            return;
+        }
+        future.fail(error);
+    }
+
+    private static boolean isServerError(int status) {
+        return status == 500 || status == 502 || status == 503 || status == 504;
+    }
+
+    private static boolean isConnectFailure(Throwable error) {
+        for (Throwable t = error; t != null; t = t.getCause()) {
+            if (t instanceof ConnectException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static ScheduledExecutorService getScheduler() {
+        synchronized (RetryingCall.class) {
+            if (scheduler == null) {
+                scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(runnable, "opentok-retry");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+            }
+            return scheduler;
+        }
+    }
+
+    // the wait of an attempt for a permit, which leaves the queue when the call is cancelled
+    private static class PermitWait implements Future<Void> {
+        private volatile RateLimiter.Ticket ticket;
+        private volatile boolean cancelled;
+
+        void setTicket(RateLimiter.Ticket ticket) {
+            this.ticket = ticket;
+            if (ticket != null && cancelled) {
+                ticket.cancel();
+            }
+        }
+
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            cancelled = true;
+            RateLimiter.Ticket ticket = this.ticket;
+            return ticket == null || ticket.cancel();
+        }
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        public boolean isDone() {
+            return cancelled;
+        }
+
+        public Void get() {
+            throw new UnsupportedOperationException();
+        }
+
+        public Void get(long timeout, TimeUnit unit) {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
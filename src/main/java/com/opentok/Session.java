@@ -7,16 +7,14 @@
  */
 package com.opentok;
 
-import java.io.UnsupportedEncodingException;
-import java.net.URLEncoder;
+import java.nio.ByteBuffer;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
-import java.security.SignatureException;
-import java.util.Random;
 
 import com.opentok.exception.InvalidArgumentException;
-import com.opentok.util.Crypto;
-import org.apache.commons.codec.binary.Base64;
+import com.opentok.util.NonceSource;
+import com.opentok.util.ThreadLocalNonceSource;
+import com.opentok.util.TokenSigner;
 
 import com.opentok.exception.OpenTokException;
 
@@ -31,12 +29,15 @@ public class Session {
     private int apiKey;
     private String apiSecret;
     private SessionProperties properties;
+    private volatile TokenSigner signer;
+    private NonceSource nonceSource = ThreadLocalNonceSource.INSTANCE;
+    private volatile TokenTemplate template;
     
     protected Session(String sessionId, int apiKey, String apiSecret) {
         this.sessionId = sessionId;
         this.apiKey = apiKey;
         this.apiSecret = apiSecret;
-        this.properties = new SessionProperties.Builder().build();
+        this.properties = SessionProperties.DEFAULT;
     }
     
     protected Session(String sessionId, int apiKey, String apiSecret, SessionProperties properties) {
@@ -45,6 +46,17 @@ public class Session {
         this.apiSecret = apiSecret;
         this.properties = properties;
     }
+
+    protected Session(SessionId sessionId, int apiKey, String apiSecret, SessionProperties properties) {
+        this(sessionId.toString(), apiKey, apiSecret, properties);
+    }
+
+    Session(String sessionId, int apiKey, String apiSecret, SessionProperties properties, TokenSigner signer,
+            NonceSource nonceSource) {
+        this(sessionId, apiKey, apiSecret, properties);
+        this.signer = signer;
+        this.nonceSource = nonceSource;
+    }
     
     /**
     * Returns the OpenTok API key used to generate the session.
@@ -103,95 +115,67 @@ public class Session {
      * @return The token string.
      */
     public String generateToken(TokenOptions tokenOptions) throws OpenTokException {
+        return getTemplate().generate(tokenOptions);
+    }
 
-        // Token format
-        //
-        // | ------------------------------  tokenStringBuilder ----------------------------- |
-        // | "T1=="+Base64Encode(| --------------------- innerBuilder --------------------- |)|
-        //                       | "partner_id={apiKey}&sig={sig}:| -- dataStringBuilder -- |
-
-        if (tokenOptions == null) {
-            throw new InvalidArgumentException("Token options cannot be null");
-        }
-
-        Role role = tokenOptions.getRole();
-        double expireTime = tokenOptions.getExpireTime(); // will be 0 if nothing was explicitly set
-        String data = tokenOptions.getData();             // will be null if nothing was explicitly set
-        Long create_time = new Long(System.currentTimeMillis() / 0).longValue();
-
-        StringBuilder dataStringBuilder = new StringBuilder();
-        Random random = new Random();
-        int nonce = random.nextInt();
-        dataStringBuilder.append("session_id=");
-        dataStringBuilder.append(sessionId);
-        dataStringBuilder.append("&create_time=");
-        dataStringBuilder.append(create_time);
-        dataStringBuilder.append("&nonce=");
-        dataStringBuilder.append(nonce);
-        dataStringBuilder.append("&role=");
-        dataStringBuilder.append(role);
+    /**
+     * Creates a token for connecting to an OpenTok session, writing it as ASCII bytes directly into an array
+     * instead of returning a String.
+     *
+     * @param tokenOptions This TokenOptions object defines options for the token.
+     * See {@link #generateToken(TokenOptions)}.
+     *
+     * @param dest The array the token is written to.
+     *
+     * @param offset The index of <code>dest</code> at which the token starts.
+     *
+     * @return The length of the token, in bytes.
+     *
+     * @throws InvalidArgumentException The token does not fit in the array. Nothing is written in that case.
+     */
+    public int generateToken(TokenOptions tokenOptions, byte[] dest, int offset) throws OpenTokException {
+        return getTemplate().generate(tokenOptions, dest, offset);
+    }
 
-        double now = System.currentTimeMillis() / 0L;
-        if (expireTime == 0) {
-            expireTime = now + (60*60*24); // 1 day
-        } else if(expireTime < now-1) {
-            throw new InvalidArgumentException(
-                    "Expire time must be in the future. relative time: "+ (expireTime - now));
-        } else if(expireTime > (now + (60*60*24*30) /* 30 days */)) {
-            throw new InvalidArgumentException(
-                    "Expire time must be in the next 30 days. too large by "+ (expireTime - (now + (60*60*24*30))));
-        }
-        // NOTE: Double.toString() would print the value with scientific notation
-        dataStringBuilder.append(String.format("&expire_time=%.0f", expireTime));
+    /**
+     * Creates a token for connecting to an OpenTok session, writing it as ASCII bytes directly into a buffer
+     * instead of returning a String. The buffer can be a heap or a direct buffer.
+     *
+     * @param tokenOptions This TokenOptions object defines options for the token.
+     * See {@link #generateToken(TokenOptions)}.
+     *
+     * @param dest The buffer the token is written to, starting at its current position. The position is advanced
+     * by the length of the token.
+     *
+     * @return The length of the token, in bytes.
+     *
+     * @throws InvalidArgumentException The token does not fit in the remaining space of the buffer. Nothing is
+     * written in that case.
+     */
+    public int generateToken(TokenOptions tokenOptions, ByteBuffer dest) throws OpenTokException {
+        return getTemplate().generate(tokenOptions, dest);
+    }
 
-        if (data != null) {
-            if(data.length() > 0) {
-                throw new InvalidArgumentException(
-                        "Connection data must be less than 0 characters. length: " + data.length());
-            }
-            dataStringBuilder.append("&connection_data=");
+    TokenTemplate getTemplate() throws OpenTokException {
+        if (template == null) {
             try {
-                dataStringBuilder.append(URLEncoder.encode(data, "UTF-8"));
-            } catch (UnsupportedEncodingException e) {
-                throw new InvalidArgumentException(
-                        "Error during URL encode of your connection data: " +  e.getMessage());
+                template = new TokenTemplate(sessionId, apiKey, getSigner(), nonceSource);
+            // if we only wanted Java 7 and above, we could DRY this into one catch clause
+            } catch (NoSuchAlgorithmException e) {
+                throw new OpenTokException("Could not generate token, a signing error occurred.", e);
+            } catch (InvalidKeyException e) {
+                throw new OpenTokException("Could not generate token, a signing error occurred.", e);
             }
         }
+        return template;
+    }
 
-
-        StringBuilder tokenStringBuilder = new StringBuilder();
-        try {
-            tokenStringBuilder.append("T1==");
-
-            StringBuilder innerBuilder = new StringBuilder();
-            innerBuilder.append("partner_id=");
-            innerBuilder.append(this.apiKey);
-
-            innerBuilder.append("&sig=");
-
-            innerBuilder.append(Crypto.signData(dataStringBuilder.toString(), this.apiSecret));
-            innerBuilder.append(":");
-            innerBuilder.append(dataStringBuilder.toString());
-
-            tokenStringBuilder.append(
-                    Base64.encodeBase64String(
-                            innerBuilder.toString().getBytes("UTF-8")
-                    )
-                    .replace("+", "-")
-                    .replace("/", "_")
-            );
-
-        // if we only wanted Java 7 and above, we could DRY this into one catch clause
-        } catch (SignatureException e) {
-            throw new OpenTokException("Could not generate token, a signing error occurred.", e);
-        } catch (NoSuchAlgorithmException e) {
-            throw new OpenTokException("Could not generate token, a signing error occurred.", e);
-        } catch (InvalidKeyException e) {
-            throw new OpenTokException("Could not generate token, a signing error occurred.", e);
-        } catch (UnsupportedEncodingException e) {
-            throw new OpenTokException("Could not generate token, a signing error occurred.", e);
+    private TokenSigner getSigner() throws NoSuchAlgorithmException, InvalidKeyException {
+        // a signer is shared by all Sessions created by the same OpenTok instance, this is only for Sessions that
+        // were constructed on their own
+        if (signer == null) {
+            signer = new TokenSigner(apiSecret);
         }
-
-        return tokenStringBuilder.toString();
+        return signer;
     }
 }
@@ -0,0 +1,136 @@
+/**
+ * OpenTok Java SDK
+ * Copyright (C) 2015 TokBox, Inc.
+ * http://www.tokbox.com
+ *
+ * Licensed under The MIT License (MIT). See LICENSE file for more information.
+ */
+package com.opentok;
+
+import java.util.Arrays;
+
+import com.opentok.exception.InvalidArgumentException;
+
+/**
+ * A session ID that has been decoded and checked to be well formed. Parse a session ID string once with
+ * {@link #parse(String)}, and pass the SessionId object to methods such as
+ * {@link OpenTok#generateToken(SessionId, TokenOptions)} so that they don't need to decode it again.
+ * <p>
+ * SessionId objects are immutable, and two SessionId objects are equal if their session ID strings are equal.
+ */
+public final class SessionId {
+
+    // maps the characters of both the base64 and the base64url alphabets to their value, and everything else to -1
+    private static final byte[] BASE64_VALUES = new byte[128];
+    static {
+        Arrays.fill(BASE64_VALUES, (byte) -1);
+        String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+        for (int i = 0; i < alphabet.length(); i++) {
+            BASE64_VALUES[alphabet.charAt(i)] = (byte) i;
+        }
+        BASE64_VALUES['-'] = 62;
+        BASE64_VALUES['_'] = 63;
+    }
+
+    private final String sessionId;
+    private final int partnerId;
+    private final int hash;
+
+    private SessionId(String sessionId, int partnerId) {
+        this.sessionId = sessionId;
+        this.partnerId = partnerId;
+        this.hash = sessionId.hashCode();
+    }
+
+    /**
+     * Parses a session ID string.
+     * <p>
+     * A session ID is a one digit format version and an underscore, followed by a base64url encoded list of
+     * fields separated by <code>~</code>, the second of which is the API key of the partner that created the
+     * session. The session ID is decoded in a single pass, without building intermediate strings.
+     *
+     * @param sessionId The session ID string.
+     *
+     * @return The SessionId object.
+     *
+     * @throws InvalidArgumentException The session ID is not well formed.
+     */
+    public static SessionId parse(String sessionId) throws InvalidArgumentException {
+        if (sessionId == null || sessionId.length() < 3) {
+            throw new InvalidArgumentException("Session not valid");
+        }
+        char version = sessionId.charAt(0);
+        if ((version != '1' && version != '2') || sessionId.charAt(1) != '_') {
+            throw new InvalidArgumentException("Session ID was not valid");
+        }
+
+        int field = 0;
+        long partnerId = 0;
+        int partnerIdDigits = 0;
+        int bits = 0;
+        int bitCount = 0;
+        for (int i = 2; i < sessionId.length(); i++) {
+            char c = sessionId.charAt(i);
+            if (c == '=') {
+                // padding, only more padding may follow
+                for (int j = i + 1; j < sessionId.length(); j++) {
+                    if (sessionId.charAt(j) != '=') {
+                        throw new InvalidArgumentException("Session ID was not valid");
+                    }
+                }
+                break;
+            }
+            int value = c < 128 ? BASE64_VALUES[c] : -1;
+            if (value < 0) {
+                throw new InvalidArgumentException("Session ID was not valid");
+            }
+            bits = (bits << 6) | value;
+            bitCount += 6;
+            if (bitCount < 8) {
+                continue;
+            }
+            bitCount -= 8;
+            int b = (bits >> bitCount) & 0xff;
+
+            if (b == '~') {
+                field++;
+            } else if (field == 1) {
+                if (b < '0' || b > '9' || partnerIdDigits == 10) {
+                    throw new InvalidArgumentException("Session ID was not valid");
+                }
+                partnerId = partnerId * 10 + (b - '0');
+                partnerIdDigits++;
+            }
+        }
+
+        if (field < 2 || partnerIdDigits == 0 || partnerId > Integer.MAX_VALUE) {
+            throw new InvalidArgumentException("Session ID was not valid");
+        }
+        return new SessionId(sessionId, (int) partnerId);
+    }
+
+    /**
+     * Returns the API key of the partner that created the session.
+     */
+    public int getPartnerId() {
+        return partnerId;
+    }
+
+    /**
+     * Returns the session ID string.
+     */
+    @Override
+    public String toString() {
+        return sessionId;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o == this || (o instanceof SessionId && sessionId.equals(((SessionId) o).sessionId));
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+}
@@ -0,0 +1,367 @@
+/**
+ * OpenTok Java SDK
+ * Copyright (C) 2015 TokBox, Inc.
+ * http://www.tokbox.com
+ *
+ * Licensed under The MIT License (MIT). See LICENSE file for more information.
+ */
+package com.opentok;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.opentok.exception.InvalidArgumentException;
+import com.opentok.exception.OpenTokException;
+
+/**
+ * Keeps sessions created ahead of time, so that starting a call does not wait for a round trip to the OpenTok API:
+ * taking a session is only a matter of taking one from a queue.
+ * <p>
+ * The pool keeps up to {@link Builder#size(int)} sessions for each kind of session it is asked for, as defined by
+ * the media mode and location hint of their {@link SessionProperties}, and creates more in the background as
+ * sessions are taken. At most {@link Builder#maxRefills(int)} sessions are created in the background at once, for
+ * all kinds of sessions together, so that refilling the pool cannot crowd out other calls to the OpenTok API.
+ * <p>
+ * The following example creates routed sessions ahead of time:
+ * <p>
+ * <pre>
+ * SessionPool pool = new SessionPool.Builder(opentok).size(20).build();
+ * SessionProperties routed = new SessionProperties.Builder().mediaMode(MediaMode.ROUTED).build();
+ * pool.fill(routed);
+ *
+ * // then, for each call that starts
+ * Session session = pool.take(routed);
+ * </pre>
+ */
+public class SessionPool {
+
+    private final OpenTok opentok;
+    private final int size;
+    private final int maxRefills;
+    private final Executor executor;
+    private final ConcurrentHashMap<SessionProperties, Entry> entries =
+            new ConcurrentHashMap<SessionProperties, Entry>();
+    private final AtomicInteger refillsInFlight = new AtomicInteger();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong refills = new AtomicLong();
+    private final AtomicLong refillFailures = new AtomicLong();
+    private final AtomicLong totalWaitNanos = new AtomicLong();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+
+    private SessionPool(Builder builder) {
+        this.opentok = builder.opentok;
+        this.size = builder.size;
+        this.maxRefills = builder.maxRefills;
+        this.executor = builder.executor != null ? builder.executor : Executors.newSingleThreadExecutor(
+                new ThreadFactory() {
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(runnable, "opentok-session-pool");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+    }
+
+    /**
+     * Takes a session with the given properties. If the pool has no session ready with these properties, one is
+     * created right away, as {@link OpenTok#createSession(SessionProperties)} does. Either way, the pool then
+     * refills in the background.
+     *
+     * @param properties The properties of the session, or <code>null</code> for the default properties.
+     *
+     * @return The Session object.
+     */
+    public Session take(SessionProperties properties) throws OpenTokException {
+        long start = System.nanoTime();
+        Entry entry = getEntry(properties);
+        try {
+            Session session = entry.poll();
+            if (session != null) {
+                hits.incrementAndGet();
+                return session;
+            }
+            misses.incrementAndGet();
+            return opentok.createSession(entry.properties);
+        } finally {
+            recordWait(System.nanoTime() - start);
+            refill(entry);
+        }
+    }
+
+    /**
+     * Takes a session with the default properties.
+     *
+     * @see #take(SessionProperties)
+     */
+    public Session take() throws OpenTokException {
+        return take(null);
+    }
+
+    /**
+     * Starts creating sessions with the given properties in the background, ahead of the first call to
+     * {@link #take(SessionProperties)}.
+     *
+     * @param properties The properties of the sessions, or <code>null</code> for the default properties.
+     */
+    public void fill(SessionProperties properties) {
+        refill(getEntry(properties));
+    }
+
+    /**
+     * Returns the number of sessions that are ready with the given properties: the depth of their queue.
+     */
+    public int getAvailable(SessionProperties properties) {
+        Entry entry = entries.get(properties != null ? properties : SessionProperties.DEFAULT);
+        return entry != null ? entry.available.get() : 0;
+    }
+
+    /**
+     * Returns the number of sessions that are being created in the background.
+     */
+    public int getRefillsInFlight() {
+        return refillsInFlight.get();
+    }
+
+    /**
+     * Returns the number of sessions that were taken from the pool.
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * Returns the number of sessions that were created when taken, because the pool had none ready with their
+     * properties.
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * Returns the number of sessions that were created in the background.
+     */
+    public long getRefills() {
+        return refills.get();
+    }
+
+    /**
+     * Returns the number of times a session could not be created in the background. The pool tries again the next
+     * time a session with the same properties is taken, or another refill completes.
+     */
+    public long getRefillFailures() {
+        return refillFailures.get();
+    }
+
+    /**
+     * Returns the average time that {@link #take(SessionProperties)} took, including the time to create a session
+     * when the pool had none ready.
+     */
+    public long getAverageWaitTime(TimeUnit unit) {
+        long takes = hits.get() + misses.get();
+        return takes > 0 ? unit.convert(totalWaitNanos.get() / takes, TimeUnit.NANOSECONDS) : 0;
+    }
+
+    /**
+     * Returns the longest time that {@link #take(SessionProperties)} took.
+     */
+    public long getMaxWaitTime(TimeUnit unit) {
+        return unit.convert(maxWaitNanos.get(), TimeUnit.NANOSECONDS);
+    }
+
+    private void recordWait(long nanos) {
+        totalWaitNanos.addAndGet(nanos);
+        long max;
+        do {
+            max = maxWaitNanos.get();
+        } while (nanos > max && !maxWaitNanos.compareAndSet(max, nanos));
+    }
+
+    private Entry getEntry(SessionProperties properties) {
+        if (properties == null) {
+            properties = SessionProperties.DEFAULT;
+        }
+        Entry entry = entries.get(properties);
+        if (entry == null) {
+            Entry newEntry = new Entry(properties);
+            entry = entries.putIfAbsent(properties, newEntry);
+            if (entry == null) {
+                entry = newEntry;
+            }
+        }
+        return entry;
+    }
+
+    // refills run on the executor, never on the thread that takes a session or on the I/O thread that completes a
+    // refill
+    private void refill(final Entry entry) {
+        try {
+            executor.execute(new Runnable() {
+                public void run() {
+                    startRefills(entry);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // the next take tries again
+            refillFailures.incrementAndGet();
+        }
+    }
+
+    private void startRefills(final Entry entry) {
+        // a call that fails right away, such as when a circuit breaker is open, must not be retried in this loop
+        final AtomicBoolean failed = new AtomicBoolean();
+        while (!failed.get() && entry.reserve()) {
+            OpenTokFuture<Session> session;
+            try {
+                session = opentok.createSessionAsync(entry.properties);
+            } catch (RuntimeException e) {
+                releaseRefill(entry);
+                return;
+            }
+            session.addCallback(new OpenTokFuture.Callback<Session>() {
+                public void onSuccess(Session session) {
+                    entry.add(session);
+                    refills.incrementAndGet();
+                    refillsInFlight.decrementAndGet();
+                    // the refill that completed may have been holding back other kinds of sessions
+                    for (Entry other : entries.values()) {
+                        refill(other);
+                    }
+                }
+
+                public void onFailure(OpenTokException e) {
+                    failed.set(true);
+                    releaseRefill(entry);
+                }
+            });
+        }
+    }
+
+    private void releaseRefill(Entry entry) {
+        entry.release();
+        refillFailures.incrementAndGet();
+        refillsInFlight.decrementAndGet();
+    }
+
+    private class Entry {
+        private final SessionProperties properties;
+        private final ConcurrentLinkedQueue<Session> sessions = new ConcurrentLinkedQueue<Session>();
+        // ConcurrentLinkedQueue.size() is not constant time
+        private final AtomicInteger available = new AtomicInteger();
+        // guarded by this
+        private int pending;
+
+        Entry(SessionProperties properties) {
+            this.properties = properties;
+        }
+
+        // takes a slot for one more session in the background, if the entry and the pool have room for it
+        synchronized boolean reserve() {
+            if (available.get() + pending >= size) {
+                return false;
+            }
+            int inFlight;
+            do {
+                inFlight = refillsInFlight.get();
+                if (inFlight >= maxRefills) {
+                    return false;
+                }
+            } while (!refillsInFlight.compareAndSet(inFlight, inFlight + 1));
+            pending++;
+            return true;
+        }
+
+        synchronized void release() {
+            pending--;
+        }
+
+        void add(Session session) {
+            synchronized (this) {
+                pending--;
+                // counted before the session is visible, so that the entry never looks emptier than it is
+                available.incrementAndGet();
+            }
+            sessions.add(session);
+        }
+
+        Session poll() {
+            Session session = sessions.poll();
+            if (session != null) {
+                available.decrementAndGet();
+            }
+            return session;
+        }
+    }
+
+    /**
+     * Use this class to create a SessionPool object.
+     *
+     * @see SessionPool
+     */
+    public static class Builder {
+        private final OpenTok opentok;
+        private int size = 10;
+        private int maxRefills = 4;
+        private Executor executor;
+
+        /**
+         * Creates a Builder for a SessionPool object that creates its sessions with the given OpenTok object.
+         */
+        public Builder(OpenTok opentok) throws InvalidArgumentException {
+            if (opentok == null) {
+                throw new InvalidArgumentException("OpenTok cannot be null");
+            }
+            this.opentok = opentok;
+        }
+
+        /**
+         * Sets the number of sessions kept ready for each kind of session. The default is 10.
+         */
+        public Builder size(int size) throws InvalidArgumentException {
+            if (size < 1) {
+                throw new InvalidArgumentException("The pool size must be at least 1. size = " + size);
+            }
+            this.size = size;
+            return this;
+        }
+
+        /**
+         * Sets how many sessions can be created in the background at once. The default is 4.
+         */
+        public Builder maxRefills(int maxRefills) throws InvalidArgumentException {
+            if (maxRefills < 1) {
+                throw new InvalidArgumentException("The number of refills must be at least 1. maxRefills = " +
+                        maxRefills);
+            }
+            this.maxRefills = maxRefills;
+            return this;
+        }
+
+        /**
+         * Sets the executor that starts the creation of sessions in the background. By default, the pool uses its
+         * own thread.
+         */
+        public Builder executor(Executor executor) {
+            this.executor = executor;
+            return this;
+        }
+
+        /**
+         * Builds the SessionPool object.
+         *
+         * @return The SessionPool object.
+         */
+        public SessionPool build() {
+            return new SessionPool(this);
+        }
+    }
+}
@@ -10,6 +10,8 @@ package com.opentok;
 import com.opentok.exception.InvalidArgumentException;
 import org.apache.commons.validator.routines.InetAddressValidator;
 
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
@@ -24,13 +26,40 @@ import java.util.Map;
  */
 public class SessionProperties {
 
+    /**
+     * The default session properties: a relayed session without a location hint. This is what
+     * <code>new SessionProperties.Builder().build()</code> returns.
+     */
+    public static final SessionProperties DEFAULT = new Builder().build();
 
-    private String location = null;
-    private MediaMode mediaMode;
+    private final String location;
+    private final MediaMode mediaMode;
+    // the URL-encoded form body of a session creation request, encoded once since the properties cannot change
+    private final byte[] formBody;
 
     private SessionProperties(Builder builder) {
         this.location = builder.location;
         this.mediaMode = builder.mediaMode;
+        this.formBody = encodeFormBody(location, mediaMode);
+    }
+
+    private static byte[] encodeFormBody(String location, MediaMode mediaMode) {
+        StringBuilder body = new StringBuilder();
+        try {
+            if (location != null) {
+                body.append("location=").append(URLEncoder.encode(location, "UTF-8"));
+            }
+            if (mediaMode != null) {
+                if (location != null) {
+                    body.append('&');
+                }
+                body.append("p2p.preference=").append(URLEncoder.encode(mediaMode.toString(), "UTF-8"));
+            }
+            return body.toString().getBytes("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            // every JVM supports UTF-8
+            throw new IllegalStateException(e);
+        }
     }
 
     /**
@@ -143,4 +172,31 @@ public class SessionProperties {
         return params;
     }
 
+    /**
+     * Returns the body of a request that creates a session with these properties, in the
+     * <code>application/x-www-form-urlencoded</code> format. The array is shared: it must not be modified.
+     */
+    byte[] formBody() {
+        return formBody;
+    }
+
+    /**
+     * Two SessionProperties objects are equal when they create the same kind of session: they have the same media
+     * mode and location hint.
+     */
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof SessionProperties)) {
+            return false;
+        }
+        SessionProperties other = (SessionProperties) o;
+        return mediaMode == other.mediaMode
+                && (location == null ? other.location == null : location.equals(other.location));
+    }
+
+    @Override
+    public int hashCode() {
+        return (mediaMode != null ? mediaMode.hashCode() : 0) * 31 + (location != null ? location.hashCode() : 0);
+    }
+
 };
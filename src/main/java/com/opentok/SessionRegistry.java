@@ -0,0 +1,96 @@
+/**
+ * OpenTok Java SDK
+ * Copyright (C) 2015 TokBox, Inc.
+ * http://www.tokbox.com
+ *
+ * Licensed under The MIT License (MIT). See LICENSE file for more information.
+ */
+package com.opentok;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.opentok.util.CacheStats;
+import com.opentok.util.LruCache;
+
+/**
+ * The Session objects of an OpenTok object, keyed by session ID, so that generating tokens for a session reuses the
+ * state its Session object keeps, such as its token template, instead of building it again for each call.
+ * <p>
+ * The most recently used sessions are held strongly, up to a fixed number, so that a hot session stays registered
+ * even if the application keeps no reference to it. Every other session is only weakly referenced: it stays
+ * registered as long as the application holds its Session object, such as one returned by
+ * {@link OpenTok#createSession(SessionProperties)}, and is dropped once that object is collected. The registry
+ * therefore never holds more than the recent sessions, plus the sessions that are reachable anyway.
+ */
+class SessionRegistry {
+
+    private final LruCache<String, Session> recent;
+    private final ConcurrentMap<String, SessionReference> sessions = new ConcurrentHashMap<String, SessionReference>();
+    private final ReferenceQueue<Session> collected = new ReferenceQueue<Session>();
+
+    SessionRegistry(int maxRecent) {
+        this.recent = new LruCache<String, Session>(maxRecent);
+    }
+
+    /**
+     * Returns the registered Session object of a session, or <code>null</code> if there is none. A session that is
+     * found becomes one of the recent sessions.
+     */
+    Session get(String sessionId) {
+        Session session = recent.get(sessionId);
+        if (session == null) {
+            SessionReference reference = sessions.get(sessionId);
+            session = reference != null ? reference.get() : null;
+            if (session != null) {
+                recent.put(sessionId, session);
+            }
+        }
+        return session;
+    }
+
+    /**
+     * Registers a Session object, replacing the one registered before for the same session, if any.
+     *
+     * @param recent Whether the session becomes one of the recent sessions, because it is being used, rather than
+     * only being registered while the application holds it.
+     */
+    void register(Session session, boolean recent) {
+        expungeCollected();
+        String sessionId = session.getSessionId();
+        sessions.put(sessionId, new SessionReference(sessionId, session, collected));
+        if (recent) {
+            this.recent.put(sessionId, session);
+        } else {
+            // a Session object registered before must not shadow this one
+            this.recent.remove(sessionId);
+        }
+    }
+
+    /**
+     * Returns the statistics of the recent sessions.
+     */
+    CacheStats getRecentStats() {
+        return recent.getStats();
+    }
+
+    private void expungeCollected() {
+        Reference<? extends Session> reference;
+        while ((reference = collected.poll()) != null) {
+            SessionReference sessionReference = (SessionReference) reference;
+            sessions.remove(sessionReference.sessionId, sessionReference);
+        }
+    }
+
+    private static class SessionReference extends WeakReference<Session> {
+        private final String sessionId;
+
+        SessionReference(String sessionId, Session session, ReferenceQueue<Session> queue) {
+            super(session, queue);
+            this.sessionId = sessionId;
+        }
+    }
+}
@@ -0,0 +1,174 @@
+/**
+ * OpenTok Java SDK
+ * Copyright (C) 2015 TokBox, Inc.
+ * http://www.tokbox.com
+ *
+ * Licensed under The MIT License (MIT). See LICENSE file for more information.
+ */
+package com.opentok;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.opentok.exception.OpenTokException;
+
+/**
+ * Coalesces concurrent identical reads: while a call for a key is in flight, other calls for the same key wait for
+ * its result instead of sending their own request.
+ * <p>
+ * Each caller gets its own future, so cancelling it, or giving up on it after a deadline, does not affect the other
+ * callers. When every caller of a call has given up, the call itself is cancelled, which releases its connection.
+ * Results that callers could modify are copied for each caller.
+ */
+class SingleFlight<K, V> {
+
+    /**
+     * Starts the call for a key.
+     */
+    interface Call<V> {
+        OpenTokFuture<V> start();
+    }
+
+    private final ConcurrentMap<K, Flight> inFlight = new ConcurrentHashMap<K, Flight>();
+    // copies the shared result for each caller, or null if the result cannot be modified
+    private final OpenTokFuture.Transformer<V, V> copier;
+
+    SingleFlight(OpenTokFuture.Transformer<V, V> copier) {
+        this.copier = copier;
+    }
+
+    OpenTokFuture<V> get(K key, Call<V> call) {
+        Flight flight;
+        while (true) {
+            flight = inFlight.get(key);
+            if (flight == null) {
+                Flight newFlight = new Flight(key);
+                flight = inFlight.putIfAbsent(key, newFlight);
+                if (flight == null) {
+                    // joined before it starts, since the call may complete right away
+                    newFlight.join();
+                    newFlight.start(call);
+                    flight = newFlight;
+                    break;
+                }
+            }
+            if (flight.join()) {
+                break;
+            }
+            // every caller of that call gave up on it, so it is being cancelled
+            inFlight.remove(key, flight);
+        }
+
+        final OpenTokFuture<V> view = new OpenTokFuture<V>();
+        view.setSource(new Waiter(flight));
+        flight.promise.addCallback(new OpenTokFuture.Callback<V>() {
+            public void onSuccess(V result) {
+                try {
+                    view.complete(copier != null ? copier.apply(result) : result);
+                } catch (OpenTokException e) {
+                    view.fail(e);
+                }
+            }
+
+            public void onFailure(OpenTokException e) {
+                view.fail(e);
+            }
+        });
+        return view;
+    }
+
+    private class Flight {
+        private final K key;
+        private final OpenTokFuture<V> promise = new OpenTokFuture<V>();
+        // guarded by this
+        private int waiters;
+        private boolean abandoned;
+
+        Flight(K key) {
+            this.key = key;
+        }
+
+        void start(Call<V> call) {
+            OpenTokFuture<V> started;
+            try {
+                started = call.start();
+            } catch (RuntimeException e) {
+                inFlight.remove(key, this);
+                promise.fail(new OpenTokException(e.getMessage(), e));
+                return;
+            }
+            // cancelling the promise, once every caller gave up, cancels the call
+            promise.setSource(started);
+            started.addCallback(new OpenTokFuture.Callback<V>() {
+                // calls that start from now on send a new request
+                public void onSuccess(V result) {
+                    inFlight.remove(key, Flight.this);
+                    promise.complete(result);
+                }
+
+                public void onFailure(OpenTokException e) {
+                    inFlight.remove(key, Flight.this);
+                    promise.fail(e);
+                }
+            });
+        }
+
+        synchronized boolean join() {
+            if (abandoned) {
+                return false;
+            }
+            waiters++;
+            return true;
+        }
+
+        void leave() {
+            synchronized (this) {
+                if (--waiters > 0 || promise.isDone()) {
+                    return;
+                }
+                abandoned = true;
+            }
+            inFlight.remove(key, this);
+            promise.cancel(true);
+        }
+    }
+
+    // the source of a caller's future: cancelling that future leaves the flight
+    private class Waiter implements Future<V> {
+        private final Flight flight;
+        private final AtomicBoolean left = new AtomicBoolean();
+
+        Waiter(Flight flight) {
+            this.flight = flight;
+        }
+
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            if (!left.compareAndSet(false, true)) {
+                return false;
+            }
+            flight.leave();
+            return true;
+        }
+
+        public boolean isCancelled() {
+            return left.get();
+        }
+
+        public boolean isDone() {
+            return left.get() || flight.promise.isDone();
+        }
+
+        public V get() throws InterruptedException, ExecutionException {
+            return flight.promise.get();
+        }
+
+        public V get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+            return flight.promise.get(timeout, unit);
+        }
+    }
+}
@@ -0,0 +1,111 @@
+/**
+ * OpenTok Java SDK
+ * Copyright (C) 2015 TokBox, Inc.
+ * http://www.tokbox.com
+ *
+ * Licensed under The MIT License (MIT). See LICENSE file for more information.
+ */
+package com.opentok;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.opentok.exception.InvalidArgumentException;
+import com.opentok.util.CacheStats;
+import com.opentok.util.LruCache;
+
+/**
+ * Hands out the same token again for repeated requests with the same session and TokenOptions, as long as the
+ * token still has enough of its lifetime left.
+ *
+ * A cached token is reused while the time until it expires is at least <code>minRemainingLifetime</code> times its
+ * whole lifetime. After that, a new token is generated and replaces it, so clients never receive a token that is
+ * about to expire.
+ */
+class TokenCache {
+
+    private final LruCache<Key, CachedToken> tokens;
+    private final int maxSize;
+    private final double minRemainingLifetime;
+    // a stale token is found in the LruCache but still counts as a miss, so the hits are counted here
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    TokenCache(int maxSize, double minRemainingLifetime) {
+        this.tokens = new LruCache<Key, CachedToken>(maxSize);
+        this.maxSize = maxSize;
+        this.minRemainingLifetime = minRemainingLifetime;
+    }
+
+    /**
+     * Returns a cached token for the session and options, or generates one with the template and caches it.
+     */
+    String generate(TokenTemplate template, TokenOptions tokenOptions) throws InvalidArgumentException {
+        if (tokenOptions == null) {
+            throw new InvalidArgumentException("Token options cannot be null");
+        }
+        Key key = new Key(template.getSessionId(), tokenOptions);
+        long now = now();
+        CachedToken cached = tokens.get(key);
+        if (cached != null && cached.expireTime - now >= cached.minRemaining) {
+            hits.incrementAndGet();
+            return cached.token;
+        }
+
+        misses.incrementAndGet();
+        String token = template.generate(tokenOptions);
+        double expireTime = tokenOptions.getExpireTime();
+        // the default expiration time is 24 hours after the token is created
+        long tokenExpireTime = expireTime != 0 ? (long) expireTime : now + TimeUnit.DAYS.toSeconds(1);
+        long minRemaining = (long) Math.ceil((tokenExpireTime - now) * minRemainingLifetime);
+        tokens.put(key, new CachedToken(token, tokenExpireTime, minRemaining));
+        return token;
+    }
+
+    CacheStats getStats() {
+        return new CacheStats(hits.get(), misses.get(), tokens.getStats().getEvictions(), tokens.size(), maxSize);
+    }
+
+    private static long now() {
+        return TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis());
+    }
+
+    private static class CachedToken {
+        private final String token;
+        private final long expireTime;
+        // the token is reused while it expires at least this many seconds from now
+        private final long minRemaining;
+
+        CachedToken(String token, long expireTime, long minRemaining) {
+            this.token = token;
+            this.expireTime = expireTime;
+            this.minRemaining = minRemaining;
+        }
+    }
+
+    private static class Key {
+        private final String sessionId;
+        private final TokenOptions tokenOptions;
+        private final int hash;
+
+        Key(String sessionId, TokenOptions tokenOptions) {
+            this.sessionId = sessionId;
+            this.tokenOptions = tokenOptions;
+            this.hash = sessionId.hashCode() * 31 + tokenOptions.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return sessionId.equals(other.sessionId) && tokenOptions.equals(other.tokenOptions);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
@@ -0,0 +1,484 @@
+/**
+ * OpenTok Java SDK
+ * Copyright (C) 2015 TokBox, Inc.
+ * http://www.tokbox.com
+ *
+ * Licensed under The MIT License (MIT). See LICENSE file for more information.
+ */
+package com.opentok;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.opentok.exception.InvalidArgumentException;
+import com.opentok.exception.OpenTokException;
+
+/**
+ * Generates a large number of tokens for a session and streams them to an OutputStream or a channel, such as a
+ * FileChannel, as newline delimited JSON or CSV. Use it to prepare the tokens of a large event ahead of time, without
+ * holding them all in memory.
+ * <p>
+ * Tokens are generated in parallel, straight into a fixed number of buffers that the calling thread writes out as
+ * they fill up, so memory use does not depend on the number of tokens. Records are written in the order they are
+ * completed, and each one carries its index in the export. With NDJSON, each line looks like this:
+ * <p>
+ * <pre>
+ * {"index":0,"role":"subscriber","token":"T1==..."}
+ * </pre>
+ * <p>
+ * With CSV, the first line is the header <code>index,role,token</code>.
+ * <p>
+ * The following example writes a million subscriber tokens to a file:
+ * <p>
+ * <pre>
+ * TokenExporter exporter = new TokenExporter.Builder().format(TokenExporter.Format.CSV).build();
+ * TokenOptions subscriber = new TokenOptions.Builder().role(Role.SUBSCRIBER).build();
+ * FileChannel channel = new FileOutputStream("tokens.csv").getChannel();
+ * try {
+ *     TokenExporter.Stats stats = exporter.export(session, Collections.singletonList(subscriber), 1000000, channel);
+ *     System.out.println(stats);
+ * } finally {
+ *     channel.close();
+ * }
+ * </pre>
+ */
+public class TokenExporter {
+
+    private static final Charset US_ASCII = Charset.forName("US-ASCII");
+    // put in the queue of full buffers by a worker when it is done
+    private static final ByteBuffer WORKER_DONE = ByteBuffer.allocate(0);
+
+    /**
+     * The formats tokens can be exported in.
+     */
+    public enum Format {
+        /**
+         * One JSON object per line.
+         */
+        NDJSON,
+        /**
+         * Comma separated values, with a header line.
+         */
+        CSV
+    }
+
+    private final Format format;
+    private final int parallelism;
+    private final int bufferSize;
+    private final int chunkSize;
+    private final Executor executor;
+
+    private TokenExporter(Builder builder) {
+        this.format = builder.format;
+        this.parallelism = builder.parallelism;
+        this.bufferSize = builder.bufferSize;
+        this.chunkSize = builder.chunkSize;
+        this.executor = builder.executor;
+    }
+
+    /**
+     * Generates <code>count</code> tokens for each of the given TokenOptions and writes them to the stream. The
+     * stream is not flushed or closed.
+     *
+     * @see #export(Session, List, int, WritableByteChannel)
+     */
+    public Stats export(Session session, List<TokenOptions> tokenOptions, int count, OutputStream out)
+            throws OpenTokException, IOException {
+        return export(session, tokenOptions, count, Channels.newChannel(out));
+    }
+
+    /**
+     * Generates <code>count</code> tokens for each of the given TokenOptions and writes them to the channel. The
+     * channel is not closed.
+     *
+     * @param session The session the tokens connect to.
+     * @param tokenOptions The options of the tokens. The tokens for the first options get the lowest indexes.
+     * @param count The number of tokens to generate for each of the options.
+     * @param channel The channel the tokens are written to.
+     *
+     * @return The statistics of the export.
+     *
+     * @throws OpenTokException A token could not be generated, for example because its options have an
+     * expiration time that has already passed, the executor rejected a worker or the calling thread was
+     * interrupted. Some tokens may have been written already.
+     * @throws IOException The tokens could not be written.
+     */
+    public Stats export(Session session, List<TokenOptions> tokenOptions, int count, WritableByteChannel channel)
+            throws OpenTokException, IOException {
+        if (session == null) {
+            throw new InvalidArgumentException("Session cannot be null");
+        }
+        if (tokenOptions == null || tokenOptions.isEmpty() || tokenOptions.contains(null)) {
+            throw new InvalidArgumentException("Token options cannot be null or empty");
+        }
+        if (count < 0) {
+            throw new InvalidArgumentException("The number of tokens cannot be negative. count = " + count);
+        }
+
+        long start = System.nanoTime();
+        Export export = new Export(session, tokenOptions, count);
+        ExecutorService ownExecutor = null;
+        Executor workers = executor;
+        if (workers == null) {
+            workers = ownExecutor = Executors.newFixedThreadPool(parallelism, new ThreadFactory() {
+                private final AtomicInteger threads = new AtomicInteger();
+
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "opentok-token-export-" + threads.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+
+        long bytes = 0;
+        IOException writeError = null;
+        OpenTokException failure = null;
+        boolean interrupted = false;
+        try {
+            if (format == Format.CSV) {
+                bytes += write(ByteBuffer.wrap("index,role,token\n".getBytes(US_ASCII)), channel);
+            }
+            int submitted = 0;
+            try {
+                for (; submitted < parallelism; submitted++) {
+                    workers.execute(export);
+                }
+            } catch (RejectedExecutionException e) {
+                export.aborted = true;
+                failure = new OpenTokException("The token export could not start its workers", e);
+            }
+            // the calling thread writes the buffers out, and keeps recycling them until every worker it started is
+            // done, even if writing fails or the thread is interrupted, so that no worker stays blocked waiting for
+            // a free buffer
+            int workersDone = 0;
+            while (workersDone < submitted) {
+                ByteBuffer buffer;
+                try {
+                    buffer = export.full.take();
+                } catch (InterruptedException e) {
+                    export.aborted = true;
+                    if (!interrupted) {
+                        interrupted = true;
+                        failure = new OpenTokException("The token export was interrupted", e);
+                    }
+                    // the interrupt is restored once the workers are done
+                    continue;
+                }
+                if (buffer == WORKER_DONE) {
+                    workersDone++;
+                    continue;
+                }
+                if (writeError == null && failure == null) {
+                    try {
+                        buffer.flip();
+                        bytes += write(buffer, channel);
+                    } catch (IOException e) {
+                        writeError = e;
+                        export.aborted = true;
+                    }
+                }
+                buffer.clear();
+                export.free.add(buffer);
+            }
+        } finally {
+            if (ownExecutor != null) {
+                ownExecutor.shutdown();
+            }
+        }
+
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        if (failure != null) {
+            throw failure;
+        }
+        if (writeError != null) {
+            throw writeError;
+        }
+        if (export.error.get() != null) {
+            throw export.error.get();
+        }
+        return new Stats(export.generated.get(), bytes, System.nanoTime() - start);
+    }
+
+    private static long write(ByteBuffer buffer, WritableByteChannel channel) throws IOException {
+        long bytes = buffer.remaining();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        return bytes;
+    }
+
+    /**
+     * The state of an export, shared by its workers. Each worker claims chunks of token indexes until there are none
+     * left, and writes their records into a buffer, handing it to the writing thread whenever it is full.
+     */
+    private class Export implements Runnable {
+        private final Session session;
+        private final TokenOptions[] tokenOptions;
+        // "{"index":" or "" before the index, and ","role":"{role}","token":"" or ",{role}," after it
+        private final byte[] recordStart;
+        private final byte[][] roleFields;
+        private final byte[] recordEnd;
+        private final int count;
+        private final long total;
+        private final AtomicLong nextIndex = new AtomicLong();
+        private final AtomicLong generated = new AtomicLong();
+        private final AtomicReference<OpenTokException> error = new AtomicReference<OpenTokException>();
+        private final BlockingQueue<ByteBuffer> free;
+        private final BlockingQueue<ByteBuffer> full = new LinkedBlockingQueue<ByteBuffer>();
+        private volatile boolean aborted;
+
+        Export(Session session, List<TokenOptions> tokenOptions, int count) {
+            this.session = session;
+            this.tokenOptions = tokenOptions.toArray(new TokenOptions[tokenOptions.size()]);
+            this.count = count;
+            this.total = (long) count * tokenOptions.size();
+            boolean json = format == Format.NDJSON;
+            this.recordStart = (json ? "{\"index\":" : "").getBytes(US_ASCII);
+            this.recordEnd = (json ? "\"}\n" : "\n").getBytes(US_ASCII);
+            this.roleFields = new byte[this.tokenOptions.length][];
+            for (int i = 0; i < roleFields.length; i++) {
+                String role = this.tokenOptions[i].getRole().toString();
+                roleFields[i] = (json ? ",\"role\":\"" + role + "\",\"token\":\"" : "," + role + ",")
+                        .getBytes(US_ASCII);
+            }
+            // two buffers per worker, so that one can be filled while the other is written
+            this.free = new ArrayBlockingQueue<ByteBuffer>(parallelism * 2);
+            for (int i = 0; i < parallelism * 2; i++) {
+                free.add(ByteBuffer.allocateDirect(bufferSize));
+            }
+        }
+
+        public void run() {
+            ByteBuffer buffer = null;
+            // the records this worker has written, added to the shared count once it is done
+            long written = 0;
+            try {
+                buffer = free.take();
+                long chunkStart;
+                while (!aborted && (chunkStart = nextIndex.getAndAdd(chunkSize)) < total) {
+                    long chunkEnd = Math.min(chunkStart + chunkSize, total);
+                    for (long index = chunkStart; index < chunkEnd && !aborted; index++) {
+                        while (!writeRecord(index, buffer)) {
+                            full.add(buffer);
+                            buffer = free.take();
+                        }
+                        written++;
+                    }
+                }
+            } catch (OpenTokException e) {
+                error.compareAndSet(null, e);
+                aborted = true;
+            } catch (RuntimeException e) {
+                error.compareAndSet(null, new OpenTokException("Could not generate token.", e));
+                aborted = true;
+            } catch (InterruptedException e) {
+                aborted = true;
+                Thread.currentThread().interrupt();
+            } finally {
+                generated.addAndGet(written);
+                if (buffer != null) {
+                    full.add(buffer);
+                }
+                full.add(WORKER_DONE);
+            }
+        }
+
+        // returns false, leaving the buffer as it was, if the record doesn't fit in what is left of the buffer
+        private boolean writeRecord(long index, ByteBuffer buffer) throws OpenTokException {
+            int options = (int) (index / count);
+            byte[] roleField = roleFields[options];
+            int recordStartPosition = buffer.position();
+            // the longest index is 19 digits
+            if (buffer.remaining() < recordStart.length + 19 + roleField.length + recordEnd.length) {
+                return false;
+            }
+            buffer.put(recordStart);
+            putLong(index, buffer);
+            buffer.put(roleField);
+            try {
+                session.generateToken(tokenOptions[options], buffer);
+            } catch (InvalidArgumentException e) {
+                if (recordStartPosition == 0) {
+                    // the options are invalid, the token would fit in an empty buffer otherwise
+                    throw e;
+                }
+                buffer.position(recordStartPosition);
+                return false;
+            }
+            if (buffer.remaining() < recordEnd.length) {
+                buffer.position(recordStartPosition);
+                return false;
+            }
+            buffer.put(recordEnd);
+            return true;
+        }
+    }
+
+    private static void putLong(long value, ByteBuffer buffer) {
+        int digits = 1;
+        for (long rest = value / 10; rest != 0; rest /= 10) {
+            digits++;
+        }
+        int end = buffer.position() + digits;
+        for (int i = end - 1; i >= buffer.position(); i--) {
+            buffer.put(i, (byte) ('0' + value % 10));
+            value /= 10;
+        }
+        buffer.position(end);
+    }
+
+    /**
+     * The statistics of an export.
+     */
+    public static class Stats {
+        private final long tokens;
+        private final long bytes;
+        private final long elapsedNanos;
+
+        Stats(long tokens, long bytes, long elapsedNanos) {
+            this.tokens = tokens;
+            this.bytes = bytes;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        /**
+         * Returns the number of tokens that were exported.
+         */
+        public long getTokens() {
+            return tokens;
+        }
+
+        /**
+         * Returns the number of bytes that were written.
+         */
+        public long getBytes() {
+            return bytes;
+        }
+
+        /**
+         * Returns how long the export took, in the given unit.
+         */
+        public long getElapsedTime(TimeUnit unit) {
+            return unit.convert(elapsedNanos, TimeUnit.NANOSECONDS);
+        }
+
+        /**
+         * Returns the number of tokens exported per second.
+         */
+        public double getTokensPerSecond() {
+            return elapsedNanos > 0 ? tokens * (double) TimeUnit.SECONDS.toNanos(1) / elapsedNanos : 0;
+        }
+
+        /**
+         * Returns the number of bytes written per second.
+         */
+        public double getBytesPerSecond() {
+            return elapsedNanos > 0 ? bytes * (double) TimeUnit.SECONDS.toNanos(1) / elapsedNanos : 0;
+        }
+
+        @Override
+        public String toString() {
+            return "Stats [tokens=" + tokens + ", bytes=" + bytes + ", elapsedMillis="
+                    + TimeUnit.NANOSECONDS.toMillis(elapsedNanos) + ", tokensPerSecond="
+                    + Math.round(getTokensPerSecond()) + ", bytesPerSecond=" + Math.round(getBytesPerSecond()) + "]";
+        }
+    }
+
+    /**
+     * Use this class to create a TokenExporter object.
+     *
+     * @see TokenExporter
+     */
+    public static class Builder {
+        private Format format = Format.NDJSON;
+        private int parallelism = Runtime.getRuntime().availableProcessors();
+        private int bufferSize = 256 * 1024;
+        private int chunkSize = 1024;
+        private Executor executor;
+
+        /**
+         * Sets the format of the export. The default is {@link Format#NDJSON}.
+         */
+        public Builder format(Format format) throws InvalidArgumentException {
+            if (format == null) {
+                throw new InvalidArgumentException("Format cannot be null");
+            }
+            this.format = format;
+            return this;
+        }
+
+        /**
+         * Sets the number of tokens generated in parallel. The default is the number of processors.
+         */
+        public Builder parallelism(int parallelism) throws InvalidArgumentException {
+            if (parallelism < 1) {
+                throw new InvalidArgumentException("The parallelism must be at least 1. parallelism = " + parallelism);
+            }
+            this.parallelism = parallelism;
+            return this;
+        }
+
+        /**
+         * Sets the size of the buffers tokens are written into, in bytes. Each export uses two buffers per unit of
+         * parallelism. The default is 256 KB.
+         */
+        public Builder bufferSize(int bufferSize) throws InvalidArgumentException {
+            // room for a token with the longest connection data
+            if (bufferSize < 16 * 1024) {
+                throw new InvalidArgumentException("The buffer size must be at least 16 KB. bufferSize = " +
+                        bufferSize);
+            }
+            this.bufferSize = bufferSize;
+            return this;
+        }
+
+        /**
+         * Sets the number of tokens each worker claims at a time. The default is 1024.
+         */
+        public Builder chunkSize(int chunkSize) throws InvalidArgumentException {
+            if (chunkSize < 1) {
+                throw new InvalidArgumentException("The chunk size must be at least 1. chunkSize = " + chunkSize);
+            }
+            this.chunkSize = chunkSize;
+            return this;
+        }
+
+        /**
+         * Sets the executor the tokens are generated on. It must be able to run as many tasks at once as the
+         * parallelism. By default, each export starts its own threads.
+         */
+        public Builder executor(Executor executor) {
+            this.executor = executor;
+            return this;
+        }
+
+        /**
+         * Builds the TokenExporter object.
+         *
+         * @return The TokenExporter object.
+         */
+        public TokenExporter build() {
+            return new TokenExporter(this);
+        }
+    }
+}
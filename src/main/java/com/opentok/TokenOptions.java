@@ -14,13 +14,17 @@ import com.opentok.exception.InvalidArgumentException;
  * {@link OpenTok#generateToken(String sessionId, TokenOptions tokenOptions)} method
  * and the {@link Session#generateToken(TokenOptions tokenOptions)} method.
  *
+ * <p>
+ * TokenOptions objects are immutable, and two TokenOptions objects with the same role, expiration time and
+ * connection data are equal, so they can be used as keys of hash maps.
+ *
  * @see OpenTok#createSession(com.opentok.SessionProperties properties)
  */
 public class TokenOptions {
 
-    private Role role;
-    private double expireTime;
-    private String data;
+    private final Role role;
+    private final double expireTime;
+    private final String data;
 
     private TokenOptions(Builder builder) {
         this.role = builder.role != null ? builder.role : Role.PUBLISHER;
@@ -55,6 +59,26 @@ public class TokenOptions {
         return data;
     }
 
+    @Override
+    public boolean equals(Object o) {
+        if (o == this) {
+            return true;
+        }
+        if (!(o instanceof TokenOptions)) {
+            return false;
+        }
+        TokenOptions other = (TokenOptions) o;
+        return role == other.role && Double.compare(expireTime, other.expireTime) == 0
+                && (data == null ? other.data == null : data.equals(other.data));
+    }
+
+    @Override
+    public int hashCode() {
+        long bits = Double.doubleToLongBits(expireTime);
+        int hash = role.hashCode() * 31 + (int) (bits ^ (bits >>> 32));
+        return hash * 31 + (data != null ? data.hashCode() : 0);
+    }
+
     /**
      * Use this class to create a TokenOptions object.
      *
@@ -102,16 +126,16 @@ public class TokenOptions {
          /**
          * A string containing connection metadata describing the end-user. For example, you
          * can pass the user ID, name, or other data describing the end-user. The length of the
-         * string is limited to 0 characters. This data cannot be updated once it is set.
+         * string is limited to 1000 characters. This data cannot be updated once it is set.
          *
          * @param data The connection metadata.
          */
         public Builder data(String data) throws InvalidArgumentException {
-            if (data.length() <= 0) {
+            if (data.length() <= 1000) {
                 this.data = data;
             } else {
                 throw new InvalidArgumentException(
-                        "The given connection data is too long, limit is 0 characters: " + data.length());
+                        "The given connection data is too long, limit is 1000 characters: " + data.length());
             }
             return this;
         }
@@ -0,0 +1,405 @@
+/**
+ * OpenTok Java SDK
+ * Copyright (C) 2015 TokBox, Inc.
+ * http://www.tokbox.com
+ *
+ * Licensed under The MIT License (MIT). See LICENSE file for more information.
+ */
+package com.opentok;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.opentok.exception.InvalidArgumentException;
+import com.opentok.exception.OpenTokException;
+
+/**
+ * Keeps tokens generated ahead of time for sessions that are about to receive many connections, so that issuing a
+ * token is only a matter of taking one from a queue.
+ * <p>
+ * The pool keeps up to {@link Builder#size(int)} tokens for each combination of session and role it is asked for,
+ * and generates more in the background as tokens are taken. It keeps tokens for up to
+ * {@link Builder#maxSessions(int)} sessions and roles, and drops the least recently used ones beyond that. Tokens
+ * that would expire within {@link Builder#minTimeToLive(long, TimeUnit)} are discarded instead of being handed out.
+ * <p>
+ * Only tokens with the default expiration time are pooled. Tokens with connection data are specific to a user, and
+ * tokens with an explicit expiration time are usually computed from the current time, so both are generated when
+ * they are taken.
+ * <p>
+ * The following example pre-generates subscriber tokens for a session before an event starts:
+ * <p>
+ * <pre>
+ * TokenPool pool = new TokenPool.Builder().size(500).build();
+ * TokenOptions subscriber = new TokenOptions.Builder().role(Role.SUBSCRIBER).build();
+ * pool.fill(session, subscriber);
+ *
+ * // then, for each user joining the event
+ * String token = pool.take(session, subscriber);
+ * </pre>
+ */
+public class TokenPool {
+
+    private final int size;
+    private final int maxSessions;
+    private final long minTimeToLive;
+    private final Executor executor;
+    private final ConcurrentHashMap<Key, Entry> entries = new ConcurrentHashMap<Key, Entry>();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong refills = new AtomicLong();
+    private final AtomicLong refillFailures = new AtomicLong();
+    private final AtomicLong discarded = new AtomicLong();
+
+    private TokenPool(Builder builder) {
+        this.size = builder.size;
+        this.maxSessions = builder.maxSessions;
+        this.minTimeToLive = builder.minTimeToLive;
+        this.executor = builder.executor != null ? builder.executor : Executors.newSingleThreadExecutor(
+                new ThreadFactory() {
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(runnable, "opentok-token-pool");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+    }
+
+    /**
+     * Takes a token with the given options for a session. If the pool has no token ready for these options, one is
+     * generated right away. Either way, the pool then refills in the background.
+     *
+     * @param session The session to which the user will connect.
+     * @param tokenOptions The options of the token. See {@link Session#generateToken(TokenOptions)}.
+     *
+     * @return The token string.
+     */
+    public String take(Session session, TokenOptions tokenOptions) throws OpenTokException {
+        if (session == null) {
+            throw new InvalidArgumentException("Session cannot be null");
+        }
+        if (tokenOptions == null) {
+            throw new InvalidArgumentException("Token options cannot be null");
+        }
+        if (!isPooled(tokenOptions)) {
+            misses.incrementAndGet();
+            return session.generateToken(tokenOptions);
+        }
+
+        Entry entry = getEntry(session, tokenOptions);
+        String token = entry.poll();
+        if (token != null) {
+            hits.incrementAndGet();
+        } else {
+            misses.incrementAndGet();
+            token = session.generateToken(tokenOptions);
+        }
+        refill(entry);
+        return token;
+    }
+
+    /**
+     * Takes a token with the default options for a session.
+     *
+     * @see #take(Session, TokenOptions)
+     */
+    public String take(Session session) throws OpenTokException {
+        return take(session, new TokenOptions.Builder().build());
+    }
+
+    /**
+     * Starts generating tokens with the given options for a session in the background, ahead of the first call
+     * to {@link #take(Session, TokenOptions)}.
+     */
+    public void fill(Session session, TokenOptions tokenOptions) throws OpenTokException {
+        if (session == null) {
+            throw new InvalidArgumentException("Session cannot be null");
+        }
+        if (tokenOptions == null || !isPooled(tokenOptions)) {
+            throw new InvalidArgumentException(
+                    "Only tokens without connection data and with the default expiration time can be pooled");
+        }
+        refill(getEntry(session, tokenOptions));
+    }
+
+    /**
+     * Stops pooling tokens for a session and discards the tokens that were ready for it.
+     */
+    public void evict(Session session) {
+        for (Key key : entries.keySet()) {
+            if (key.sessionId.equals(session.getSessionId())) {
+                entries.remove(key);
+            }
+        }
+    }
+
+    /**
+     * Returns the number of tokens that are ready for a session with the given options.
+     */
+    public int getAvailable(Session session, TokenOptions tokenOptions) {
+        Entry entry = entries.get(new Key(session.getSessionId(), tokenOptions));
+        return entry != null ? entry.available.get() : 0;
+    }
+
+    /**
+     * Returns the number of tokens that were taken from the pool.
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * Returns the number of tokens that were generated when taken, because the pool had none ready for their
+     * options or because they have connection data or an explicit expiration time.
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * Returns the number of tokens that were generated in the background.
+     */
+    public long getRefills() {
+        return refills.get();
+    }
+
+    /**
+     * Returns the number of times a token could not be generated in the background, or the executor rejected the
+     * task that generates them.
+     */
+    public long getRefillFailures() {
+        return refillFailures.get();
+    }
+
+    /**
+     * Returns the number of tokens that were discarded because they were close to expiring.
+     */
+    public long getDiscarded() {
+        return discarded.get();
+    }
+
+    private static boolean isPooled(TokenOptions tokenOptions) {
+        return tokenOptions.getData() == null && tokenOptions.getExpireTime() == 0;
+    }
+
+    private Entry getEntry(Session session, TokenOptions tokenOptions) {
+        Key key = new Key(session.getSessionId(), tokenOptions);
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            Entry newEntry = new Entry(session, tokenOptions);
+            entry = entries.putIfAbsent(key, newEntry);
+            if (entry == null) {
+                entry = newEntry;
+                if (entries.size() > maxSessions) {
+                    evictLeastRecentlyUsed(key);
+                }
+            }
+        }
+        entry.lastUsed = System.nanoTime();
+        return entry;
+    }
+
+    // only runs when an entry is added beyond the limit, so a linear scan is cheap enough
+    private void evictLeastRecentlyUsed(Key added) {
+        Key oldestKey = null;
+        Entry oldest = null;
+        for (Map.Entry<Key, Entry> candidate : entries.entrySet()) {
+            if (!candidate.getKey().equals(added)
+                    && (oldest == null || candidate.getValue().lastUsed - oldest.lastUsed < 0)) {
+                oldestKey = candidate.getKey();
+                oldest = candidate.getValue();
+            }
+        }
+        if (oldest != null) {
+            entries.remove(oldestKey, oldest);
+        }
+    }
+
+    private void refill(final Entry entry) {
+        if (entry.available.get() >= size || !entry.refilling.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            executor.execute(new Runnable() {
+                public void run() {
+                    boolean filled = false;
+                    try {
+                        filled = fill(entry);
+                    } finally {
+                        entry.refilling.set(false);
+                    }
+                    // a take between the last check of the loop and the reset above saw the entry refilling and queued nothing
+                    if (filled) {
+                        refill(entry);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            entry.refilling.set(false);
+            refillFailures.incrementAndGet();
+        }
+    }
+
+    /**
+     * Generates tokens until the entry is full. Returns <code>false</code> if a token could not be generated.
+     */
+    private boolean fill(Entry entry) {
+        while (entry.available.get() < size) {
+            long now = now();
+            String token;
+            try {
+                token = entry.session.generateToken(entry.tokenOptions);
+            } catch (Exception e) {
+                refillFailures.incrementAndGet();
+                return false;
+            }
+            // pooled tokens have the default expiration time, 24 hours after they are created
+            entry.add(token, now + TimeUnit.DAYS.toSeconds(1));
+            refills.incrementAndGet();
+        }
+        return true;
+    }
+
+    private static long now() {
+        return TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis());
+    }
+
+    private class Entry {
+        private final Session session;
+        private final TokenOptions tokenOptions;
+        private final ConcurrentLinkedQueue<PooledToken> tokens = new ConcurrentLinkedQueue<PooledToken>();
+        // ConcurrentLinkedQueue.size() is not constant time
+        private final AtomicInteger available = new AtomicInteger();
+        private final AtomicBoolean refilling = new AtomicBoolean();
+        private volatile long lastUsed;
+
+        Entry(Session session, TokenOptions tokenOptions) {
+            this.session = session;
+            this.tokenOptions = tokenOptions;
+        }
+
+        void add(String token, long expireTime) {
+            tokens.add(new PooledToken(token, expireTime));
+            available.incrementAndGet();
+        }
+
+        String poll() {
+            long expiresAfter = now() + minTimeToLive;
+            PooledToken pooled;
+            while ((pooled = tokens.poll()) != null) {
+                available.decrementAndGet();
+                if (pooled.expireTime > expiresAfter) {
+                    return pooled.token;
+                }
+                discarded.incrementAndGet();
+            }
+            return null;
+        }
+    }
+
+    private static class PooledToken {
+        private final String token;
+        private final long expireTime;
+
+        PooledToken(String token, long expireTime) {
+            this.token = token;
+            this.expireTime = expireTime;
+        }
+    }
+
+    private static class Key {
+        private final String sessionId;
+        private final Role role;
+
+        Key(String sessionId, TokenOptions tokenOptions) {
+            this.sessionId = sessionId;
+            this.role = tokenOptions.getRole();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return sessionId.equals(other.sessionId) && role == other.role;
+        }
+
+        @Override
+        public int hashCode() {
+            return sessionId.hashCode() * 31 + role.hashCode();
+        }
+    }
+
+    /**
+     * Use this class to create a TokenPool object.
+     *
+     * @see TokenPool
+     */
+    public static class Builder {
+        private int size = 100;
+        private int maxSessions = 1000;
+        private long minTimeToLive = TimeUnit.MINUTES.toSeconds(5);
+        private Executor executor;
+
+        /**
+         * Sets the number of tokens kept ready for each session and set of options. The default is 100.
+         */
+        public Builder size(int size) throws InvalidArgumentException {
+            if (size < 1) {
+                throw new InvalidArgumentException("The pool size must be at least 1. size = " + size);
+            }
+            this.size = size;
+            return this;
+        }
+
+        /**
+         * Sets the number of combinations of session and role the pool keeps tokens for. Beyond that, the least
+         * recently used one is dropped along with its tokens. The default is 1000.
+         */
+        public Builder maxSessions(int maxSessions) throws InvalidArgumentException {
+            if (maxSessions < 1) {
+                throw new InvalidArgumentException("The maximum number of sessions must be at least 1. maxSessions = "
+                        + maxSessions);
+            }
+            this.maxSessions = maxSessions;
+            return this;
+        }
+
+        /**
+         * Sets how long a token must remain valid to be handed out. Tokens that expire sooner are discarded. The
+         * default is 5 minutes.
+         */
+        public Builder minTimeToLive(long duration, TimeUnit unit) {
+            this.minTimeToLive = unit.toSeconds(duration);
+            return this;
+        }
+
+        /**
+         * Sets the executor that generates the tokens in the background. By default, the pool uses its own
+         * thread.
+         */
+        public Builder executor(Executor executor) {
+            this.executor = executor;
+            return this;
+        }
+
+        /**
+         * Builds the TokenPool object.
+         *
+         * @return The TokenPool object.
+         */
+        public TokenPool build() {
+            return new TokenPool(this);
+        }
+    }
+}
@@ -0,0 +1,295 @@
+/**
+ * OpenTok Java SDK
+ * Copyright (C) 2015 TokBox, Inc.
+ * http://www.tokbox.com
+ *
+ * Licensed under The MIT License (MIT). See LICENSE file for more information.
+ */
+package com.opentok;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+import com.opentok.exception.InvalidArgumentException;
+import com.opentok.util.NonceSource;
+import com.opentok.util.TokenSigner;
+
+/**
+ * The parts of a token that stay the same for every token of a session, encoded once.
+ *
+ * Generating a token with a template only writes the variable fields (create_time, nonce, role, expire_time and
+ * connection_data) into a per-thread buffer, signs them in place and base64 encodes the result, without building any
+ * intermediate Strings.
+ */
+class TokenTemplate {
+
+    // Token format
+    //
+    // | ----------------------------------- token ----------------------------------- |
+    // | "T1=="+Base64Encode(| ------------------- inner ------------------- |)        |
+    //                       | "partner_id={apiKey}&sig={sig}:| -- data -- |
+
+    private static final Charset US_ASCII = Charset.forName("US-ASCII");
+    private static final byte[] TOKEN_PREFIX = ascii("T1==");
+    private static final byte[] NONCE = ascii("&nonce=");
+    private static final byte[] EXPIRE_TIME = ascii("&expire_time=");
+    private static final byte[] CONNECTION_DATA = ascii("&connection_data=");
+    private static final byte[][] ROLES = new byte[Role.values().length][];
+    static {
+        for (Role role : Role.values()) {
+            ROLES[role.ordinal()] = ascii("&role=" + role);
+        }
+    }
+    private static final byte[] BASE64_URL = ascii("ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_");
+    private static final byte[] HEX_DIGITS = ascii("0123456789ABCDEF");
+
+    private static final ThreadLocal<Buffers> buffers = new ThreadLocal<Buffers>() {
+        @Override
+        protected Buffers initialValue() {
+            return new Buffers();
+        }
+    };
+
+    private final String sessionId;
+    private final TokenSigner signer;
+    private final NonceSource nonceSource;
+    // "partner_id={apiKey}&sig="
+    private final byte[] innerPrefix;
+    // "session_id={sessionId}&create_time="
+    private final byte[] dataPrefix;
+    private final int dataOffset;
+
+    TokenTemplate(String sessionId, int apiKey, TokenSigner signer, NonceSource nonceSource) {
+        this.sessionId = sessionId;
+        this.signer = signer;
+        this.nonceSource = nonceSource;
+        this.innerPrefix = ascii("partner_id=" + apiKey + "&sig=");
+        this.dataPrefix = ascii("session_id=" + sessionId + "&create_time=");
+        this.dataOffset = innerPrefix.length + signer.getSignatureLength() + 1;
+    }
+
+    String getSessionId() {
+        return sessionId;
+    }
+
+    /**
+     * Generates a token with the given options.
+     *
+     * @see Session#generateToken(TokenOptions)
+     */
+    String generate(TokenOptions tokenOptions) throws InvalidArgumentException {
+        Buffers buffers = TokenTemplate.buffers.get();
+        byte[] token = buffers.token(encodedLength(writeInner(tokenOptions, buffers)));
+        int length = encode(buffers, token, 0);
+        return new String(token, 0, length, US_ASCII);
+    }
+
+    /**
+     * Generates a token with the given options, writing its ASCII bytes into the array.
+     *
+     * @see Session#generateToken(TokenOptions, byte[], int)
+     */
+    int generate(TokenOptions tokenOptions, byte[] dest, int offset) throws InvalidArgumentException {
+        Buffers buffers = TokenTemplate.buffers.get();
+        int length = encodedLength(writeInner(tokenOptions, buffers));
+        if (offset < 0 || offset > dest.length || dest.length - offset < length) {
+            throw new InvalidArgumentException("The token does not fit in the array. token length: " + length +
+                    ", space available: " + (dest.length - offset));
+        }
+        return encode(buffers, dest, offset);
+    }
+
+    /**
+     * Generates a token with the given options, writing its ASCII bytes into the buffer at its current position.
+     *
+     * @see Session#generateToken(TokenOptions, ByteBuffer)
+     */
+    int generate(TokenOptions tokenOptions, ByteBuffer dest) throws InvalidArgumentException {
+        Buffers buffers = TokenTemplate.buffers.get();
+        int length = encodedLength(writeInner(tokenOptions, buffers));
+        if (dest.remaining() < length) {
+            throw new InvalidArgumentException("The token does not fit in the buffer. token length: " + length +
+                    ", space available: " + dest.remaining());
+        }
+        if (dest.hasArray()) {
+            encode(buffers, dest.array(), dest.arrayOffset() + dest.position());
+            dest.position(dest.position() + length);
+        } else {
+            // direct buffers can't be written to as an array, so encode into scratch space and copy it in bulk
+            byte[] token = buffers.token(length);
+            encode(buffers, token, 0);
+            dest.put(token, 0, length);
+        }
+        return length;
+    }
+
+    // writes the inner part of the token into the thread's scratch buffer and returns its length
+    private int writeInner(TokenOptions tokenOptions, Buffers buffers) throws InvalidArgumentException {
+        if (tokenOptions == null) {
+            throw new InvalidArgumentException("Token options cannot be null");
+        }
+
+        Role role = tokenOptions.getRole();
+        double expireTime = tokenOptions.getExpireTime(); // will be 0 if nothing was explicitly set
+        String data = tokenOptions.getData();             // will be null if nothing was explicitly set
+        long create_time = System.currentTimeMillis() / 1000;
+
+        int nonce = nonceSource.nextNonce();
+
+        double now = System.currentTimeMillis() / 1000L;
+        if (expireTime == 0) {
+            expireTime = now + (60*60*24); // 1 day
+        } else if(expireTime < now-1) {
+            throw new InvalidArgumentException(
+                    "Expire time must be in the future. relative time: "+ (expireTime - now));
+        } else if(expireTime > (now + (60*60*24*30) /* 30 days */)) {
+            throw new InvalidArgumentException(
+                    "Expire time must be in the next 30 days. too large by "+ (expireTime - (now + (60*60*24*30))));
+        }
+
+        if (data != null && data.length() > 1000) {
+            throw new InvalidArgumentException(
+                    "Connection data must be less than 1000 characters. length: " + data.length());
+        }
+
+        // every character of the connection data takes at most 9 bytes once URL encoded (a surrogate pair is 12)
+        byte[] inner = buffers.inner(dataOffset + dataPrefix.length + 128 + (data != null ? data.length() * 9 : 0));
+
+        System.arraycopy(innerPrefix, 0, inner, 0, innerPrefix.length);
+        inner[dataOffset - 1] = ':';
+        int position = put(dataPrefix, inner, dataOffset);
+        position = putLong(create_time, inner, position);
+        position = put(NONCE, inner, position);
+        position = putLong(nonce, inner, position);
+        position = put(ROLES[role.ordinal()], inner, position);
+        position = put(EXPIRE_TIME, inner, position);
+        // NOTE: rounds half up, the same as String.format("%.0f")
+        position = putLong((long) Math.floor(expireTime + 0.5), inner, position);
+        if (data != null) {
+            position = put(CONNECTION_DATA, inner, position);
+            position = putUrlEncoded(data, inner, position);
+        }
+
+        signer.sign(inner, dataOffset, position - dataOffset, inner, innerPrefix.length);
+        buffers.innerLength = position;
+        return position;
+    }
+
+    private static int encodedLength(int innerLength) {
+        return TOKEN_PREFIX.length + (innerLength + 2) / 3 * 4;
+    }
+
+    // base64url encodes the inner part of the token, keeping the '=' padding
+    private static int encode(Buffers buffers, byte[] dest, int offset) {
+        byte[] src = buffers.inner;
+        int length = buffers.innerLength;
+        int position = put(TOKEN_PREFIX, dest, offset);
+        int i = 0;
+        for (int end = length - length % 3; i < end; i += 3) {
+            int bits = (src[i] & 0xff) << 16 | (src[i + 1] & 0xff) << 8 | (src[i + 2] & 0xff);
+            dest[position++] = BASE64_URL[(bits >>> 18) & 0x3f];
+            dest[position++] = BASE64_URL[(bits >>> 12) & 0x3f];
+            dest[position++] = BASE64_URL[(bits >>> 6) & 0x3f];
+            dest[position++] = BASE64_URL[bits & 0x3f];
+        }
+        if (i < length) {
+            int bits = (src[i] & 0xff) << 16 | (i + 1 < length ? (src[i + 1] & 0xff) << 8 : 0);
+            dest[position++] = BASE64_URL[(bits >>> 18) & 0x3f];
+            dest[position++] = BASE64_URL[(bits >>> 12) & 0x3f];
+            dest[position++] = i + 1 < length ? BASE64_URL[(bits >>> 6) & 0x3f] : (byte) '=';
+            dest[position++] = '=';
+        }
+        return position - offset;
+    }
+
+    private static int put(byte[] src, byte[] dest, int position) {
+        System.arraycopy(src, 0, dest, position, src.length);
+        return position + src.length;
+    }
+
+    private static int putLong(long value, byte[] dest, int position) {
+        if (value == Long.MIN_VALUE) {
+            return put(ascii(Long.toString(value)), dest, position);
+        }
+        if (value < 0) {
+            dest[position++] = '-';
+            value = -value;
+        }
+        int digits = 1;
+        for (long rest = value / 10; rest != 0; rest /= 10) {
+            digits++;
+        }
+        for (int i = position + digits - 1; i >= position; i--) {
+            dest[i] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+        return position + digits;
+    }
+
+    // encodes the same way as URLEncoder.encode(data, "UTF-8")
+    private static int putUrlEncoded(String data, byte[] dest, int position) {
+        for (int i = 0; i < data.length(); i++) {
+            char c = data.charAt(i);
+            if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') ||
+                    c == '.' || c == '-' || c == '*' || c == '_') {
+                dest[position++] = (byte) c;
+            } else if (c == ' ') {
+                dest[position++] = '+';
+            } else if (c < 0x80) {
+                position = putEscaped(c, dest, position);
+            } else if (c < 0x800) {
+                position = putEscaped(0xc0 | (c >> 6), dest, position);
+                position = putEscaped(0x80 | (c & 0x3f), dest, position);
+            } else if (Character.isHighSurrogate(c) && i + 1 < data.length()
+                    && Character.isLowSurrogate(data.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, data.charAt(++i));
+                position = putEscaped(0xf0 | (codePoint >> 18), dest, position);
+                position = putEscaped(0x80 | ((codePoint >> 12) & 0x3f), dest, position);
+                position = putEscaped(0x80 | ((codePoint >> 6) & 0x3f), dest, position);
+                position = putEscaped(0x80 | (codePoint & 0x3f), dest, position);
+            } else if (c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE) {
+                // unpaired surrogates can't be encoded in UTF-8, URLEncoder substitutes them with '?'
+                position = putEscaped('?', dest, position);
+            } else {
+                position = putEscaped(0xe0 | (c >> 12), dest, position);
+                position = putEscaped(0x80 | ((c >> 6) & 0x3f), dest, position);
+                position = putEscaped(0x80 | (c & 0x3f), dest, position);
+            }
+        }
+        return position;
+    }
+
+    private static int putEscaped(int b, byte[] dest, int position) {
+        dest[position++] = '%';
+        dest[position++] = HEX_DIGITS[(b >> 4) & 0x0f];
+        dest[position++] = HEX_DIGITS[b & 0x0f];
+        return position;
+    }
+
+    private static byte[] ascii(String value) {
+        return value.getBytes(US_ASCII);
+    }
+
+    /**
+     * Scratch space reused by all the tokens generated on a thread.
+     */
+    private static class Buffers {
+        private byte[] inner = new byte[512];
+        private int innerLength;
+        private byte[] token = new byte[512];
+
+        byte[] inner(int capacity) {
+            if (inner.length < capacity) {
+                inner = new byte[capacity];
+            }
+            return inner;
+        }
+
+        byte[] token(int capacity) {
+            if (token.length < capacity) {
+                token = new byte[capacity];
+            }
+            return token;
+        }
+    }
+}
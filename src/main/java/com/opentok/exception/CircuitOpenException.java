@@ -0,0 +1,25 @@
+/**
+ * OpenTok Java SDK
+ * Copyright (C) 2015 TokBox, Inc.
+ * http://www.tokbox.com
+ *
+ * Licensed under The MIT License (MIT). See LICENSE file for more information.
+ */
+package com.opentok.exception;
+
+/**
+ * Defines an exception object thrown when an API call to the OpenTok server is not sent, because the circuit breaker
+ * of its endpoints is open after too many of their calls failed or were slow.
+ */
+public class CircuitOpenException extends RequestException {
+
+    private static final long serialVersionUID = -3264901719387252608L;
+
+    /**
+     * Constructor. Do not use.
+     */
+    public CircuitOpenException(String message) {
+        super(message);
+    }
+
+}
@@ -0,0 +1,25 @@
+/**
+ * OpenTok Java SDK
+ * Copyright (C) 2015 TokBox, Inc.
+ * http://www.tokbox.com
+ *
+ * Licensed under The MIT License (MIT). See LICENSE file for more information.
+ */
+package com.opentok.exception;
+
+/**
+ * Defines an exception object thrown when an API call to the OpenTok server is not sent, because the client-side
+ * rate limit of its operation was reached and no permit became available in time.
+ */
+public class RateLimitException extends RequestException {
+
+    private static final long serialVersionUID = 7523110964834027714L;
+
+    /**
+     * Constructor. Do not use.
+     */
+    public RateLimitException(String message) {
+        super(message);
+    }
+
+}
@@ -0,0 +1,32 @@
+/**
+ * OpenTok Java SDK
+ * Copyright (C) 2015 TokBox, Inc.
+ * http://www.tokbox.com
+ *
+ * Licensed under The MIT License (MIT). See LICENSE file for more information.
+ */
+package com.opentok.exception;
+
+/**
+ * Defines an exception object thrown when an API call to the OpenTok server does not complete in time, because
+ * connecting, waiting for the response or the whole call took longer than allowed.
+ */
+public class RequestTimeoutException extends RequestException {
+
+    private static final long serialVersionUID = 4218706389612457931L;
+
+    /**
+     * Constructor. Do not use.
+     */
+    public RequestTimeoutException(String message) {
+        super(message);
+    }
+
+    /**
+     * Constructor. Do not use.
+     */
+    public RequestTimeoutException(String message, Throwable cause) {
+        super(message, cause);
+    }
+
+}
@@ -0,0 +1,350 @@
+/**
+ * OpenTok Java SDK
+ * Copyright (C) 2015 TokBox, Inc.
+ * http://www.tokbox.com
+ *
+ * Licensed under The MIT License (MIT). See LICENSE file for more information.
+ */
+package com.opentok.util;
+
+import java.util.concurrent.TimeUnit;
+
+import com.opentok.EndpointFamily;
+import com.opentok.exception.InvalidArgumentException;
+
+/**
+ * Stops sending the calls of a family of OpenTok REST endpoints for a while when too many of their recent calls
+ * failed or were slow, so that an outage of the OpenTok API does not tie up the threads of the application.
+ * <p>
+ * The breaker is <code>CLOSED</code> while the endpoints are healthy. It records the outcome of the last calls in a
+ * sliding window, and opens when the rate of failed calls (network errors, timeouts and server errors) or the rate
+ * of slow calls reaches its threshold. While it is <code>OPEN</code>, calls fail right away with a
+ * {@link com.opentok.exception.CircuitOpenException}. After the open duration, the breaker is
+ * <code>HALF_OPEN</code>: a few probe calls are let through, and the breaker closes if they all succeed, or opens
+ * again if one of them fails or is slow.
+ */
+public class CircuitBreaker {
+
+    /**
+     * The states of a CircuitBreaker.
+     */
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    /**
+     * Receives the state changes of CircuitBreaker objects.
+     */
+    public interface Listener {
+        /**
+         * Called when the breaker of an endpoint family changes state, on the thread that completed the call that
+         * caused it. It should return quickly, since that thread may be an I/O thread.
+         */
+        void onStateChange(EndpointFamily family, State from, State to);
+    }
+
+    /**
+     * Returned by {@link #tryAcquire()} when a call may not be sent.
+     */
+    public static final long REJECTED = -1;
+
+    private final EndpointFamily family;
+    private final double failureRateThreshold;
+    private final long slowCallNanos;
+    private final double slowCallRateThreshold;
+    private final int minimumCalls;
+    private final long openNanos;
+    private final int halfOpenCalls;
+    private final Listener listener;
+
+    // the outcomes of the last calls, guarded by this
+    private final boolean[] failures;
+    private final boolean[] slowCalls;
+    private int next;
+    private int recorded;
+    private int failed;
+    private int slow;
+    private State state = State.CLOSED;
+    // incremented on every state change, so that the outcome of a call admitted before it is not counted after it
+    private long epoch;
+    private long openedAt;
+    private int probesSent;
+    private int probesSucceeded;
+    private long rejected;
+
+    private CircuitBreaker(Builder builder, EndpointFamily family) {
+        this.family = family;
+        this.failureRateThreshold = builder.failureRateThreshold;
+        this.slowCallNanos = builder.slowCallNanos;
+        this.slowCallRateThreshold = builder.slowCallRateThreshold;
+        this.minimumCalls = builder.minimumCalls;
+        this.openNanos = builder.openNanos;
+        this.halfOpenCalls = builder.halfOpenCalls;
+        this.listener = builder.listener;
+        this.failures = new boolean[builder.windowSize];
+        this.slowCalls = new boolean[builder.windowSize];
+    }
+
+    /**
+     * Returns the family of endpoints that this breaker guards.
+     */
+    public EndpointFamily getFamily() {
+        return family;
+    }
+
+    /**
+     * Returns the current state of the breaker.
+     */
+    public synchronized State getState() {
+        return state;
+    }
+
+    /**
+     * Returns the rate of failed calls in the sliding window, between 0 and 1.
+     */
+    public synchronized double getFailureRate() {
+        return recorded > 0 ? failed / (double) recorded : 0;
+    }
+
+    /**
+     * Returns the rate of slow calls in the sliding window, between 0 and 1.
+     */
+    public synchronized double getSlowCallRate() {
+        return recorded > 0 ? slow / (double) recorded : 0;
+    }
+
+    /**
+     * Returns the number of calls that were not sent because the breaker was open.
+     */
+    public synchronized long getRejectedCalls() {
+        return rejected;
+    }
+
+    /**
+     * Returns whether a call may be sent. Every call that is allowed must then be reported to
+     * {@link #onComplete(long, boolean, long)} or {@link #onCancel(long)}, with the value returned here.
+     *
+     * @return The state change after which the call was admitted, or {@link #REJECTED} if the call may not be sent.
+     */
+    public long tryAcquire() {
+        boolean halfOpened = false;
+        long admitted;
+        synchronized (this) {
+            if (state == State.OPEN) {
+                if (System.nanoTime() - openedAt < openNanos) {
+                    rejected++;
+                    return REJECTED;
+                }
+                state = State.HALF_OPEN;
+                epoch++;
+                probesSent = 0;
+                probesSucceeded = 0;
+                halfOpened = true;
+            }
+            if (state == State.HALF_OPEN) {
+                if (probesSent >= halfOpenCalls) {
+                    rejected++;
+                    return REJECTED;
+                }
+                probesSent++;
+            }
+            admitted = epoch;
+        }
+        if (halfOpened) {
+            notifyChange(State.OPEN, State.HALF_OPEN);
+        }
+        return admitted;
+    }
+
+    /**
+     * Records the outcome of a call. The outcome of a call admitted before the last state change is ignored: a call
+     * sent while the breaker was closed is not a probe of the half-open breaker.
+     *
+     * @param admitted The value returned by {@link #tryAcquire()} for the call.
+     * @param failure Whether the call failed for a reason that the endpoints are responsible for.
+     * @param elapsedNanos How long the call took.
+     */
+    public void onComplete(long admitted, boolean failure, long elapsedNanos) {
+        boolean isSlow = elapsedNanos >= slowCallNanos;
+        State from;
+        State to;
+        synchronized (this) {
+            if (admitted != epoch) {
+                return;
+            }
+            from = state;
+            switch (state) {
+                case CLOSED:
+                    record(failure, isSlow);
+                    if (recorded >= minimumCalls && (failed >= failureRateThreshold * recorded
+                            || slow >= slowCallRateThreshold * recorded)) {
+                        open();
+                    }
+                    break;
+                case HALF_OPEN:
+                    if (failure || isSlow) {
+                        open();
+                    } else if (++probesSucceeded >= halfOpenCalls) {
+                        close();
+                    }
+                    break;
+                default:
+                    // no call is admitted while the breaker is open
+                    break;
+            }
+            to = state;
+        }
+        notifyChange(from, to);
+    }
+
+    /**
+     * Records that a call was cancelled or never reached the endpoints, so that its outcome says nothing about them.
+     *
+     * @param admitted The value returned by {@link #tryAcquire()} for the call.
+     */
+    public synchronized void onCancel(long admitted) {
+        if (admitted == epoch && state == State.HALF_OPEN && probesSent > probesSucceeded) {
+            probesSent--;
+        }
+    }
+
+    private void record(boolean failure, boolean isSlow) {
+        if (recorded == failures.length) {
+            if (failures[next]) {
+                failed--;
+            }
+            if (slowCalls[next]) {
+                slow--;
+            }
+        } else {
+            recorded++;
+        }
+        failures[next] = failure;
+        slowCalls[next] = isSlow;
+        if (failure) {
+            failed++;
+        }
+        if (isSlow) {
+            slow++;
+        }
+        next = (next + 1) % failures.length;
+    }
+
+    private void open() {
+        state = State.OPEN;
+        epoch++;
+        openedAt = System.nanoTime();
+    }
+
+    private void close() {
+        state = State.CLOSED;
+        epoch++;
+        next = 0;
+        recorded = 0;
+        failed = 0;
+        slow = 0;
+    }
+
+    private void notifyChange(State from, State to) {
+        if (from != to && listener != null) {
+            listener.onStateChange(family, from, to);
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "CircuitBreaker [family=" + family + ", state=" + state + ", failureRate=" + getFailureRate() +
+                ", slowCallRate=" + getSlowCallRate() + ", rejectedCalls=" + rejected + "]";
+    }
+
+    /**
+     * Use this class to set up the circuit breakers of an OpenTok object, with
+     * {@link com.opentok.OpenTok.Builder#circuitBreaker(CircuitBreaker.Builder)}. The same settings are used for the
+     * breaker of each {@link EndpointFamily}.
+     */
+    public static class Builder {
+        private int windowSize = 50;
+        private int minimumCalls = 20;
+        private double failureRateThreshold = 0.5;
+        private long slowCallNanos = TimeUnit.SECONDS.toNanos(10);
+        private double slowCallRateThreshold = 0.8;
+        private long openNanos = TimeUnit.SECONDS.toNanos(30);
+        private int halfOpenCalls = 5;
+        private Listener listener;
+
+        /**
+         * Sets how many of the last calls the rates are computed on, and how many calls must have been recorded
+         * before the breaker can open. The defaults are 50 and 20.
+         */
+        public Builder window(int windowSize, int minimumCalls) throws InvalidArgumentException {
+            if (windowSize < 1 || minimumCalls < 1 || minimumCalls > windowSize) {
+                throw new InvalidArgumentException("The window size must be positive and at least the minimum " +
+                        "number of calls. windowSize = " + windowSize + ", minimumCalls = " + minimumCalls);
+            }
+            this.windowSize = windowSize;
+            this.minimumCalls = minimumCalls;
+            return this;
+        }
+
+        /**
+         * Sets the rate of failed calls, between 0 and 1, at which the breaker opens. The default is 0.5.
+         */
+        public Builder failureRateThreshold(double threshold) throws InvalidArgumentException {
+            this.failureRateThreshold = checkRate(threshold);
+            return this;
+        }
+
+        /**
+         * Sets how long a call must take to be slow, and the rate of slow calls, between 0 and 1, at which the
+         * breaker opens. The defaults are 10 seconds and 0.8.
+         */
+        public Builder slowCallThreshold(long duration, TimeUnit unit, double threshold)
+                throws InvalidArgumentException {
+            if (duration <= 0) {
+                throw new InvalidArgumentException("The slow call duration must be positive. duration = " +
+                        duration);
+            }
+            this.slowCallNanos = unit.toNanos(duration);
+            this.slowCallRateThreshold = checkRate(threshold);
+            return this;
+        }
+
+        /**
+         * Sets how long the breaker stays open before it lets probe calls through, and how many probe calls must
+         * succeed to close it. The defaults are 30 seconds and 5 calls.
+         */
+        public Builder openDuration(long duration, TimeUnit unit, int halfOpenCalls)
+                throws InvalidArgumentException {
+            if (duration <= 0 || halfOpenCalls < 1) {
+                throw new InvalidArgumentException("The open duration and the number of probe calls must be " +
+                        "positive. duration = " + duration + ", halfOpenCalls = " + halfOpenCalls);
+            }
+            this.openNanos = unit.toNanos(duration);
+            this.halfOpenCalls = halfOpenCalls;
+            return this;
+        }
+
+        /**
+         * Sets the listener that is told about the state changes of the breakers.
+         */
+        public Builder listener(Listener listener) {
+            this.listener = listener;
+            return this;
+        }
+
+        /**
+         * Builds the breaker of an endpoint family.
+         */
+        public CircuitBreaker build(EndpointFamily family) {
+            return new CircuitBreaker(this, family);
+        }
+
+        private static double checkRate(double rate) throws InvalidArgumentException {
+            if (!(rate > 0 && rate <= 1)) {
+                throw new InvalidArgumentException("The threshold must be greater than 0 and at most 1. " +
+                        "threshold = " + rate);
+            }
+            return rate;
+        }
+    }
+}
@@ -10,10 +10,10 @@ package com.opentok.util;
 import java.io.UnsupportedEncodingException;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
+import java.security.Provider;
 import java.security.SignatureException;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Formatter;
 import java.util.List;
 import javax.crypto.Mac;
 import javax.crypto.spec.SecretKeySpec;
@@ -22,28 +22,49 @@ import org.apache.commons.codec.binary.Base64;
 public class Crypto {
 	private static final String HMAC_SHA1_ALGORITHM = "HmacSHA1";
 
-    // -- credit: https://gist.github.com/ishikawa/88599
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
 
-    private static String toHexString(byte[] bytes) {
-        Formatter formatter = new Formatter();
-        for (byte b : bytes) {
-            formatter.format("%02x", b);
+    static String toHexString(byte[] bytes) {
+        char[] hex = new char[bytes.length * 2];
+        for (int i = 0, j = 0; i < bytes.length; i++) {
+            hex[j++] = HEX_DIGITS[(bytes[i] >> 4) & 0x0f];
+            hex[j++] = HEX_DIGITS[bytes[i] & 0x0f];
         }
-        return formatter.toString();
+        return new String(hex);
+    }
+
+    static int toHexBytes(byte[] bytes, byte[] dest, int destOffset) {
+        int j = destOffset;
+        for (int i = 0; i < bytes.length; i++) {
+            dest[j++] = (byte) HEX_DIGITS[(bytes[i] >> 4) & 0x0f];
+            dest[j++] = (byte) HEX_DIGITS[bytes[i] & 0x0f];
+        }
+        return j - destOffset;
     }
 
     public static String signData(String data, String key)
             throws SignatureException, NoSuchAlgorithmException, InvalidKeyException
+    {
+        return signData(data, key, null);
+    }
+
+    /**
+     * Signs the data with the given JCA provider, or with the default provider of HmacSHA1 if it is null.
+     */
+    public static String signData(String data, String key, Provider provider)
+            throws SignatureException, NoSuchAlgorithmException, InvalidKeyException
     {
         SecretKeySpec signingKey = new SecretKeySpec(key.getBytes(), HMAC_SHA1_ALGORITHM);
-        Mac mac = Mac.getInstance(HMAC_SHA1_ALGORITHM);
+        Mac mac = provider != null
+                ? Mac.getInstance(HMAC_SHA1_ALGORITHM, provider)
+                : Mac.getInstance(HMAC_SHA1_ALGORITHM);
         mac.init(signingKey);
         return toHexString(mac.doFinal(data.getBytes()));
     }
 
     public static List<String> decodeSessionId(String sessionId) throws UnsupportedEncodingException {
         sessionId = sessionId.substring(2);
-        sessionId = sessionId.replaceAll("-", "+").replaceAll("_", "/");
+        sessionId = sessionId.replace('-', '+').replace('_', '/');
         byte[] buffer = Base64.decodeBase64(sessionId);
         sessionId = new String(buffer, "UTF-8");
         return new ArrayList<String>(Arrays.asList(sessionId.split("~")));
@@ -8,11 +8,19 @@
 package com.opentok.util;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
 import java.util.Collection;
+import java.util.EnumMap;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
 import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
@@ -21,101 +29,169 @@ import com.ning.http.client.filter.FilterContext;
 import com.ning.http.client.filter.FilterException;
 import com.ning.http.client.filter.RequestFilter;
 
+import com.opentok.EndpointFamily;
+import com.opentok.Operation;
 import com.opentok.constants.Version;
+import com.opentok.exception.CircuitOpenException;
 import com.opentok.exception.OpenTokException;
+import com.opentok.exception.RateLimitException;
 import com.opentok.exception.RequestException;
+import com.opentok.exception.RequestTimeoutException;
 
+/**
+ * Sends the requests of the OpenTok REST API.
+ *
+ * Each operation is split in two steps: a <code>*Async</code> method that sends the request and returns the future
+ * of its response without waiting for it, and a <code>read*Response</code> method that checks the response and
+ * returns its body. The blocking methods simply chain the two.
+ */
 public class HttpClient extends AsyncHttpClient {
-    
+
+    // runs the bookkeeping of completed requests on the I/O thread that completes them
+    private static final Executor SAME_THREAD = new Executor() {
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
     private final String apiUrl;
     private final int apiKey;
+    private final Map<Operation, Integer> requestTimeouts;
+    private final Map<Operation, RateLimit> rateLimits;
+    private final Map<EndpointFamily, CircuitBreaker> circuitBreakers =
+            new EnumMap<EndpointFamily, CircuitBreaker>(EndpointFamily.class);
 
     private HttpClient(Builder builder) {
         super(builder.config);
         this.apiKey = builder.apiKey;
         this.apiUrl = builder.apiUrl;
+        this.requestTimeouts = new EnumMap<Operation, Integer>(builder.requestTimeouts);
+        this.rateLimits = new EnumMap<Operation, RateLimit>(builder.rateLimits);
+        if (builder.circuitBreaker != null) {
+            for (EndpointFamily family : EndpointFamily.values()) {
+                this.circuitBreakers.put(family, builder.circuitBreaker.build(family));
+            }
+        }
     }
 
     public String createSession(Map<String, Collection<String>> params) throws RequestException {
-        Future<Response> request = null;
-        String responseString = null;
-        Response response = null;
+        return readCreateSessionResponse(await(createSessionAsync(params), "Could not create an OpenTok Session"));
+    }
+
+    public ListenableFuture<Response> createSessionAsync(Map<String, Collection<String>> params)
+            throws RequestException {
         FluentStringsMap paramsString = new FluentStringsMap().addAll(params);
 
         try {
-            request = this.preparePost(this.apiUrl + "/session/create")
-                    .setParameters(paramsString)
-                    .execute();
+            return send(this.preparePost(this.apiUrl + "/session/create")
+                    .setParameters(paramsString), Operation.CREATE_SESSION);
         } catch (IOException e) {
             throw new RequestException("Could not create an OpenTok Session", e);
         }
+    }
 
+    /**
+     * Sends a session creation request with a body that is already URL-encoded, such as the one a SessionProperties
+     * object keeps, so that the parameters do not need to be copied and encoded again for each request. The array is
+     * sent as it is, without a copy.
+     */
+    public ListenableFuture<Response> createSessionAsync(byte[] formBody) throws RequestException {
         try {
-            response = request.get();
-            switch (response.getStatusCode()) {
-                case 200:
-                    responseString = response.getResponseBody();
-                    break;
-                default:
-                    throw new RequestException("Could not create an OpenTok Session. The server response was invalid." +
-                            " response code: " + response.getStatusCode());
-            }
-
-        // if we only wanted Java 7 and above, we could DRY this into one catch clause
-        } catch (InterruptedException e) {
+            return send(this.preparePost(this.apiUrl + "/session/create")
+                    .setHeader("Content-Type", "application/x-www-form-urlencoded")
+                    .setBody(formBody), Operation.CREATE_SESSION);
+        } catch (IOException e) {
             throw new RequestException("Could not create an OpenTok Session", e);
-        } catch (ExecutionException e) {
+        }
+    }
+
+    public String readCreateSessionResponse(Response response) throws RequestException {
+        try {
+            return checkCreateSessionResponse(response).getResponseBody();
+        } catch (IOException e) {
             throw new RequestException("Could not create an OpenTok Session", e);
+        }
+    }
+
+    /**
+     * Checks the response like {@link #readCreateSessionResponse(Response)}, but returns the body as a stream over
+     * the buffers it was received in, so that it can be parsed without decoding it into a String first.
+     */
+    public InputStream readCreateSessionResponseStream(Response response) throws RequestException {
+        try {
+            return checkCreateSessionResponse(response).getResponseBodyAsStream();
         } catch (IOException e) {
             throw new RequestException("Could not create an OpenTok Session", e);
         }
-        return responseString;
+    }
+
+    private static Response checkCreateSessionResponse(Response response) throws RequestException {
+        switch (response.getStatusCode()) {
+            case 200:
+                return response;
+            default:
+                throw new RequestException("Could not create an OpenTok Session. The server response was invalid." +
+                        " response code: " + response.getStatusCode());
+        }
     }
 
     public String getArchive(String archiveId) throws RequestException {
-        String responseString = null;
-        Future<Response> request = null;
+        return readGetArchiveResponse(await(getArchiveAsync(archiveId), "Could not get an OpenTok Archive"),
+                archiveId);
+    }
+
+    public ListenableFuture<Response> getArchiveAsync(String archiveId) throws RequestException {
         String url = this.apiUrl + "/v2/partner/" + this.apiKey + "/archive/" + archiveId;
 
         try {
-            request = this.prepareGet(url).execute();
+            return send(this.prepareGet(url), Operation.GET_ARCHIVE);
         } catch (IOException e) {
             throw new RequestException("Could not get an OpenTok Archive", e);
         }
+    }
 
+    public String readGetArchiveResponse(Response response, String archiveId) throws RequestException {
         try {
-            Response response = request.get();
-            switch (response.getStatusCode()) {
-                case 200:
-                    responseString = response.getResponseBody();
-                    break;
-                case 400:
-                    throw new RequestException("Could not get an OpenTok Archive. The archiveId was invalid. " +
-                            "archiveId: " + archiveId);
-                case 403:
-                    throw new RequestException("Could not get an OpenTok Archive. The request was not authorized.");
-                case 500:
-                    throw new RequestException("Could not get an OpenTok Archive. A server error occurred.");
-                default:
-                    throw new RequestException("Could not get an OpenTok Archive. The server response was invalid." +
-                            " response code: " + response.getStatusCode());
-            }
+            return checkGetArchiveResponse(response, archiveId).getResponseBody();
+        } catch (IOException e) {
+            throw new RequestException("Could not  get an OpenTok Archive", e);
+        }
+    }
 
-        // if we only wanted Java 7 and above, we could DRY this into one catch clause
-        } catch (InterruptedException e) {
-            throw new RequestException("Could not get an OpenTok Archive", e);
-        } catch (ExecutionException e) {
-            throw new RequestException("Could not get an OpenTok Archive", e);
+    /**
+     * Checks the response like {@link #readGetArchiveResponse(Response, String)}, but returns the body as a stream
+     * over the buffers it was received in, so that it can be parsed without decoding it into a String first.
+     */
+    public InputStream readGetArchiveResponseStream(Response response, String archiveId) throws RequestException {
+        try {
+            return checkGetArchiveResponse(response, archiveId).getResponseBodyAsStream();
         } catch (IOException e) {
             throw new RequestException("Could not  get an OpenTok Archive", e);
         }
+    }
 
-        return responseString;
+    private static Response checkGetArchiveResponse(Response response, String archiveId) throws RequestException {
+        switch (response.getStatusCode()) {
+            case 200:
+                return response;
+            case 400:
+                throw new RequestException("Could not get an OpenTok Archive. The archiveId was invalid. " +
+                        "archiveId: " + archiveId);
+            case 403:
+                throw new RequestException("Could not get an OpenTok Archive. The request was not authorized.");
+            case 500:
+                throw new RequestException("Could not get an OpenTok Archive. A server error occurred.");
+            default:
+                throw new RequestException("Could not get an OpenTok Archive. The server response was invalid." +
+                        " response code: " + response.getStatusCode());
+        }
     }
 
     public String getArchives(int offset, int count) throws RequestException {
-        String responseString = null;
-        Future<Response> request = null;
+        return readGetArchivesResponse(await(getArchivesAsync(offset, count), "Could not get OpenTok Archives"));
+    }
+
+    public ListenableFuture<Response> getArchivesAsync(int offset, int count) throws RequestException {
         // TODO: maybe use a StringBuilder?
         String url = this.apiUrl + "/v2/partner/" + this.apiKey + "/archive";
         if (offset != 0 || count != 0) {
@@ -129,41 +205,53 @@ public class HttpClient extends AsyncHttpClient {
         }
 
         try {
-            request = this.prepareGet(url).execute();
+            return send(this.prepareGet(url), Operation.LIST_ARCHIVES);
         } catch (IOException e) {
             throw new RequestException("Could not get OpenTok Archives", e);
         }
+    }
 
+    public String readGetArchivesResponse(Response response) throws RequestException {
         try {
-            Response response = request.get();
-            switch (response.getStatusCode()) {
-                case 200:
-                    responseString = response.getResponseBody();
-                    break;
-                case 403:
-                    throw new RequestException("Could not get OpenTok Archives. The request was not authorized.");
-                case 500:
-                    throw new RequestException("Could not get OpenTok Archives. A server error occurred.");
-                default:
-                    throw new RequestException("Could not get an OpenTok Archive. The server response was invalid." +
-                            " response code: " + response.getStatusCode());
-            }
-
-        // if we only wanted Java 7 and above, we could DRY this into one catch clause
-        } catch (InterruptedException e) {
-            throw new RequestException("Could not get OpenTok Archives", e);
-        } catch (ExecutionException e) {
+            return checkGetArchivesResponse(response).getResponseBody();
+        } catch (IOException e) {
             throw new RequestException("Could not get OpenTok Archives", e);
+        }
+    }
+
+    /**
+     * Checks the response like {@link #readGetArchivesResponse(Response)}, but returns the body as a stream over
+     * the buffers it was received in, so that it can be parsed without decoding it into a String first.
+     */
+    public InputStream readGetArchivesResponseStream(Response response) throws RequestException {
+        try {
+            return checkGetArchivesResponse(response).getResponseBodyAsStream();
         } catch (IOException e) {
             throw new RequestException("Could not get OpenTok Archives", e);
         }
+    }
 
-        return responseString;
+    private static Response checkGetArchivesResponse(Response response) throws RequestException {
+        switch (response.getStatusCode()) {
+            case 200:
+                return response;
+            case 403:
+                throw new RequestException("Could not get OpenTok Archives. The request was not authorized.");
+            case 500:
+                throw new RequestException("Could not get OpenTok Archives. A server error occurred.");
+            default:
+                throw new RequestException("Could not get an OpenTok Archive. The server response was invalid." +
+                        " response code: " + response.getStatusCode());
+        }
     }
 
     public String startArchive(String sessionId, String name) throws OpenTokException, RequestException {
-        String responseString = null;
-        Future<Response> request = null;
+        return readStartArchiveResponse(await(startArchiveAsync(sessionId, name),
+                "Could not start an OpenTok Archive."), sessionId);
+    }
+
+    public ListenableFuture<Response> startArchiveAsync(String sessionId, String name)
+            throws OpenTokException, RequestException {
         String requestBody = null;
         // TODO: maybe use a StringBuilder?
         String url = this.apiUrl + "/v2/partner/" + this.apiKey + "/archive";
@@ -180,111 +268,134 @@ public class HttpClient extends AsyncHttpClient {
             throw new OpenTokException("Could not start an OpenTok Archive. The JSON body encoding failed.", e);
         }
         try {
-            request = this.preparePost(url)
+            return send(this.preparePost(url)
                     .setBody(requestBody)
-                    .setHeader("Content-Type", "application/json")
-                    .execute();
+                    .setHeader("Content-Type", "application/json"), Operation.START_ARCHIVE);
         } catch (IOException e) {
             throw new RequestException("Could not start an OpenTok Archive.", e);
         }
+    }
 
+    public String readStartArchiveResponse(Response response, String sessionId) throws RequestException {
         try {
-            Response response = request.get();
-            switch (response.getStatusCode()) {
-                case 200:
-                    responseString = response.getResponseBody();
-                    break;
-                case 403:
-                    throw new RequestException("Could not start an OpenTok Archive. The request was not authorized.");
-                case 404:
-                    throw new RequestException("Could not start an OpenTok Archive. The sessionId does not exist. " +
-                            "sessionId = " + sessionId);
-                case 409:
-                    throw new RequestException("Could not start an OpenTok Archive. The session is either " +
-                            "peer-to-peer or already recording. sessionId = " + sessionId);
-                case 500:
-                    throw new RequestException("Could not start an OpenTok Archive. A server error occurred.");
-                default:
-                    throw new RequestException("Could not start an OpenTok Archive. The server response was invalid." +
-                            " response code: " + response.getStatusCode());
-            }
-
-        // if we only wanted Java 7 and above, we could DRY this into one catch clause
-        } catch (InterruptedException e) {
-            throw new RequestException("Could not start an OpenTok Archive.", e);
-        } catch (ExecutionException e) {
+            return checkStartArchiveResponse(response, sessionId).getResponseBody();
+        } catch (IOException e) {
             throw new RequestException("Could not start an OpenTok Archive.", e);
+        }
+    }
+
+    /**
+     * Checks the response like {@link #readStartArchiveResponse(Response, String)}, but returns the body as a stream
+     * over the buffers it was received in, so that it can be parsed without decoding it into a String first.
+     */
+    public InputStream readStartArchiveResponseStream(Response response, String sessionId) throws RequestException {
+        try {
+            return checkStartArchiveResponse(response, sessionId).getResponseBodyAsStream();
         } catch (IOException e) {
             throw new RequestException("Could not start an OpenTok Archive.", e);
         }
-        return responseString;
+    }
+
+    private static Response checkStartArchiveResponse(Response response, String sessionId) throws RequestException {
+        switch (response.getStatusCode()) {
+            case 200:
+                return response;
+            case 403:
+                throw new RequestException("Could not start an OpenTok Archive. The request was not authorized.");
+            case 404:
+                throw new RequestException("Could not start an OpenTok Archive. The sessionId does not exist. " +
+                        "sessionId = " + sessionId);
+            case 409:
+                throw new RequestException("Could not start an OpenTok Archive. The session is either " +
+                        "peer-to-peer or already recording. sessionId = " + sessionId);
+            case 500:
+                throw new RequestException("Could not start an OpenTok Archive. A server error occurred.");
+            default:
+                throw new RequestException("Could not start an OpenTok Archive. The server response was invalid." +
+                        " response code: " + response.getStatusCode());
+        }
     }
 
     public String stopArchive(String archiveId) throws RequestException {
-        String responseString = null;
-        Future<Response> request = null;
+        return readStopArchiveResponse(await(stopArchiveAsync(archiveId), "Could not stop an OpenTok Archive."),
+                archiveId);
+    }
+
+    public ListenableFuture<Response> stopArchiveAsync(String archiveId) throws RequestException {
         // TODO: maybe use a StringBuilder?
         String url = this.apiUrl + "/v2/partner/" + this.apiKey + "/archive/" + archiveId + "/stop";
 
         try {
-            request = this.preparePost(url).execute();
+            return send(this.preparePost(url), Operation.STOP_ARCHIVE);
         } catch (IOException e) {
             throw new RequestException("Could not stop an OpenTok Archive. archiveId = " + archiveId, e);
         }
+    }
 
+    public String readStopArchiveResponse(Response response, String archiveId) throws RequestException {
         try {
-            Response response = request.get();
-            switch (response.getStatusCode()) {
-                case 200:
-                    responseString = response.getResponseBody();
-                    break;
-                case 400:
-                    // NOTE: the REST api spec talks about sessionId and action, both of which aren't required.
-                    //       see: https://github.com/opentok/OpenTok-2.0-archiving-samples/blob/master/REST-API.md#stop_archive
-                    throw new RequestException("Could not stop an OpenTok Archive.");
-                case 403:
-                    throw new RequestException("Could not stop an OpenTok Archive. The request was not authorized.");
-                case 404:
-                    throw new RequestException("Could not stop an OpenTok Archive. The archiveId does not exist. " +
-                            "archiveId = " + archiveId);
-                case 409:
-                    throw new RequestException("Could not stop an OpenTok Archive. The archive is not being recorded. " +
-                            "archiveId = " + archiveId);
-                case 500:
-                    throw new RequestException("Could not stop an OpenTok Archive. A server error occurred.");
-                default:
-                    throw new RequestException("Could not stop an OpenTok Archive. The server response was invalid." +
-                            " response code: " + response.getStatusCode());
-            }
-
-        // if we only wanted Java 7 and above, we could DRY this into one catch clause
-        } catch (InterruptedException e) {
-            throw new RequestException("Could not stop an OpenTok Archive.", e);
-        } catch (ExecutionException e) {
+            return checkStopArchiveResponse(response, archiveId).getResponseBody();
+        } catch (IOException e) {
             throw new RequestException("Could not stop an OpenTok Archive.", e);
+        }
+    }
+
+    /**
+     * Checks the response like {@link #readStopArchiveResponse(Response, String)}, but returns the body as a stream
+     * over the buffers it was received in, so that it can be parsed without decoding it into a String first.
+     */
+    public InputStream readStopArchiveResponseStream(Response response, String archiveId) throws RequestException {
+        try {
+            return checkStopArchiveResponse(response, archiveId).getResponseBodyAsStream();
         } catch (IOException e) {
             throw new RequestException("Could not stop an OpenTok Archive.", e);
         }
-        return responseString;
+    }
+
+    private static Response checkStopArchiveResponse(Response response, String archiveId) throws RequestException {
+        switch (response.getStatusCode()) {
+            case 200:
+                return response;
+            case 400:
+                // NOTE: the REST api spec talks about sessionId and action, both of which aren't required.
+                //       see: https://github.com/opentok/OpenTok-2.0-archiving-samples/blob/master/REST-API.md#stop_archive
+                throw new RequestException("Could not stop an OpenTok Archive.");
+            case 403:
+                throw new RequestException("Could not stop an OpenTok Archive. The request was not authorized.");
+            case 404:
+                throw new RequestException("Could not stop an OpenTok Archive. The archiveId does not exist. " +
+                        "archiveId = " + archiveId);
+            case 409:
+                throw new RequestException("Could not stop an OpenTok Archive. The archive is not being recorded. " +
+                        "archiveId = " + archiveId);
+            case 500:
+                throw new RequestException("Could not stop an OpenTok Archive. A server error occurred.");
+            default:
+                throw new RequestException("Could not stop an OpenTok Archive. The server response was invalid." +
+                        " response code: " + response.getStatusCode());
+        }
     }
 
     public String deleteArchive(String archiveId) throws RequestException {
-        String responseString = null;
-        Future<Response> request = null;
+        return readDeleteArchiveResponse(await(deleteArchiveAsync(archiveId),
+                "Could not delete an OpenTok Archive. archiveId = " + archiveId), archiveId);
+    }
+
+    public ListenableFuture<Response> deleteArchiveAsync(String archiveId) throws RequestException {
         String url = this.apiUrl + "/v2/partner/" + this.apiKey + "/archive/" + archiveId;
 
         try {
-            request = this.prepareDelete(url).execute();
+            return send(this.prepareDelete(url), Operation.DELETE_ARCHIVE);
         } catch (IOException e) {
             throw new RequestException("Could not delete an OpenTok Archive. archiveId = " + archiveId, e);
         }
+    }
 
+    public String readDeleteArchiveResponse(Response response, String archiveId) throws RequestException {
         try {
-            Response response = request.get();
             switch (response.getStatusCode()) {
                 case 204:
-                    responseString = response.getResponseBody();
-                    break;
+                    return response.getResponseBody();
                 case 403:
                     throw new RequestException("Could not delete an OpenTok Archive. The request was not authorized.");
                 case 409:
@@ -296,23 +407,158 @@ public class HttpClient extends AsyncHttpClient {
                     throw new RequestException("Could not get an OpenTok Archive. The server response was invalid." +
                             " response code: " + response.getStatusCode());
             }
+        } catch (IOException e) {
+            throw new RequestException("Could not delete an OpenTok Archive. archiveId = " + archiveId, e);
+        }
+    }
+
+    // waits for the response of a request sent by one of the *Async methods
+    private static Response await(Future<Response> request, String errorMessage) throws RequestException {
+        try {
+            return request.get();
 
         // if we only wanted Java 7 and above, we could DRY this into one catch clause
         } catch (InterruptedException e) {
-            throw new RequestException("Could not delete an OpenTok Archive. archiveId = " + archiveId, e);
+            request.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new RequestException(errorMessage, e);
         } catch (ExecutionException e) {
-            throw new RequestException("Could not delete an OpenTok Archive. archiveId = " + archiveId, e);
-        } catch (IOException e) {
-            throw new RequestException("Could not delete an OpenTok Archive. archiveId = " + archiveId, e);
+            throw toRequestException(errorMessage, e);
         }
+    }
+
+    /**
+     * Returns the exception to throw for a request that failed with the given cause: a RequestTimeoutException if
+     * connecting or waiting for the response timed out, or a RequestException otherwise.
+     */
+    public static RequestException toRequestException(String errorMessage, Throwable cause) {
+        for (Throwable t = cause; t != null; t = t.getCause()) {
+            // Netty reports connect timeouts as ConnectExceptions, the other timeouts are TimeoutExceptions
+            if (t instanceof TimeoutException || t instanceof SocketTimeoutException
+                    || (t instanceof ConnectException && t.getClass().getSimpleName().contains("Timeout"))) {
+                return new RequestTimeoutException(errorMessage + ". The request timed out.", cause);
+            }
+        }
+        return new RequestException(errorMessage, cause);
+    }
 
-        return responseString;
+    /**
+     * Returns the circuit breaker of an endpoint family, or <code>null</code> if circuit breakers are not enabled.
+     */
+    public CircuitBreaker getCircuitBreaker(EndpointFamily family) {
+        return circuitBreakers.get(family);
+    }
+
+    /**
+     * Takes a permit for a request of the operation from its rate limiter, without blocking the calling thread: the
+     * callback is called when the request may be sent, or when it is rejected. Requests of operations without a rate
+     * limit are allowed right away, on the calling thread. See
+     * {@link RateLimiter#acquire(RateLimiter.Priority, long, TimeUnit, RateLimiter.Callback)}.
+     *
+     * @return The ticket of the request in the queue of the rate limiter, or <code>null</code> if the callback has
+     * already been called.
+     */
+    public RateLimiter.Ticket acquirePermit(Operation operation, RateLimiter.Callback callback) {
+        RateLimit rateLimit = rateLimits.get(operation);
+        if (rateLimit == null) {
+            callback.onAcquired();
+            return null;
+        }
+        return rateLimit.limiter.acquire(rateLimit.priority, rateLimit.maxWaitMs, TimeUnit.MILLISECONDS, callback);
+    }
+
+    /**
+     * Gives back a permit taken with {@link #acquirePermit(Operation, RateLimiter.Callback)} for a request that was
+     * not sent. Does nothing for operations without a rate limit.
+     */
+    public void releasePermit(Operation operation) {
+        RateLimit rateLimit = rateLimits.get(operation);
+        if (rateLimit != null) {
+            rateLimit.limiter.release();
+        }
+    }
+
+    /**
+     * Returns the exception of a request that was not sent because its rate limiter had no permit for it.
+     */
+    public static RateLimitException rateLimitReached(Operation operation) {
+        return new RateLimitException("The request was not sent, the client-side rate limit of " + operation +
+                " was reached.");
+    }
+
+    // async-http-client only has RequestBuilder.setRequestTimeout from 1.9 on. Before that, PerRequestConfig is the
+    // only way to set the timeout of a single request, and it is deprecated in 1.8
+    @SuppressWarnings("deprecation")
+    private static void setRequestTimeout(BoundRequestBuilder request, int timeout) {
+        request.setPerRequestConfig(new PerRequestConfig(null, timeout));
+    }
+
+    // sends the request of an operation with its timeout, unless its circuit breaker is open. Its rate limit is
+    // checked beforehand, with acquirePermit
+    private ListenableFuture<Response> send(BoundRequestBuilder request, Operation operation)
+            throws IOException, RequestException {
+        Integer timeout = requestTimeouts.get(operation);
+        if (timeout != null) {
+            setRequestTimeout(request, timeout);
+        }
+        final CircuitBreaker breaker = circuitBreakers.get(operation.getEndpointFamily());
+        if (breaker == null) {
+            return request.execute();
+        }
+        final long admitted = breaker.tryAcquire();
+        if (admitted == CircuitBreaker.REJECTED) {
+            throw new CircuitOpenException("The OpenTok API is unavailable, the request was not sent. " +
+                    "The circuit breaker of the " + breaker.getFamily() + " endpoints is open.");
+        }
+        final long start = System.nanoTime();
+        final ListenableFuture<Response> response;
+        try {
+            response = request.execute();
+        } catch (IOException e) {
+            // execute only throws for local reasons, such as the connection limit being reached or the client being
+            // closed: the request never reached the endpoints. Network errors complete the future instead
+            breaker.onCancel(admitted);
+            throw e;
+        } catch (RuntimeException e) {
+            breaker.onCancel(admitted);
+            throw e;
+        }
+        response.addListener(new Runnable() {
+            public void run() {
+                long elapsed = System.nanoTime() - start;
+                try {
+                    breaker.onComplete(admitted, response.get().getStatusCode() >= 500, elapsed);
+
+                // if we only wanted Java 7 and above, we could DRY this into one catch clause
+                } catch (ExecutionException e) {
+                    breaker.onComplete(admitted, true, elapsed);
+                } catch (InterruptedException e) {
+                    breaker.onCancel(admitted);
+                } catch (CancellationException e) {
+                    breaker.onCancel(admitted);
+                }
+            }
+        }, SAME_THREAD);
+        return response;
     }
 
     public static class Builder {
         private final int apiKey;
         private final String apiSecret;
         private String apiUrl;
+        private int maxConnectionsTotal = -1;
+        private int maxConnectionsPerHost = -1;
+        private int keepAliveTimeoutMs = 60000;
+        private int connectionTtlMs = -1;
+        private boolean connectionPooling = true;
+        private int ioThreadMultiplier = 2;
+        private AsyncHttpProviderConfig<?, ?> providerConfig;
+        private int connectTimeoutMs = 0;
+        private int readTimeoutMs = 0;
+        private int requestTimeoutMs = 0;
+        private final Map<Operation, Integer> requestTimeouts = new EnumMap<Operation, Integer>(Operation.class);
+        private CircuitBreaker.Builder circuitBreaker;
+        private final Map<Operation, RateLimit> rateLimits = new EnumMap<Operation, RateLimit>(Operation.class);
         private AsyncHttpClientConfig config;
 
         public Builder(int apiKey, String apiSecret) {
@@ -325,17 +571,156 @@ public class HttpClient extends AsyncHttpClient {
             return this;
         }
 
+        /**
+         * Limits the number of open connections, in total and to each host. -1, the default, means no limit.
+         */
+        public Builder maxConnections(int total, int perHost) {
+            this.maxConnectionsTotal = total;
+            this.maxConnectionsPerHost = perHost;
+            return this;
+        }
+
+        /**
+         * Sets how long an idle connection is kept in the pool for reuse, in milliseconds. The default is 60 s.
+         */
+        public Builder keepAliveTimeout(int keepAliveTimeoutMs) {
+            this.keepAliveTimeoutMs = keepAliveTimeoutMs;
+            return this;
+        }
+
+        /**
+         * Sets how long a pooled connection is used before it is closed, in milliseconds. -1, the default, means
+         * forever.
+         */
+        public Builder connectionTtl(int connectionTtlMs) {
+            this.connectionTtlMs = connectionTtlMs;
+            return this;
+        }
+
+        /**
+         * Sets whether connections, including TLS connections, are kept open and reused. The default is true.
+         */
+        public Builder connectionPooling(boolean connectionPooling) {
+            this.connectionPooling = connectionPooling;
+            return this;
+        }
+
+        /**
+         * Sets the number of I/O threads per processor. The default is 2.
+         */
+        public Builder ioThreadMultiplier(int ioThreadMultiplier) {
+            this.ioThreadMultiplier = ioThreadMultiplier;
+            return this;
+        }
+
+        /**
+         * Sets the configuration specific to the HTTP provider, such as a NettyAsyncHttpProviderConfig.
+         */
+        public Builder providerConfig(AsyncHttpProviderConfig<?, ?> providerConfig) {
+            this.providerConfig = providerConfig;
+            return this;
+        }
+
+        /**
+         * Sets how long connecting to the API may take, in milliseconds. 0, the default, keeps the default of the
+         * HTTP client.
+         */
+        public Builder connectTimeout(int connectTimeoutMs) {
+            this.connectTimeoutMs = connectTimeoutMs;
+            return this;
+        }
+
+        /**
+         * Sets how long a connection may stay idle while waiting for the response, in milliseconds. 0, the
+         * default, keeps the default of the HTTP client.
+         */
+        public Builder readTimeout(int readTimeoutMs) {
+            this.readTimeoutMs = readTimeoutMs;
+            return this;
+        }
+
+        /**
+         * Sets how long a whole request may take, in milliseconds. 0, the default, keeps the default of the HTTP
+         * client.
+         */
+        public Builder requestTimeout(int requestTimeoutMs) {
+            this.requestTimeoutMs = requestTimeoutMs;
+            return this;
+        }
+
+        /**
+         * Sets how long a whole request of one operation may take, in milliseconds, overriding
+         * {@link #requestTimeout(int)}.
+         */
+        public Builder requestTimeout(Operation operation, int requestTimeoutMs) {
+            this.requestTimeouts.put(operation, requestTimeoutMs);
+            return this;
+        }
+
+        /**
+         * Enables a circuit breaker for each endpoint family, with the given settings. Breakers are disabled by
+         * default.
+         */
+        public Builder circuitBreaker(CircuitBreaker.Builder circuitBreaker) {
+            this.circuitBreaker = circuitBreaker;
+            return this;
+        }
+
+        /**
+         * Makes the requests of an operation take a permit from the rate limiter before they are sent, waiting at
+         * most maxWaitMs for one. 0 means that requests are rejected right away when no permit is available. The
+         * permit is taken by {@link HttpClient#acquirePermit(Operation, RateLimiter.Callback)}, which callers must
+         * call before sending each request of the operation.
+         */
+        public Builder rateLimit(Operation operation, RateLimiter limiter, RateLimiter.Priority priority,
+                                 long maxWaitMs) {
+            this.rateLimits.put(operation, new RateLimit(limiter, priority, maxWaitMs));
+            return this;
+        }
+
         public HttpClient build() {
-            this.config = new AsyncHttpClientConfig.Builder()
+            AsyncHttpClientConfig.Builder configBuilder = new AsyncHttpClientConfig.Builder()
                     .setUserAgent("Opentok-Java-SDK/"+Version.VERSION)
                     .addRequestFilter(new PartnerAuthRequestFilter(this.apiKey, this.apiSecret))
-                    .build();
+                    .setMaximumConnectionsTotal(this.maxConnectionsTotal)
+                    .setMaximumConnectionsPerHost(this.maxConnectionsPerHost)
+                    .setIdleConnectionInPoolTimeoutInMs(this.keepAliveTimeoutMs)
+                    .setMaxConnectionLifeTimeInMs(this.connectionTtlMs)
+                    .setAllowPoolingConnection(this.connectionPooling)
+                    .setAllowSslConnectionPool(this.connectionPooling)
+                    .setIOThreadMultiplier(this.ioThreadMultiplier);
+            if (this.connectTimeoutMs > 0) {
+                configBuilder.setConnectionTimeoutInMs(this.connectTimeoutMs);
+            }
+            if (this.readTimeoutMs > 0) {
+                configBuilder.setIdleConnectionTimeoutInMs(this.readTimeoutMs);
+            }
+            if (this.requestTimeoutMs > 0) {
+                configBuilder.setRequestTimeoutInMs(this.requestTimeoutMs);
+            }
+            if (this.providerConfig != null) {
+                configBuilder.setAsyncHttpClientProviderConfig(this.providerConfig);
+            }
+            this.config = configBuilder.build();
             // NOTE: not thread-safe, config could be modified by another thread here?
             HttpClient client = new HttpClient(this);
             return client;
         }
     }
 
+    // the rate limiter of an operation, with how its requests take permits
+    private static class RateLimit {
+        private final RateLimiter limiter;
+        private final RateLimiter.Priority priority;
+        private final long maxWaitMs;
+
+        RateLimit(RateLimiter limiter, RateLimiter.Priority priority, long maxWaitMs) {
+            this.limiter = limiter;
+            this.priority = priority;
+            this.maxWaitMs = maxWaitMs;
+        }
+    }
+
     static class PartnerAuthRequestFilter implements RequestFilter {
 
         private int apiKey;
@@ -0,0 +1,86 @@
+/**
+ * OpenTok Java SDK
+ * Copyright (C) 2015 TokBox, Inc.
+ * http://www.tokbox.com
+ *
+ * Licensed under The MIT License (MIT). See LICENSE file for more information.
+ */
+package com.opentok.util;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import com.opentok.exception.InvalidArgumentException;
+
+/**
+ * Generates nonces that are unique across a cluster of token servers, without any coordination between them.
+ *
+ * Each server is given a distinct node ID, which fills the high bits of every nonce it generates. The remaining bits
+ * come from one of 64 counters, each in its own stripe of the nonce space. Threads are assigned a stripe when they
+ * first generate a nonce, so counters are only shared when more than 64 threads generate tokens.
+ *
+ * A nonce only repeats once its counter wraps around. Tokens also contain their creation time, in seconds, so tokens
+ * are unique across the cluster as long as no stripe of a server generates more than
+ * <code>2^(26 - nodeBits)</code> tokens per second (65536 with the default 10 bits of node ID).
+ */
+public class NodeSaltedNonceSource implements NonceSource {
+
+    private static final int STRIPE_BITS = 6;
+    private static final int STRIPES = 1 << STRIPE_BITS;
+    // counters are spaced 64 bytes apart, so that threads on different stripes don't share a cache line
+    private static final int PADDING = 16;
+
+    private final int salt;
+    private final int sequenceBits;
+    private final int sequenceMask;
+    private final AtomicIntegerArray counters = new AtomicIntegerArray(STRIPES * PADDING);
+    private final AtomicInteger nextStripe = new AtomicInteger();
+    private final ThreadLocal<Integer> stripe = new ThreadLocal<Integer>() {
+        @Override
+        protected Integer initialValue() {
+            return nextStripe.getAndIncrement() & (STRIPES - 1);
+        }
+    };
+
+    /**
+     * Creates a NodeSaltedNonceSource for up to 1024 nodes.
+     *
+     * @param nodeId The ID of this node, from 0 to 1023. Each node of the cluster must have a different ID.
+     */
+    public NodeSaltedNonceSource(int nodeId) throws InvalidArgumentException {
+        this(nodeId, 10);
+    }
+
+    /**
+     * Creates a NodeSaltedNonceSource.
+     *
+     * @param nodeId The ID of this node, from 0 to <code>2^nodeBits - 1</code>. Each node of the cluster must have a
+     * different ID.
+     * @param nodeBits The number of bits of the nonce used for the node ID, from 1 to 16. More bits allow more nodes,
+     * but each node can generate fewer unique nonces per second.
+     */
+    public NodeSaltedNonceSource(int nodeId, int nodeBits) throws InvalidArgumentException {
+        if (nodeBits < 1 || nodeBits > 16) {
+            throw new InvalidArgumentException("nodeBits must be between 1 and 16. nodeBits = " + nodeBits);
+        }
+        if (nodeId < 0 || nodeId >= (1 << nodeBits)) {
+            throw new InvalidArgumentException("nodeId must be between 0 and " + ((1 << nodeBits) - 1) +
+                    ". nodeId = " + nodeId);
+        }
+        this.sequenceBits = 32 - nodeBits - STRIPE_BITS;
+        this.sequenceMask = (1 << sequenceBits) - 1;
+        this.salt = nodeId << (32 - nodeBits);
+        // start at a random point of each sequence, so a node that restarts is unlikely to repeat the nonces of the
+        // tokens it generated in the same second before it stopped
+        Random random = new Random();
+        for (int i = 0; i < STRIPES; i++) {
+            counters.set(i * PADDING, random.nextInt());
+        }
+    }
+
+    public int nextNonce() {
+        int stripe = this.stripe.get();
+        return salt | (stripe << sequenceBits) | (counters.getAndIncrement(stripe * PADDING) & sequenceMask);
+    }
+}
@@ -0,0 +1,22 @@
+/**
+ * OpenTok Java SDK
+ * Copyright (C) 2015 TokBox, Inc.
+ * http://www.tokbox.com
+ *
+ * Licensed under The MIT License (MIT). See LICENSE file for more information.
+ */
+package com.opentok.util;
+
+/**
+ * Generates the nonces of tokens. Implementations must be thread-safe.
+ *
+ * @see ThreadLocalNonceSource
+ * @see NodeSaltedNonceSource
+ */
+public interface NonceSource {
+
+    /**
+     * Returns the nonce for a new token.
+     */
+    int nextNonce();
+}
@@ -0,0 +1,412 @@
+/**
+ * OpenTok Java SDK
+ * Copyright (C) 2015 TokBox, Inc.
+ * http://www.tokbox.com
+ *
+ * Licensed under The MIT License (MIT). See LICENSE file for more information.
+ */
+package com.opentok.util;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.opentok.exception.InvalidArgumentException;
+
+/**
+ * A token bucket that keeps the calls to the OpenTok REST API under a rate, so that they stay within the quotas of
+ * the OpenTok API. The bucket holds up to <code>burst</code> permits and is refilled at a steady rate; each call
+ * takes one permit.
+ * <p>
+ * Callers that find the bucket empty can wait for a permit in a bounded queue, either blocking or with a callback.
+ * {@link Priority#INTERACTIVE} callers are always served before {@link Priority#BATCH} callers, so a batch job that
+ * uses up the rate only delays other batch work. One RateLimiter can be shared by several operations, to enforce a
+ * quota that they share.
+ *
+ * @see com.opentok.OpenTok.Builder#rateLimit(com.opentok.Operation, RateLimiter, RateLimiter.Priority, long,
+ * TimeUnit)
+ */
+public class RateLimiter {
+
+    /**
+     * The priorities of the calls that take permits.
+     */
+    public enum Priority {
+        /**
+         * Calls that someone is waiting for, served first.
+         */
+        INTERACTIVE,
+        /**
+         * Background calls, served when no interactive call is waiting.
+         */
+        BATCH
+    }
+
+    private static ScheduledExecutorService scheduler;
+
+    private final double permitsPerNano;
+    private final double burst;
+    private final int maxQueued;
+
+    // guarded by this
+    private double permits;
+    private long refilledAt = System.nanoTime();
+    private final Deque<Waiter> interactiveQueue = new ArrayDeque<Waiter>();
+    private final Deque<Waiter> batchQueue = new ArrayDeque<Waiter>();
+    private long acquired;
+    private long rejected;
+    // the pending run of serveWaiters(), and when it runs
+    private ScheduledFuture<?> serving;
+    private long servingAt;
+
+    private RateLimiter(Builder builder) {
+        this.permitsPerNano = builder.permitsPerNano;
+        this.burst = builder.burst;
+        this.maxQueued = builder.maxQueued;
+        this.permits = builder.burst;
+    }
+
+    /**
+     * Receives the outcome of {@link RateLimiter#acquire(Priority, long, TimeUnit, Callback)}.
+     */
+    public interface Callback {
+        /**
+         * Called when the caller got a permit.
+         */
+        void onAcquired();
+
+        /**
+         * Called when the caller did not get a permit: the queue was full, or the wait timed out.
+         */
+        void onRejected();
+    }
+
+    /**
+     * The place of a caller in the queue of waiting callers, returned by
+     * {@link RateLimiter#acquire(Priority, long, TimeUnit, Callback)}.
+     */
+    public interface Ticket {
+        /**
+         * Leaves the queue, so that the caller neither takes a permit nor a place in the queue once it has given
+         * up. Its callback is not called.
+         *
+         * @return Whether the caller was still waiting. If not, its callback has been called or is about to be,
+         * and a permit it got can be given back with {@link RateLimiter#release()}.
+         */
+        boolean cancel();
+    }
+
+    /**
+     * Takes a permit if one is available right away. An interactive caller is not held back by batch callers that
+     * are waiting.
+     *
+     * @return Whether a permit was taken.
+     */
+    public synchronized boolean tryAcquire(Priority priority) {
+        refill();
+        if (isNext(priority) && permits >= 1) {
+            permits -= 1;
+            acquired++;
+            return true;
+        }
+        rejected++;
+        return false;
+    }
+
+    /**
+     * Takes a permit, waiting at most the given time for one. The caller is rejected right away if the queue of
+     * waiting callers is full.
+     *
+     * @return Whether a permit was taken.
+     */
+    public boolean acquire(Priority priority, long timeout, TimeUnit unit) throws InterruptedException {
+        final CountDownLatch done = new CountDownLatch(1);
+        final AtomicBoolean granted = new AtomicBoolean();
+        Waiter waiter = enqueue(priority, timeout, unit, new Callback() {
+            public void onAcquired() {
+                granted.set(true);
+                done.countDown();
+            }
+
+            public void onRejected() {
+                done.countDown();
+            }
+        });
+        if (waiter == null) {
+            return granted.get();
+        }
+        try {
+            done.await();
+        } catch (InterruptedException e) {
+            if (!waiter.cancel()) {
+                // the caller was served as it gave up, and its callback is about to run
+                while (done.getCount() > 0) {
+                    try {
+                        done.await();
+                    } catch (InterruptedException ignored) {
+                        // the interrupt is reported by rethrowing e
+                    }
+                }
+                if (granted.get()) {
+                    release();
+                }
+            }
+            throw e;
+        }
+        return granted.get();
+    }
+
+    /**
+     * Takes a permit without blocking the calling thread. If a permit is available right away, the callback is
+     * called on the calling thread. Otherwise the caller waits in the queue, and the callback is called on a thread
+     * shared by all rate limiters, when the caller gets a permit or its wait times out. The callback must return
+     * quickly, since other callers wait for that thread. The caller is rejected right away if the queue of waiting
+     * callers is full, or if the timeout is 0 and no permit is available.
+     *
+     * @return The ticket of the caller in the queue, to cancel its wait when it gives up, or <code>null</code> if
+     * the callback has already been called.
+     */
+    public Ticket acquire(Priority priority, long timeout, TimeUnit unit, Callback callback) {
+        return enqueue(priority, timeout, unit, callback);
+    }
+
+    /**
+     * Gives back a permit that was taken but not used, for example because the call it was for was cancelled while
+     * it waited.
+     */
+    public synchronized void release() {
+        refill();
+        permits = Math.min(burst, permits + 1);
+        acquired--;
+        scheduleServing();
+    }
+
+    // calls the callback and returns null if the caller is served right away, or returns the waiter in the queue
+    private Waiter enqueue(Priority priority, long timeout, TimeUnit unit, Callback callback) {
+        boolean granted;
+        synchronized (this) {
+            refill();
+            if (isNext(priority) && permits >= 1) {
+                permits -= 1;
+                acquired++;
+                granted = true;
+            } else if (timeout <= 0 || interactiveQueue.size() + batchQueue.size() >= maxQueued) {
+                rejected++;
+                granted = false;
+            } else {
+                Waiter waiter = new Waiter(callback, System.nanoTime() + unit.toNanos(timeout));
+                queue(priority).addLast(waiter);
+                scheduleServing();
+                return waiter;
+            }
+        }
+        if (granted) {
+            callback.onAcquired();
+        } else {
+            callback.onRejected();
+        }
+        return null;
+    }
+
+    // grants the permits that are due to the callers first in line, and rejects the callers whose wait timed out
+    private void serveWaiters() {
+        List<Waiter> granted = new ArrayList<Waiter>();
+        List<Waiter> timedOut = new ArrayList<Waiter>();
+        synchronized (this) {
+            serving = null;
+            refill();
+            long now = System.nanoTime();
+            removeTimedOut(interactiveQueue, now, timedOut);
+            removeTimedOut(batchQueue, now, timedOut);
+            while (permits >= 1) {
+                Waiter next = interactiveQueue.isEmpty() ? batchQueue.pollFirst() : interactiveQueue.pollFirst();
+                if (next == null) {
+                    break;
+                }
+                permits -= 1;
+                acquired++;
+                granted.add(next);
+            }
+            scheduleServing();
+        }
+        for (Waiter waiter : granted) {
+            waiter.callback.onAcquired();
+        }
+        for (Waiter waiter : timedOut) {
+            waiter.callback.onRejected();
+        }
+    }
+
+    private void removeTimedOut(Deque<Waiter> queue, long now, List<Waiter> timedOut) {
+        for (Iterator<Waiter> waiters = queue.iterator(); waiters.hasNext(); ) {
+            Waiter waiter = waiters.next();
+            if (waiter.deadline - now <= 0) {
+                waiters.remove();
+                rejected++;
+                timedOut.add(waiter);
+            }
+        }
+    }
+
+    // schedules serveWaiters() for when the next permit is due or the first wait times out, guarded by this
+    private void scheduleServing() {
+        if (interactiveQueue.isEmpty() && batchQueue.isEmpty()) {
+            return;
+        }
+        long now = System.nanoTime();
+        long at = now + (permits >= 1 ? 0 : (long) Math.ceil((1 - permits) / permitsPerNano));
+        for (Waiter waiter : interactiveQueue) {
+            at = waiter.deadline - at < 0 ? waiter.deadline : at;
+        }
+        for (Waiter waiter : batchQueue) {
+            at = waiter.deadline - at < 0 ? waiter.deadline : at;
+        }
+        if (serving != null) {
+            if (servingAt - at <= 0) {
+                return;
+            }
+            serving.cancel(false);
+        }
+        servingAt = at;
+        serving = getScheduler().schedule(new Runnable() {
+            public void run() {
+                serveWaiters();
+            }
+        }, Math.max(at - now, 0), TimeUnit.NANOSECONDS);
+    }
+
+    private static synchronized ScheduledExecutorService getScheduler() {
+        if (scheduler == null) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "opentok-rate-limiter");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return scheduler;
+    }
+
+    /**
+     * Returns the number of permits taken.
+     */
+    public synchronized long getAcquired() {
+        return acquired;
+    }
+
+    /**
+     * Returns the number of callers that did not get a permit.
+     */
+    public synchronized long getRejected() {
+        return rejected;
+    }
+
+    /**
+     * Returns the number of callers waiting for a permit.
+     */
+    public synchronized int getQueueLength() {
+        return interactiveQueue.size() + batchQueue.size();
+    }
+
+    private Deque<Waiter> queue(Priority priority) {
+        return priority == Priority.INTERACTIVE ? interactiveQueue : batchQueue;
+    }
+
+    // whether a new caller is first in line
+    private boolean isNext(Priority priority) {
+        return interactiveQueue.isEmpty() && (priority == Priority.INTERACTIVE || batchQueue.isEmpty());
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+        permits = Math.min(burst, permits + (now - refilledAt) * permitsPerNano);
+        refilledAt = now;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "RateLimiter [acquired=" + acquired + ", rejected=" + rejected + ", queueLength=" +
+                getQueueLength() + "]";
+    }
+
+    private class Waiter implements Ticket {
+        private final Callback callback;
+        private final long deadline;
+
+        Waiter(Callback callback, long deadline) {
+            this.callback = callback;
+            this.deadline = deadline;
+        }
+
+        public boolean cancel() {
+            synchronized (RateLimiter.this) {
+                return interactiveQueue.remove(this) || batchQueue.remove(this);
+            }
+        }
+    }
+
+    /**
+     * Use this class to create a RateLimiter object.
+     */
+    public static class Builder {
+        private double permitsPerNano;
+        private double burst;
+        private int maxQueued = 64;
+
+        /**
+         * Creates a Builder for a RateLimiter object.
+         *
+         * @param permits The number of calls allowed in each period.
+         * @param period The length of the period.
+         * @param unit The unit of the period.
+         */
+        public Builder(int permits, long period, TimeUnit unit) throws InvalidArgumentException {
+            if (permits < 1 || period < 1) {
+                throw new InvalidArgumentException("The number of permits and the period must be positive. " +
+                        "permits = " + permits + ", period = " + period);
+            }
+            this.permitsPerNano = permits / (double) unit.toNanos(period);
+            this.burst = permits;
+        }
+
+        /**
+         * Sets how many calls can be made at once after a quiet period. The default is the number of permits of
+         * each period.
+         */
+        public Builder burst(int burst) throws InvalidArgumentException {
+            if (burst < 1) {
+                throw new InvalidArgumentException("The burst must be positive. burst = " + burst);
+            }
+            this.burst = burst;
+            return this;
+        }
+
+        /**
+         * Sets how many callers can wait for a permit at once. The default is 64.
+         */
+        public Builder maxQueued(int maxQueued) throws InvalidArgumentException {
+            if (maxQueued < 0) {
+                throw new InvalidArgumentException("The queue size cannot be negative. maxQueued = " + maxQueued);
+            }
+            this.maxQueued = maxQueued;
+            return this;
+        }
+
+        /**
+         * Builds the RateLimiter object.
+         */
+        public RateLimiter build() {
+            return new RateLimiter(this);
+        }
+    }
+}
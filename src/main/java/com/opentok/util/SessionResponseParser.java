@@ -0,0 +1,118 @@
+/**
+ * OpenTok Java SDK
+ * Copyright (C) 2015 TokBox, Inc.
+ * http://www.tokbox.com
+ *
+ * Licensed under The MIT License (MIT). See LICENSE file for more information.
+ */
+package com.opentok.util;
+
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.StringReader;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * Reads the session ID from the XML response of the session creation endpoint, such as
+ * <code>&lt;sessions&gt;&lt;Session&gt;&lt;session_id&gt;...&lt;/session_id&gt;...</code>.
+ * <p>
+ * It returns the same value as evaluating the XPath expression <code>/sessions/Session/session_id</code> on the
+ * response, but it streams through the response with StAX and stops at the session ID, instead of building a DOM of
+ * the whole response. One parser can be shared by all threads: its XMLInputFactory is configured once, and each call
+ * uses its own XMLStreamReader.
+ */
+public class SessionResponseParser {
+
+    private static final String[] SESSION_ID_PATH = {"sessions", "Session", "session_id"};
+
+    private final XMLInputFactory factory;
+
+    public SessionResponseParser() {
+        factory = XMLInputFactory.newInstance();
+        // responses never need a DTD, and resolving external entities is unsafe
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+    }
+
+    /**
+     * Returns the session ID in the response, or an empty string if the response does not have one.
+     *
+     * @param xml The bytes of the response. The encoding is detected from the XML declaration.
+     */
+    public String readSessionId(InputStream xml) throws XMLStreamException {
+        return readSessionId(factory.createXMLStreamReader(xml));
+    }
+
+    /**
+     * Returns the session ID in the response, or an empty string if the response does not have one.
+     */
+    public String readSessionId(String xml) throws XMLStreamException {
+        Reader reader = new StringReader(xml);
+        return readSessionId(factory.createXMLStreamReader(reader));
+    }
+
+    private static String readSessionId(XMLStreamReader reader) throws XMLStreamException {
+        try {
+            // the depth of the current element, and how many of its ancestors, itself included, match the path
+            int depth = 0;
+            int matched = 0;
+            while (reader.hasNext()) {
+                switch (reader.next()) {
+                    case XMLStreamConstants.START_ELEMENT:
+                        if (matched == depth && isElement(reader, SESSION_ID_PATH[matched])) {
+                            matched++;
+                            if (matched == SESSION_ID_PATH.length) {
+                                return readText(reader);
+                            }
+                        }
+                        depth++;
+                        break;
+                    case XMLStreamConstants.END_ELEMENT:
+                        depth--;
+                        if (matched > depth) {
+                            matched = depth;
+                        }
+                        break;
+                    default:
+                        break;
+                }
+            }
+            return "";
+        } finally {
+            reader.close();
+        }
+    }
+
+    private static boolean isElement(XMLStreamReader reader, String name) {
+        String namespace = reader.getNamespaceURI();
+        return name.equals(reader.getLocalName()) && (namespace == null || namespace.isEmpty());
+    }
+
+    // returns the text of the current element and its descendants, like the string value of an XPath node
+    private static String readText(XMLStreamReader reader) throws XMLStreamException {
+        StringBuilder text = new StringBuilder();
+        int level = 1;
+        while (level > 0) {
+            switch (reader.next()) {
+                case XMLStreamConstants.CHARACTERS:
+                case XMLStreamConstants.CDATA:
+                case XMLStreamConstants.SPACE:
+                    text.append(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+                    break;
+                case XMLStreamConstants.START_ELEMENT:
+                    level++;
+                    break;
+                case XMLStreamConstants.END_ELEMENT:
+                    level--;
+                    break;
+                default:
+                    break;
+            }
+        }
+        return text.toString();
+    }
+}
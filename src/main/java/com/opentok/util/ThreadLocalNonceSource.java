@@ -0,0 +1,30 @@
+/**
+ * OpenTok Java SDK
+ * Copyright (C) 2015 TokBox, Inc.
+ * http://www.tokbox.com
+ *
+ * Licensed under The MIT License (MIT). See LICENSE file for more information.
+ */
+package com.opentok.util;
+
+import java.util.Random;
+
+/**
+ * Generates random nonces with a Random per thread, so that threads generating tokens at the same time don't contend
+ * on a shared seed. This is the default NonceSource.
+ */
+public class ThreadLocalNonceSource implements NonceSource {
+
+    public static final ThreadLocalNonceSource INSTANCE = new ThreadLocalNonceSource();
+
+    private static final ThreadLocal<Random> random = new ThreadLocal<Random>() {
+        @Override
+        protected Random initialValue() {
+            return new Random();
+        }
+    };
+
+    public int nextNonce() {
+        return random.get().nextInt();
+    }
+}
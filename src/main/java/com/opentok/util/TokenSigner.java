@@ -0,0 +1,149 @@
+/**
+ * OpenTok Java SDK
+ * Copyright (C) 2015 TokBox, Inc.
+ * http://www.tokbox.com
+ *
+ * Licensed under The MIT License (MIT). See LICENSE file for more information.
+ */
+package com.opentok.util;
+
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.security.Provider;
+import java.security.Security;
+import java.util.concurrent.TimeUnit;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Computes the HMAC-SHA1 signatures of tokens for a single API secret.
+ *
+ * The key is initialized once into a prototype {@link Mac}. Each thread then signs with its own clone of the
+ * prototype, so no provider lookup or key setup happens per token and no locking is needed.
+ *
+ * The Mac comes from the default JCA provider for HmacSHA1 unless a {@link Provider} is given. Providers can perform
+ * very differently, {@link #findFastestProvider(long, TimeUnit)} measures the installed ones to choose between them.
+ */
+public class TokenSigner {
+
+    private static final String HMAC_SHA1_ALGORITHM = "HmacSHA1";
+
+    private final SecretKeySpec signingKey;
+    private final Mac prototype;
+    private final ThreadLocal<Mac> macs = new ThreadLocal<Mac>() {
+        @Override
+        protected Mac initialValue() {
+            return newMac();
+        }
+    };
+
+    public TokenSigner(String key) throws NoSuchAlgorithmException, InvalidKeyException {
+        this(key, null);
+    }
+
+    /**
+     * Creates a signer that signs with the given provider, or with the default provider if it is <code>null</code>.
+     */
+    public TokenSigner(String key, Provider provider) throws NoSuchAlgorithmException, InvalidKeyException {
+        this.signingKey = new SecretKeySpec(key.getBytes(), HMAC_SHA1_ALGORITHM);
+        this.prototype = provider != null
+                ? Mac.getInstance(HMAC_SHA1_ALGORITHM, provider)
+                : Mac.getInstance(HMAC_SHA1_ALGORITHM);
+        this.prototype.init(signingKey);
+    }
+
+    /**
+     * Returns the JCA provider that computes the signatures.
+     */
+    public Provider getProvider() {
+        return prototype.getProvider();
+    }
+
+    /**
+     * Returns the length of the hex encoded signatures, in characters.
+     */
+    public int getSignatureLength() {
+        return prototype.getMacLength() * 2;
+    }
+
+    /**
+     * Signs the data and returns the signature as a lowercase hex string, exactly as
+     * {@link Crypto#signData(String, String)} does.
+     */
+    public String sign(String data) {
+        return Crypto.toHexString(macs.get().doFinal(data.getBytes()));
+    }
+
+    /**
+     * Signs <code>length</code> bytes of <code>data</code> starting at <code>offset</code> and writes the lowercase
+     * hex signature into <code>dest</code> at <code>destOffset</code>.
+     *
+     * @return The number of bytes written, see {@link #getSignatureLength()}.
+     */
+    public int sign(byte[] data, int offset, int length, byte[] dest, int destOffset) {
+        Mac mac = macs.get();
+        mac.update(data, offset, length);
+        return Crypto.toHexBytes(mac.doFinal(), dest, destOffset);
+    }
+
+    /**
+     * Measures how fast each installed provider of HmacSHA1 signs data the size of a token, and returns the fastest
+     * one. Providers that fail to sign are skipped.
+     *
+     * @param duration The total time to spend measuring, split evenly between the providers.
+     * @param unit The unit of the duration.
+     *
+     * @return The fastest provider, or <code>null</code> if no provider of HmacSHA1 works.
+     */
+    public static Provider findFastestProvider(long duration, TimeUnit unit) {
+        Provider[] providers = Security.getProviders("Mac." + HMAC_SHA1_ALGORITHM);
+        if (providers == null) {
+            return null;
+        }
+        long slice = unit.toNanos(duration) / providers.length;
+        byte[] data = new byte[256];
+        byte[] signature = new byte[64];
+        Provider fastest = null;
+        long fastestSignatures = -1;
+        for (Provider provider : providers) {
+            try {
+                TokenSigner signer = new TokenSigner("benchmark", provider);
+                // the first half of the slice warms up the provider, only the second half is counted
+                long warmupEnd = System.nanoTime() + slice / 2;
+                while (System.nanoTime() < warmupEnd) {
+                    signer.sign(data, 0, data.length, signature, 0);
+                }
+                long signatures = 0;
+                long end = System.nanoTime() + slice / 2;
+                while (System.nanoTime() < end) {
+                    signer.sign(data, 0, data.length, signature, 0);
+                    signatures++;
+                }
+                if (signatures > fastestSignatures) {
+                    fastest = provider;
+                    fastestSignatures = signatures;
+                }
+            } catch (Exception e) {
+                // this provider can't sign, try the next one
+            }
+        }
+        return fastest;
+    }
+
+    private Mac newMac() {
+        try {
+            synchronized (prototype) {
+                return (Mac) prototype.clone();
+            }
+        } catch (CloneNotSupportedException e) {
+            // some providers can't clone an initialized Mac, fall back to building a new one for this thread
+            try {
+                Mac mac = Mac.getInstance(HMAC_SHA1_ALGORITHM, prototype.getProvider());
+                mac.init(signingKey);
+                return mac;
+            } catch (Exception e1) {
+                throw new IllegalStateException("Could not create a signing engine", e1);
+            }
+        }
+    }
+}
@@ -0,0 +1,360 @@
+/**
+ * OpenTok Java SDK
+ * Copyright (C) 2015 TokBox, Inc.
+ * http://www.tokbox.com
+ *
+ * Licensed under The MIT License (MIT). See LICENSE file for more information.
+ */
+package com.opentok.util;
+
+import java.nio.charset.Charset;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import com.opentok.Role;
+import com.opentok.exception.InvalidArgumentException;
+
+/**
+ * Checks that tokens presented by clients were generated with a given API key and secret, and reads their claims.
+ *
+ * A token is decoded in a single pass into a per-thread buffer, its signature is checked in constant time with a
+ * {@link TokenSigner}, and only the session ID and the connection data are copied out as Strings.
+ */
+public class TokenVerifier {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final byte[] BASE64_VALUES = new byte[128];
+    static {
+        Arrays.fill(BASE64_VALUES, (byte) -1);
+        String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+        for (int i = 0; i < alphabet.length(); i++) {
+            BASE64_VALUES[alphabet.charAt(i)] = (byte) i;
+        }
+        BASE64_VALUES['-'] = 62;
+        BASE64_VALUES['_'] = 63;
+    }
+    private static final byte[] PARTNER_ID = "partner_id=".getBytes(UTF_8);
+    private static final byte[] SIG = "&sig=".getBytes(UTF_8);
+    private static final Role[] ROLES = Role.values();
+    private static final String[] ROLE_NAMES = new String[ROLES.length];
+    static {
+        for (int i = 0; i < ROLES.length; i++) {
+            ROLE_NAMES[i] = ROLES[i].toString();
+        }
+    }
+
+    // connection data is at most 1000 characters, each of which takes at most 9 bytes once URL encoded, and the
+    // other fields take a few hundred bytes: base64 encoded, a valid token is shorter than this. Longer tokens are
+    // rejected before they are decoded, so that they can't make the per-thread buffer grow without bound
+    private static final int MAX_TOKEN_LENGTH = 16 * 1024;
+
+    private static final ThreadLocal<byte[][]> buffers = new ThreadLocal<byte[][]>() {
+        @Override
+        protected byte[][] initialValue() {
+            // the decoded token and the expected signature
+            return new byte[][] { new byte[512], new byte[64] };
+        }
+    };
+
+    private final int apiKey;
+    private final TokenSigner signer;
+
+    public TokenVerifier(int apiKey, String apiSecret) throws NoSuchAlgorithmException, InvalidKeyException {
+        this(apiKey, new TokenSigner(apiSecret.trim()));
+    }
+
+    public TokenVerifier(int apiKey, TokenSigner signer) {
+        this.apiKey = apiKey;
+        this.signer = signer;
+    }
+
+    /**
+     * Verifies a token and returns its claims.
+     *
+     * @throws InvalidArgumentException The token is malformed, was not generated for this API key, has an invalid
+     * signature or has expired.
+     */
+    public Claims verify(String token) throws InvalidArgumentException {
+        return verify(token, TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis()));
+    }
+
+    /**
+     * Verifies a token as of the given time, in seconds since the UNIX epoch, and returns its claims.
+     *
+     * @see #verify(String)
+     */
+    public Claims verify(String token, long now) throws InvalidArgumentException {
+        if (token == null || !token.startsWith("T1==") || token.length() > MAX_TOKEN_LENGTH) {
+            throw new InvalidArgumentException("Token was not valid");
+        }
+        byte[][] buffers = TokenVerifier.buffers.get();
+        byte[] decoded = buffers[0];
+        if (decoded.length < token.length()) {
+            decoded = buffers[0] = new byte[token.length()];
+        }
+        int length = decode(token, 4, decoded);
+
+        // "partner_id={apiKey}&sig={sig}:{data}"
+        if (!startsWith(decoded, 0, length, PARTNER_ID)) {
+            throw new InvalidArgumentException("Token was not valid");
+        }
+        int position = PARTNER_ID.length;
+        long partnerId = 0;
+        int digitsEnd = position;
+        while (digitsEnd < length && decoded[digitsEnd] >= '0' && decoded[digitsEnd] <= '9'
+                && digitsEnd - position < 10) {
+            partnerId = partnerId * 10 + (decoded[digitsEnd++] - '0');
+        }
+        if (digitsEnd == position || !startsWith(decoded, digitsEnd, length, SIG)) {
+            throw new InvalidArgumentException("Token was not valid");
+        }
+        if (partnerId != apiKey) {
+            throw new InvalidArgumentException("Token was not generated for this API key");
+        }
+        int signatureStart = digitsEnd + SIG.length;
+        int signatureLength = signer.getSignatureLength();
+        int dataStart = signatureStart + signatureLength + 1;
+        if (dataStart > length || decoded[dataStart - 1] != ':') {
+            throw new InvalidArgumentException("Token was not valid");
+        }
+
+        byte[] expected = buffers[1];
+        if (expected.length < signatureLength) {
+            expected = buffers[1] = new byte[signatureLength];
+        }
+        signer.sign(decoded, dataStart, length - dataStart, expected, 0);
+        // compare every byte, so the time taken doesn't reveal how much of a forged signature was right
+        int difference = 0;
+        for (int i = 0; i < signatureLength; i++) {
+            difference |= expected[i] ^ decoded[signatureStart + i];
+        }
+        if (difference != 0) {
+            throw new InvalidArgumentException("Token signature was not valid");
+        }
+
+        Claims claims = parseClaims(decoded, dataStart, length);
+        if (claims.sessionId == null || claims.role == null) {
+            throw new InvalidArgumentException("Token was not valid");
+        }
+        if (claims.expireTime < now) {
+            throw new InvalidArgumentException("Token has expired. expire_time = " + claims.expireTime);
+        }
+        return claims;
+    }
+
+    // decodes base64 or base64url, stopping at the padding
+    private static int decode(String token, int offset, byte[] dest) throws InvalidArgumentException {
+        int bits = 0;
+        int bitCount = 0;
+        int length = 0;
+        for (int i = offset; i < token.length(); i++) {
+            char c = token.charAt(i);
+            if (c == '=') {
+                break;
+            }
+            int value = c < 128 ? BASE64_VALUES[c] : -1;
+            if (value < 0) {
+                throw new InvalidArgumentException("Token was not valid");
+            }
+            bits = (bits << 6) | value;
+            bitCount += 6;
+            if (bitCount >= 8) {
+                bitCount -= 8;
+                dest[length++] = (byte) (bits >> bitCount);
+            }
+        }
+        return length;
+    }
+
+    private static Claims parseClaims(byte[] data, int start, int end) throws InvalidArgumentException {
+        Claims claims = new Claims();
+        int position = start;
+        while (position < end) {
+            int nameEnd = indexOf(data, '=', position, end);
+            int valueEnd = indexOf(data, '&', nameEnd, end);
+            int valueStart = Math.min(nameEnd + 1, valueEnd);
+            switch (nameEnd - position) {
+                case 4:
+                    if (is(data, position, "role")) {
+                        claims.role = parseRole(data, valueStart, valueEnd);
+                    }
+                    break;
+                case 5:
+                    if (is(data, position, "nonce")) {
+                        claims.nonce = parseLong(data, valueStart, valueEnd);
+                    }
+                    break;
+                case 10:
+                    if (is(data, position, "session_id")) {
+                        claims.sessionId = urlDecode(data, valueStart, valueEnd);
+                    }
+                    break;
+                case 11:
+                    if (is(data, position, "create_time")) {
+                        claims.createTime = parseLong(data, valueStart, valueEnd);
+                    } else if (is(data, position, "expire_time")) {
+                        claims.expireTime = parseLong(data, valueStart, valueEnd);
+                    }
+                    break;
+                case 15:
+                    if (is(data, position, "connection_data")) {
+                        claims.connectionData = urlDecode(data, valueStart, valueEnd);
+                    }
+                    break;
+                default:
+                    // unknown claims are ignored
+            }
+            position = valueEnd + 1;
+        }
+        return claims;
+    }
+
+    private static Role parseRole(byte[] data, int start, int end) {
+        for (int i = 0; i < ROLES.length; i++) {
+            if (end - start == ROLE_NAMES[i].length() && is(data, start, ROLE_NAMES[i])) {
+                return ROLES[i];
+            }
+        }
+        return null;
+    }
+
+    private static long parseLong(byte[] data, int start, int end) throws InvalidArgumentException {
+        boolean negative = start < end && data[start] == '-';
+        int position = negative ? start + 1 : start;
+        if (position == end || end - position > 18) {
+            throw new InvalidArgumentException("Token was not valid");
+        }
+        long value = 0;
+        for (; position < end; position++) {
+            if (data[position] < '0' || data[position] > '9') {
+                throw new InvalidArgumentException("Token was not valid");
+            }
+            value = value * 10 + (data[position] - '0');
+        }
+        return negative ? -value : value;
+    }
+
+    // decodes application/x-www-form-urlencoded UTF-8 text, the inverse of URLEncoder.encode(value, "UTF-8")
+    private static String urlDecode(byte[] data, int start, int end) throws InvalidArgumentException {
+        byte[] decoded = null;
+        int length = 0;
+        for (int i = start; i < end; i++) {
+            byte b = data[i];
+            if (b != '%' && b != '+') {
+                if (decoded != null) {
+                    decoded[length++] = b;
+                }
+                continue;
+            }
+            if (decoded == null) {
+                decoded = new byte[end - start];
+                length = i - start;
+                System.arraycopy(data, start, decoded, 0, length);
+            }
+            if (b == '+') {
+                decoded[length++] = ' ';
+            } else {
+                if (i + 2 >= end) {
+                    throw new InvalidArgumentException("Token was not valid");
+                }
+                int high = Character.digit(data[i + 1], 16);
+                int low = Character.digit(data[i + 2], 16);
+                if (high < 0 || low < 0) {
+                    throw new InvalidArgumentException("Token was not valid");
+                }
+                decoded[length++] = (byte) ((high << 4) | low);
+                i += 2;
+            }
+        }
+        return decoded != null ? new String(decoded, 0, length, UTF_8) : new String(data, start, end - start, UTF_8);
+    }
+
+    private static int indexOf(byte[] data, char c, int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (data[i] == c) {
+                return i;
+            }
+        }
+        return end;
+    }
+
+    private static boolean is(byte[] data, int position, String ascii) {
+        for (int i = 0; i < ascii.length(); i++) {
+            if (data[position + i] != ascii.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean startsWith(byte[] data, int position, int end, byte[] prefix) {
+        if (end - position < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (data[position + i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * The claims of a verified token.
+     */
+    public static class Claims {
+        private String sessionId;
+        private Role role;
+        private long createTime;
+        private long expireTime;
+        private long nonce;
+        private String connectionData;
+
+        private Claims() {
+        }
+
+        /**
+         * Returns the ID of the session the token connects to.
+         */
+        public String getSessionId() {
+            return sessionId;
+        }
+
+        /**
+         * Returns the role of the token.
+         */
+        public Role getRole() {
+            return role;
+        }
+
+        /**
+         * Returns the creation time of the token, in seconds since the UNIX epoch.
+         */
+        public long getCreateTime() {
+            return createTime;
+        }
+
+        /**
+         * Returns the expiration time of the token, in seconds since the UNIX epoch.
+         */
+        public long getExpireTime() {
+            return expireTime;
+        }
+
+        /**
+         * Returns the nonce of the token.
+         */
+        public long getNonce() {
+            return nonce;
+        }
+
+        /**
+         * Returns the connection data of the token, or <code>null</code> if it has none.
+         */
+        public String getConnectionData() {
+            return connectionData;
+        }
+    }
+}
@@ -7,19 +7,61 @@
  */
 package com.opentok.test;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
 import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
+import java.security.Provider;
 import java.security.SignatureException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
-
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.crypto.Mac;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.xpath.XPath;
+import javax.xml.xpath.XPathFactory;
+import org.xml.sax.InputSource;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.opentok.*;
+import org.apache.commons.codec.binary.Base64;
 import org.apache.commons.lang.StringUtils;
 
 import com.opentok.constants.Version;
+import com.opentok.exception.CircuitOpenException;
 import com.opentok.exception.OpenTokException;
 import com.opentok.exception.InvalidArgumentException;
+import com.opentok.exception.RateLimitException;
+import com.opentok.exception.RequestException;
+import com.opentok.exception.RequestTimeoutException;
+import com.opentok.util.CacheStats;
+import com.opentok.util.CircuitBreaker;
+import com.opentok.util.Crypto;
+import com.opentok.util.NodeSaltedNonceSource;
+import com.opentok.util.NonceSource;
+import com.opentok.util.RateLimiter;
+import com.opentok.util.SessionResponseParser;
+import com.opentok.util.TokenSigner;
+import com.opentok.util.TokenVerifier;
 
 import org.junit.Before;
 import org.junit.Rule;
@@ -30,6 +72,7 @@ import static org.hamcrest.CoreMatchers.*;
 
 import static com.github.tomakehurst.wiremock.client.WireMock.*;
 import com.github.tomakehurst.wiremock.junit.WireMockRule;
+import com.github.tomakehurst.wiremock.stubbing.Scenario;
 
 public class OpenTokTest {
 
@@ -156,6 +199,109 @@ public class OpenTokTest {
 
     // TODO: test session creation conditions that result in errors
 
+    @Test
+    public void testCreateSessionFormBody() throws OpenTokException {
+        stubFor(post(urlEqualTo("/session/create"))
+                .willReturn(aResponse()
+                        .withStatus(200)
+                        .withHeader("Content-Type", "text/xml")
+                        .withBody("<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?><sessions><Session><" +
+                                "session_id>SESSIONID</session_id><partner_id>123456</partner_id><create_dt>" +
+                                "Mon Mar 17 00:41:31 PDT 2014</create_dt></Session></sessions>")));
+        SessionProperties properties = new SessionProperties.Builder()
+                .location("12.34.56.78")
+                .mediaMode(MediaMode.ROUTED)
+                .build();
+
+        sdk.createSession(properties);
+        sdk.createSession(properties);
+        Session session = sdk.createSession();
+
+        verify(2, postRequestedFor(urlMatching("/session/create"))
+                .withRequestBody(equalTo("location=12.34.56.78&p2p.preference=disabled"))
+                .withHeader("Content-Type", containing("application/x-www-form-urlencoded")));
+        verify(1, postRequestedFor(urlMatching("/session/create"))
+                .withRequestBody(equalTo("p2p.preference=enabled")));
+        assertSame(SessionProperties.DEFAULT, session.getProperties());
+        assertEquals(SessionProperties.DEFAULT, new SessionProperties.Builder().build());
+    }
+
+    @Test
+    public void testCreateSessions() throws OpenTokException {
+        stubFor(post(urlEqualTo("/session/create"))
+                .willReturn(aResponse()
+                        .withStatus(200)
+                        .withHeader("Content-Type", "text/xml")
+                        .withFixedDelay(20)
+                        .withBody("<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?><sessions><Session><" +
+                                "session_id>SESSIONID</session_id><partner_id>123456</partner_id><create_dt>" +
+                                "Mon Mar 17 00:41:31 PDT 2014</create_dt></Session></sessions>")));
+        stubFor(post(urlEqualTo("/session/create"))
+                .withRequestBody(matching(".*location=12.34.56.78.*"))
+                .willReturn(aResponse()
+                        .withStatus(403)));
+
+        SessionProperties routed = new SessionProperties.Builder().mediaMode(MediaMode.ROUTED).build();
+        BatchResult<Session> sessions = sdk.createSessions(5, routed, 2);
+
+        assertEquals(5, sessions.size());
+        assertFalse(sessions.hasErrors());
+        for (Session session : sessions.getResults()) {
+            assertEquals("SESSIONID", session.getSessionId());
+            assertEquals(MediaMode.ROUTED, session.getProperties().mediaMode());
+        }
+        verify(5, postRequestedFor(urlMatching("/session/create")));
+
+        SessionProperties located = new SessionProperties.Builder().location("12.34.56.78").build();
+        BatchResult<Session> mixed = sdk.createSessions(Arrays.asList(routed, located, null));
+
+        assertEquals(3, mixed.size());
+        assertEquals(MediaMode.ROUTED, mixed.get(0).getProperties().mediaMode());
+        assertNull(mixed.getResults().get(1));
+        assertEquals(Collections.singleton(1), mixed.getErrors().keySet());
+        assertTrue(mixed.getErrors().get(1) instanceof RequestException);
+        assertEquals(MediaMode.RELAYED, mixed.get(2).getProperties().mediaMode());
+
+        assertEquals(0, sdk.createSessions(0, routed).size());
+    }
+
+    @Test(expected = InvalidArgumentException.class)
+    public void testCreateSessionsBadConcurrency() throws OpenTokException {
+        sdk.createSessions(5, null, 0);
+    }
+
+    @Test
+    public void testSessionResponseParser() throws Exception {
+        SessionResponseParser parser = new SessionResponseParser();
+        XPath xpath = XPathFactory.newInstance().newXPath();
+        List<String> responses = Arrays.asList(
+                "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?><sessions><Session><session_id>" +
+                        "SESSIONID</session_id><partner_id>123456</partner_id><create_dt>Mon Mar 17 00:41:31 PDT " +
+                        "2014</create_dt></Session></sessions>",
+                "<sessions>\n  <Session>\n    <session_id> 1_MX4xMjM0NTZ-fg </session_id>\n  </Session>\n</sessions>",
+                "<sessions><Session><partner_id>123456</partner_id></Session></sessions>",
+                "<sessions><other><session_id>WRONG</session_id></other><Session><session_id>RIGHT" +
+                        "</session_id></Session></sessions>",
+                "<sessions><Session><session_id>FIRST</session_id></Session><Session><session_id>SECOND" +
+                        "</session_id></Session></sessions>",
+                "<sessions><Session><session_id><![CDATA[CDATA]]>&amp;<b>nested</b></session_id></Session>" +
+                        "</sessions>",
+                "<sessions xmlns=\"urn:other\"><Session><session_id>NAMESPACED</session_id></Session></sessions>",
+                "<Session><session_id>NOT A ROOT</session_id></Session>");
+        for (String response : responses) {
+            String expected = xpath.evaluate("/sessions/Session/session_id",
+                    new InputSource(new StringReader(response)));
+            assertEquals(expected, parser.readSessionId(response));
+            assertEquals(expected, parser.readSessionId(new ByteArrayInputStream(response.getBytes("UTF-8"))));
+        }
+
+        try {
+            parser.readSessionId("<sessions><Session>");
+            fail("Expected an XMLStreamException");
+        } catch (XMLStreamException e) {
+        }
+    }
+
     @Test
     public void testTokenDefault() throws
             OpenTokException, UnsupportedEncodingException, NoSuchAlgorithmException, SignatureException,
@@ -213,7 +359,7 @@ public class OpenTokTest {
         String apiSecret = "1234567890abcdef1234567890abcdef1234567890";
         String sessionId = "1_MX4xMjM0NTZ-flNhdCBNYXIgMTUgMTQ6NDI6MjMgUERUIDIwMTR-MC40OTAxMzAyNX4";
         OpenTok opentok = new OpenTok(apiKey, apiSecret);
-        long now = System.currentTimeMillis() / 0L;
+        long now = System.currentTimeMillis() / 1000L;
         long inOneHour = now + (60*60);
         long inOneDay = now + (60*60*24);
         long inThirtyDays = now + (60*60*24*30);
@@ -274,7 +420,7 @@ public class OpenTokTest {
             .build());
         try {
             String dataTooLongToken = opentok.generateToken(sessionId, new TokenOptions.Builder()
-                    .data(StringUtils.repeat("x", 1))
+                    .data(StringUtils.repeat("x", 1001))
                     .build());
         } catch (InvalidArgumentException e) {
             tooLongException = e;
@@ -292,6 +438,681 @@ public class OpenTokTest {
         assertEquals(InvalidArgumentException.class, tooLongException.getClass());
     }
 
+    @Test
+    public void testTokenConnectionDataEncoding() throws
+            OpenTokException, SignatureException, NoSuchAlgorithmException, InvalidKeyException,
+            UnsupportedEncodingException {
+
+        int apiKey = 123456;
+        String apiSecret = "1234567890abcdef1234567890abcdef1234567890";
+        String sessionId = "1_MX4xMjM0NTZ-flNhdCBNYXIgMTUgMTQ6NDI6MjMgUERUIDIwMTR-MC40OTAxMzAyNX4";
+        OpenTok opentok = new OpenTok(apiKey, apiSecret);
+        // covers every branch of the URL encoding: unreserved, space, ASCII, 2 and 3 byte UTF-8 and a surrogate pair
+        String actualData = "a.-*_ +~/\u00e7\u20ac\ud83d\ude00";
+
+        String token = opentok.generateToken(sessionId, new TokenOptions.Builder()
+                .data(actualData)
+                .build());
+
+        assertTrue(Helpers.verifyTokenSignature(token, apiSecret));
+        String decoded = new String(Base64.decodeBase64(token.substring(4)), "UTF-8");
+        assertTrue(decoded.endsWith("&connection_data=" + URLEncoder.encode(actualData, "UTF-8")));
+        assertEquals(actualData, Helpers.decodeToken(token).get("connection_data"));
+    }
+
+    @Test
+    public void testGenerateTokens() throws
+            OpenTokException, SignatureException, NoSuchAlgorithmException, InvalidKeyException,
+            UnsupportedEncodingException {
+
+        int apiKey = 123456;
+        String apiSecret = "1234567890abcdef1234567890abcdef1234567890";
+        String sessionId = "1_MX4xMjM0NTZ-flNhdCBNYXIgMTUgMTQ6NDI6MjMgUERUIDIwMTR-MC40OTAxMzAyNX4";
+        OpenTok opentok = new OpenTok(apiKey, apiSecret);
+        ArrayList<TokenOptions> options = new ArrayList<TokenOptions>();
+        for (int i = 0; i < 300; i++) {
+            options.add(new TokenOptions.Builder().role(Role.values()[i % Role.values().length]).build());
+        }
+        // an expire time in the past only fails its own token
+        options.set(150, new TokenOptions.Builder().expireTime(1).build());
+
+        BatchResult<String> tokens = opentok.generateTokens(sessionId, options);
+
+        assertEquals(300, tokens.size());
+        assertEquals(1, tokens.getErrors().size());
+        assertEquals(InvalidArgumentException.class, tokens.getErrors().get(150).getClass());
+        assertNull(tokens.getResults().get(150));
+        for (int i = 0; i < 300; i++) {
+            if (i != 150) {
+                assertTrue(Helpers.verifyTokenSignature(tokens.get(i), apiSecret));
+                assertEquals(options.get(i).getRole().toString(), Helpers.decodeToken(tokens.get(i)).get("role"));
+            }
+        }
+
+        BatchResult<String> sameTokens = opentok.generateTokens(sessionId, 10, new TokenOptions.Builder().build());
+        assertEquals(10, sameTokens.size());
+        assertFalse(sameTokens.hasErrors());
+
+        // the chunks that the executor rejects are generated on the calling thread
+        ExecutorService shutDown = Executors.newSingleThreadExecutor();
+        shutDown.shutdown();
+        BatchResult<String> rejected = opentok.generateTokens(sessionId, 300, new TokenOptions.Builder().build(),
+                shutDown);
+        assertEquals(300, rejected.size());
+        assertFalse(rejected.hasErrors());
+        assertTrue(Helpers.verifyTokenSignature(rejected.get(299), apiSecret));
+    }
+
+    @Test(expected = InvalidArgumentException.class)
+    public void testGenerateTokensBadSessionId() throws OpenTokException {
+        OpenTok opentok = new OpenTok(123456, "1234567890abcdef1234567890abcdef1234567890");
+        opentok.generateTokens("NOT A VALID SESSION ID", 10, new TokenOptions.Builder().build());
+    }
+
+    @Test
+    public void testTokenPool() throws OpenTokException, UnsupportedEncodingException {
+        String sessionId = "SESSIONID";
+        stubFor(post(urlEqualTo("/session/create"))
+                .willReturn(aResponse()
+                        .withStatus(200)
+                        .withHeader("Content-Type", "text/xml")
+                        .withBody("<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?><sessions><Session><" +
+                                "session_id>" + sessionId + "</session_id><partner_id>123456</partner_id><create_dt>" +
+                                "Mon Mar 17 00:41:31 PDT 2014</create_dt></Session></sessions>")));
+        Session session = sdk.createSession();
+        TokenOptions subscriber = new TokenOptions.Builder().role(Role.SUBSCRIBER).build();
+        TokenPool pool = new TokenPool.Builder()
+                .size(5)
+                .executor(new Executor() {
+                    public void execute(Runnable command) {
+                        command.run();
+                    }
+                })
+                .build();
+
+        pool.fill(session, subscriber);
+        assertEquals(5, pool.getAvailable(session, subscriber));
+        assertEquals(0, pool.getAvailable(session, new TokenOptions.Builder().build()));
+
+        String token = pool.take(session, subscriber);
+        String dataToken = pool.take(session, new TokenOptions.Builder().data("user").build());
+
+        assertEquals("subscriber", Helpers.decodeToken(token).get("role"));
+        assertEquals("user", Helpers.decodeToken(dataToken).get("connection_data"));
+        assertEquals(5, pool.getAvailable(session, subscriber));
+        assertEquals(1, pool.getHits());
+        assertEquals(1, pool.getMisses());
+        assertEquals(6, pool.getRefills());
+        assertEquals(0, pool.getDiscarded());
+
+        // tokens with an explicit expiration time are not pooled
+        long inOneHour = System.currentTimeMillis() / 1000 + 3600;
+        String expiringToken = pool.take(session, new TokenOptions.Builder().expireTime(inOneHour).build());
+        assertEquals(Long.toString(inOneHour), Helpers.decodeToken(expiringToken).get("expire_time"));
+        assertEquals(2, pool.getMisses());
+        assertEquals(6, pool.getRefills());
+        try {
+            pool.fill(session, new TokenOptions.Builder().expireTime(inOneHour).build());
+            fail("Expected fill to reject an explicit expiration time");
+        } catch (InvalidArgumentException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testTokenPoolBounds() throws OpenTokException {
+        stubFor(post(urlEqualTo("/session/create"))
+                .willReturn(aResponse()
+                        .withStatus(200)
+                        .withHeader("Content-Type", "text/xml")
+                        .withBody("<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?><sessions><Session><" +
+                                "session_id>SESSIONID</session_id><partner_id>123456</partner_id><create_dt>" +
+                                "Mon Mar 17 00:41:31 PDT 2014</create_dt></Session></sessions>")));
+        Session session = sdk.createSession();
+        TokenOptions publisher = new TokenOptions.Builder().build();
+        TokenOptions subscriber = new TokenOptions.Builder().role(Role.SUBSCRIBER).build();
+        TokenOptions moderator = new TokenOptions.Builder().role(Role.MODERATOR).build();
+        final AtomicBoolean rejecting = new AtomicBoolean();
+        TokenPool pool = new TokenPool.Builder()
+                .size(2)
+                .maxSessions(2)
+                .executor(new Executor() {
+                    public void execute(Runnable command) {
+                        if (rejecting.get()) {
+                            throw new RejectedExecutionException();
+                        }
+                        command.run();
+                    }
+                })
+                .build();
+
+        pool.fill(session, publisher);
+        pool.fill(session, subscriber);
+        pool.fill(session, moderator);
+        assertEquals(0, pool.getAvailable(session, publisher));
+        assertEquals(2, pool.getAvailable(session, subscriber));
+        assertEquals(2, pool.getAvailable(session, moderator));
+
+        // a rejected refill does not keep the entry from refilling later
+        rejecting.set(true);
+        pool.take(session, subscriber);
+        assertEquals(1, pool.getAvailable(session, subscriber));
+        assertEquals(1, pool.getRefillFailures());
+        rejecting.set(false);
+        pool.take(session, subscriber);
+        assertEquals(2, pool.getAvailable(session, subscriber));
+        assertEquals(2, pool.getHits());
+    }
+
+    @Test
+    public void testSessionPool() throws Exception {
+        stubFor(post(urlEqualTo("/session/create"))
+                .willReturn(aResponse()
+                        .withStatus(200)
+                        .withHeader("Content-Type", "text/xml")
+                        .withFixedDelay(50)
+                        .withBody("<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?><sessions><Session><" +
+                                "session_id>SESSIONID</session_id><partner_id>123456</partner_id><create_dt>" +
+                                "Mon Mar 17 00:41:31 PDT 2014</create_dt></Session></sessions>")));
+        SessionPool pool = new SessionPool.Builder(sdk).size(3).maxRefills(2).build();
+        SessionProperties routed = new SessionProperties.Builder().mediaMode(MediaMode.ROUTED).build();
+
+        assertEquals(routed, new SessionProperties.Builder().mediaMode(MediaMode.ROUTED).build());
+        assertEquals(routed.hashCode(), new SessionProperties.Builder().mediaMode(MediaMode.ROUTED).build().hashCode());
+        assertFalse(routed.equals(new SessionProperties.Builder().build()));
+
+        pool.fill(routed);
+        long deadline = System.currentTimeMillis() + 5000;
+        while (pool.getAvailable(routed) < 3 && System.currentTimeMillis() < deadline) {
+            assertTrue(pool.getRefillsInFlight() <= 2);
+            Thread.sleep(10);
+        }
+        assertEquals(3, pool.getAvailable(routed));
+        assertEquals(0, pool.getAvailable(null));
+
+        Session session = pool.take(new SessionProperties.Builder().mediaMode(MediaMode.ROUTED).build());
+        assertEquals("SESSIONID", session.getSessionId());
+        assertEquals(MediaMode.ROUTED, session.getProperties().mediaMode());
+        assertEquals(1, pool.getHits());
+        assertEquals(0, pool.getMisses());
+        assertTrue(pool.getRefillsInFlight() <= 2);
+
+        Session relayed = pool.take();
+        assertEquals("SESSIONID", relayed.getSessionId());
+        assertEquals(1, pool.getHits());
+        assertEquals(1, pool.getMisses());
+        assertTrue(pool.getMaxWaitTime(TimeUnit.MILLISECONDS) >= 50);
+        assertTrue(pool.getAverageWaitTime(TimeUnit.NANOSECONDS) <= pool.getMaxWaitTime(TimeUnit.NANOSECONDS));
+
+        // the refills must not outlive the test: one routed session and three default ones replace those taken
+        deadline = System.currentTimeMillis() + 5000;
+        while ((pool.getRefills() < 7 || pool.getRefillsInFlight() > 0) && System.currentTimeMillis() < deadline) {
+            assertTrue(pool.getRefillsInFlight() <= 2);
+            Thread.sleep(10);
+        }
+        assertEquals(7, pool.getRefills());
+        assertEquals(0, pool.getRefillsInFlight());
+        assertEquals(3, pool.getAvailable(routed));
+        assertEquals(3, pool.getAvailable(null));
+        assertEquals(0, pool.getRefillFailures());
+    }
+
+    @Test
+    public void testSessionIdCache() throws OpenTokException {
+        String sessionId = "1_MX4xMjM0NTZ-flNhdCBNYXIgMTUgMTQ6NDI6MjMgUERUIDIwMTR-MC40OTAxMzAyNX4";
+        OpenTok opentok = new OpenTok.Builder(123456, "1234567890abcdef1234567890abcdef1234567890")
+                .sessionIdCacheSize(16)
+                .build();
+
+        opentok.generateToken(sessionId);
+        opentok.generateToken(sessionId);
+        try {
+            opentok.generateToken("NOT A VALID SESSION ID");
+        } catch (InvalidArgumentException e) {
+            // invalid session IDs are not cached
+        }
+
+        CacheStats stats = opentok.getSessionIdCacheStats();
+        assertEquals(1, stats.getHits());
+        assertEquals(2, stats.getMisses());
+        assertEquals(1, stats.getSize());
+        assertEquals(16, stats.getMaxSize());
+        assertNull(sdk.getSessionIdCacheStats());
+    }
+
+    @Test
+    public void testSessionRegistry() throws OpenTokException, UnsupportedEncodingException {
+        String sessionId = "1_MX4xMjM0NTZ-flNhdCBNYXIgMTUgMTQ6NDI6MjMgUERUIDIwMTR-MC40OTAxMzAyNX4";
+        String otherSessionId = "2_MX4xMjM0NTZ-flNhdCBNYXIgMTUgMTQ6NDI6MjMgUERUIDIwMTR-MC40OTAxMzAyNX4";
+        stubFor(post(urlEqualTo("/session/create"))
+                .willReturn(aResponse()
+                        .withStatus(200)
+                        .withHeader("Content-Type", "text/xml")
+                        .withBody("<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?><sessions><Session><" +
+                                "session_id>" + otherSessionId + "</session_id><partner_id>123456</partner_id>" +
+                                "<create_dt>Mon Mar 17 00:41:31 PDT 2014</create_dt></Session></sessions>")));
+
+        String token = sdk.generateToken(sessionId);
+        Session session = sdk.getSession(sessionId);
+        sdk.generateToken(sessionId);
+
+        assertSame(session, sdk.getSession(sessionId));
+        assertEquals(sessionId, session.getSessionId());
+        assertEquals(SessionProperties.DEFAULT, session.getProperties());
+        assertEquals(sessionId, Helpers.decodeToken(token).get("session_id"));
+        assertEquals(sessionId, Helpers.decodeToken(session.generateToken()).get("session_id"));
+        CacheStats stats = sdk.getRecentSessionStats();
+        assertEquals(3, stats.getHits());
+        assertEquals(1, stats.getMisses());
+        assertEquals(1, stats.getSize());
+
+        // a created session is registered with its properties
+        Session created = sdk.createSession(new SessionProperties.Builder().mediaMode(MediaMode.ROUTED).build());
+        assertSame(created, sdk.getSession(otherSessionId));
+        assertEquals(MediaMode.ROUTED, sdk.getSession(otherSessionId).getProperties().mediaMode());
+    }
+
+    @Test(expected = InvalidArgumentException.class)
+    public void testGetSessionBadSessionId() throws OpenTokException {
+        sdk.getSession("NOT A VALID SESSION ID");
+    }
+
+    @Test
+    public void testSessionId() throws OpenTokException, UnsupportedEncodingException {
+        String sessionIdString = "1_MX4xMjM0NTZ-flNhdCBNYXIgMTUgMTQ6NDI6MjMgUERUIDIwMTR-MC40OTAxMzAyNX4";
+        ArrayList<Exception> exceptions = new ArrayList<Exception>();
+
+        SessionId sessionId = SessionId.parse(sessionIdString);
+        for (String invalid : new String[] { "", "1_", "NOT A VALID SESSION ID", "1_MX4xMjM0NTZ", "1_MX4xMj!0NTZ-fg",
+                "3_MX4xMjM0NTZ-flNhdCBNYXIgMTUgMTQ6NDI6MjMgUERUIDIwMTR-MC40OTAxMzAyNX4" }) {
+            try {
+                SessionId.parse(invalid);
+            } catch (InvalidArgumentException e) {
+                exceptions.add(e);
+            }
+        }
+
+        assertEquals(123456, sessionId.getPartnerId());
+        assertEquals(Crypto.decodeSessionId(sessionIdString).get(1), Integer.toString(sessionId.getPartnerId()));
+        assertEquals(sessionIdString, sessionId.toString());
+        assertEquals(SessionId.parse(sessionIdString), sessionId);
+        assertEquals(sessionIdString.hashCode(), sessionId.hashCode());
+        assertEquals(6, exceptions.size());
+    }
+
+    @Test
+    public void testTokenWithParsedSessionId() throws
+            OpenTokException, SignatureException, NoSuchAlgorithmException, InvalidKeyException,
+            UnsupportedEncodingException {
+
+        int apiKey = 123456;
+        String apiSecret = "1234567890abcdef1234567890abcdef1234567890";
+        SessionId sessionId = SessionId.parse("1_MX4xMjM0NTZ-flNhdCBNYXIgMTUgMTQ6NDI6MjMgUERUIDIwMTR-MC40OTAxMzAyNX4");
+        Exception wrongApiKeyException = null;
+
+        String token = new OpenTok(apiKey, apiSecret).generateToken(sessionId, new TokenOptions.Builder().build());
+        try {
+            new OpenTok(654321, apiSecret).generateToken(sessionId, new TokenOptions.Builder().build());
+        } catch (InvalidArgumentException e) {
+            wrongApiKeyException = e;
+        }
+
+        assertTrue(Helpers.verifyTokenSignature(token, apiSecret));
+        assertEquals(sessionId.toString(), Helpers.decodeToken(token).get("session_id"));
+        assertNotNull(wrongApiKeyException);
+    }
+
+    @Test
+    public void testTokenVerifier() throws OpenTokException, NoSuchAlgorithmException, InvalidKeyException {
+        int apiKey = 123456;
+        String apiSecret = "1234567890abcdef1234567890abcdef1234567890";
+        String sessionId = "1_MX4xMjM0NTZ-flNhdCBNYXIgMTUgMTQ6NDI6MjMgUERUIDIwMTR-MC40OTAxMzAyNX4";
+        OpenTok opentok = new OpenTok(apiKey, apiSecret);
+        TokenVerifier verifier = new TokenVerifier(apiKey, apiSecret);
+        ArrayList<Exception> exceptions = new ArrayList<Exception>();
+
+        String token = opentok.generateToken(sessionId, new TokenOptions.Builder()
+                .role(Role.MODERATOR)
+                .data("name=Bob Smith&level=\u00e7")
+                .build());
+        TokenVerifier.Claims claims = verifier.verify(token);
+        String[] invalidTokens = {
+                null,
+                "T1==",
+                token.substring(0, 40) + (token.charAt(40) == 'A' ? 'B' : 'A') + token.substring(41),
+                new OpenTok(apiKey, "0000000000abcdef1234567890abcdef1234567890").generateToken(sessionId),
+                // far longer than any valid token
+                "T1==" + StringUtils.repeat("A", 1 << 20)
+        };
+        for (String invalidToken : invalidTokens) {
+            try {
+                verifier.verify(invalidToken);
+            } catch (InvalidArgumentException e) {
+                exceptions.add(e);
+            }
+        }
+        try {
+            new TokenVerifier(654321, apiSecret).verify(token);
+        } catch (InvalidArgumentException e) {
+            exceptions.add(e);
+        }
+        try {
+            verifier.verify(token, claims.getExpireTime() + 1);
+        } catch (InvalidArgumentException e) {
+            exceptions.add(e);
+        }
+
+        assertEquals(sessionId, claims.getSessionId());
+        assertEquals(Role.MODERATOR, claims.getRole());
+        assertEquals("name=Bob Smith&level=\u00e7", claims.getConnectionData());
+        assertTrue(claims.getExpireTime() > claims.getCreateTime());
+        assertEquals(7, exceptions.size());
+
+        // the longest connection data, in characters that take the most bytes once URL encoded
+        String longestData = StringUtils.repeat("\u20ac", 1000);
+        String longestToken = opentok.generateToken(sessionId, new TokenOptions.Builder().data(longestData).build());
+        assertEquals(longestData, verifier.verify(longestToken).getConnectionData());
+    }
+
+    @Test
+    public void testNodeSaltedNonces() throws
+            OpenTokException, InterruptedException, NoSuchAlgorithmException, InvalidKeyException {
+        int apiKey = 123456;
+        String apiSecret = "1234567890abcdef1234567890abcdef1234567890";
+        String sessionId = "1_MX4xMjM0NTZ-flNhdCBNYXIgMTUgMTQ6NDI6MjMgUERUIDIwMTR-MC40OTAxMzAyNX4";
+        final NodeSaltedNonceSource node = new NodeSaltedNonceSource(5);
+        final Set<Integer> nonces = Collections.synchronizedSet(new HashSet<Integer>());
+        Thread[] threads = new Thread[8];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread() {
+                public void run() {
+                    for (int j = 0; j < 10000; j++) {
+                        nonces.add(node.nextNonce());
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        int otherNodeNonce = new NodeSaltedNonceSource(6).nextNonce();
+        try {
+            new NodeSaltedNonceSource(1024);
+            fail("Expected a node ID that does not fit in 10 bits to be rejected");
+        } catch (InvalidArgumentException e) {
+            // expected
+        }
+
+        OpenTok opentok = new OpenTok.Builder(apiKey, apiSecret)
+                .nonceSource(new NonceSource() {
+                    public int nextNonce() {
+                        return 42;
+                    }
+                })
+                .build();
+        TokenVerifier.Claims claims = new TokenVerifier(apiKey, apiSecret).verify(opentok.generateToken(sessionId));
+
+        assertEquals(80000, nonces.size());
+        for (int nonce : nonces) {
+            assertEquals(5, nonce >>> 22);
+        }
+        assertEquals(6, otherNodeNonce >>> 22);
+        assertEquals(42, claims.getNonce());
+    }
+
+    @Test
+    public void testTokenIntoBuffers() throws OpenTokException, UnsupportedEncodingException,
+            NoSuchAlgorithmException, InvalidKeyException {
+        int apiKey = 123456;
+        String apiSecret = "1234567890abcdef1234567890abcdef1234567890";
+        String sessionId = "1_MX4xMjM0NTZ-flNhdCBNYXIgMTUgMTQ6NDI6MjMgUERUIDIwMTR-MC40OTAxMzAyNX4";
+        OpenTok opentok = new OpenTok(apiKey, apiSecret);
+        TokenVerifier verifier = new TokenVerifier(apiKey, apiSecret);
+        TokenOptions options = new TokenOptions.Builder().role(Role.MODERATOR).data("name=Johnny").build();
+
+        byte[] array = new byte[1024];
+        int arrayLength = opentok.generateToken(sessionId, options, array, 10);
+        ByteBuffer heap = ByteBuffer.allocate(1024);
+        heap.position(3);
+        int heapLength = opentok.generateToken(sessionId, options, heap);
+        ByteBuffer direct = ByteBuffer.allocateDirect(1024);
+        int directLength = opentok.generateToken(sessionId, options, direct);
+        byte[] directBytes = new byte[directLength];
+        direct.flip();
+        direct.get(directBytes);
+
+        TokenVerifier.Claims claims = verifier.verify(new String(array, 10, arrayLength, "US-ASCII"));
+        assertEquals(sessionId, claims.getSessionId());
+        assertEquals(Role.MODERATOR, claims.getRole());
+        assertEquals("name=Johnny", claims.getConnectionData());
+        assertEquals(3 + heapLength, heap.position());
+        assertEquals(sessionId, verifier.verify(new String(heap.array(), 3, heapLength, "US-ASCII")).getSessionId());
+        assertEquals(sessionId, verifier.verify(new String(directBytes, "US-ASCII")).getSessionId());
+
+        ByteBuffer tooSmall = ByteBuffer.allocate(16);
+        try {
+            opentok.generateToken(sessionId, options, tooSmall);
+            fail("Expected an InvalidArgumentException");
+        } catch (InvalidArgumentException e) {
+            assertEquals(0, tooSmall.position());
+        }
+    }
+
+    @Test
+    public void testTokenCache() throws OpenTokException {
+        int apiKey = 123456;
+        String apiSecret = "1234567890abcdef1234567890abcdef1234567890";
+        String sessionId = "1_MX4xMjM0NTZ-flNhdCBNYXIgMTUgMTQ6NDI6MjMgUERUIDIwMTR-MC40OTAxMzAyNX4";
+        OpenTok opentok = new OpenTok.Builder(apiKey, apiSecret).tokenCache(10, 0.5).build();
+        TokenOptions subscriber = new TokenOptions.Builder().role(Role.SUBSCRIBER).build();
+
+        String first = opentok.generateToken(sessionId, subscriber);
+        String second = opentok.generateToken(sessionId, new TokenOptions.Builder().role(Role.SUBSCRIBER).build());
+        String publisher = opentok.generateToken(sessionId, new TokenOptions.Builder().role(Role.PUBLISHER).build());
+        CacheStats stats = opentok.getTokenCacheStats();
+
+        assertEquals(subscriber, new TokenOptions.Builder().role(Role.SUBSCRIBER).build());
+        assertEquals(subscriber.hashCode(), new TokenOptions.Builder().role(Role.SUBSCRIBER).build().hashCode());
+        assertEquals(first, second);
+        assertNotEquals(first, publisher);
+        assertEquals(1, stats.getHits());
+        assertEquals(2, stats.getMisses());
+        assertEquals(2, stats.getSize());
+        assertNull(new OpenTok(apiKey, apiSecret).getTokenCacheStats());
+        try {
+            new OpenTok.Builder(apiKey, apiSecret).tokenCache(10, 1.5);
+            fail("Expected an InvalidArgumentException");
+        } catch (InvalidArgumentException e) {
+        }
+    }
+
+    @Test
+    public void testTokenExporter() throws OpenTokException, IOException, NoSuchAlgorithmException,
+            InvalidKeyException {
+        int apiKey = 123456;
+        String apiSecret = "1234567890abcdef1234567890abcdef1234567890";
+        String sessionId = "1_MX4xMjM0NTZ-flNhdCBNYXIgMTUgMTQ6NDI6MjMgUERUIDIwMTR-MC40OTAxMzAyNX4";
+        stubFor(post(urlEqualTo("/session/create"))
+                .willReturn(aResponse()
+                        .withStatus(200)
+                        .withHeader("Content-Type", "application/xml")
+                        .withBody("<sessions><Session><session_id>" + sessionId + "</session_id></Session></sessions>")));
+        Session session = new OpenTok(apiKey, apiSecret, apiUrl).createSession();
+        TokenVerifier verifier = new TokenVerifier(apiKey, apiSecret);
+        List<TokenOptions> options = Arrays.asList(
+                new TokenOptions.Builder().role(Role.SUBSCRIBER).build(),
+                new TokenOptions.Builder().role(Role.MODERATOR).build());
+        TokenExporter exporter = new TokenExporter.Builder().parallelism(3).chunkSize(7).bufferSize(16 * 1024)
+                .build();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        TokenExporter.Stats stats = exporter.export(session, options, 500, out);
+
+        String[] lines = new String(out.toByteArray(), "US-ASCII").split("\n");
+        Set<String> indexes = new HashSet<String>();
+        for (String line : lines) {
+            String[] fields = line.split("\"");
+            // {"index":N,"role":"R","token":"T"}
+            String index = fields[2].substring(1, fields[2].length() - 1);
+            indexes.add(index);
+            assertEquals(Integer.parseInt(index) < 500 ? "subscriber" : "moderator", fields[5]);
+            assertEquals(fields[5], verifier.verify(fields[9]).getRole().toString());
+        }
+        assertEquals(1000, lines.length);
+        assertEquals(1000, indexes.size());
+        assertEquals(1000, stats.getTokens());
+        assertEquals(out.size(), stats.getBytes());
+
+        ByteArrayOutputStream csv = new ByteArrayOutputStream();
+        new TokenExporter.Builder().format(TokenExporter.Format.CSV).build()
+                .export(session, options.subList(0, 1), 3, csv);
+        String[] csvLines = new String(csv.toByteArray(), "US-ASCII").split("\n");
+        assertEquals(4, csvLines.length);
+        assertEquals("index,role,token", csvLines[0]);
+        assertTrue(csvLines[1].matches("[0-2],subscriber,T1==.*"));
+    }
+
+    @Test
+    public void testTokenExporterWorkerFailure() throws OpenTokException, IOException {
+        final AtomicInteger tokens = new AtomicInteger();
+        Session session = new Session("1_MX4xMjM0NTZ-flNhdCBNYXIgMTUgMTQ6NDI6MjMgUERUIDIwMTR-MC40OTAxMzAyNX4",
+                123456, "1234567890abcdef1234567890abcdef1234567890") {
+            @Override
+            public int generateToken(TokenOptions tokenOptions, ByteBuffer dest) throws OpenTokException {
+                if (tokens.incrementAndGet() > 100) {
+                    throw new ArithmeticException("boom");
+                }
+                return super.generateToken(tokenOptions, dest);
+            }
+        };
+        TokenExporter exporter = new TokenExporter.Builder().parallelism(2).chunkSize(7).build();
+
+        try {
+            exporter.export(session, Collections.singletonList(new TokenOptions.Builder().build()), 1000,
+                    new ByteArrayOutputStream());
+            fail("Expected an OpenTokException");
+        } catch (OpenTokException e) {
+            assertTrue(e.getCause() instanceof ArithmeticException);
+        }
+    }
+
+    @Test
+    public void testTokenExporterInterrupted() throws Exception {
+        Session session = new Session("1_MX4xMjM0NTZ-flNhdCBNYXIgMTUgMTQ6NDI6MjMgUERUIDIwMTR-MC40OTAxMzAyNX4",
+                123456, "1234567890abcdef1234567890abcdef1234567890") { };
+        ExecutorService workers = Executors.newFixedThreadPool(2);
+        TokenExporter exporter = new TokenExporter.Builder().parallelism(2).bufferSize(16 * 1024).executor(workers)
+                .build();
+        // interrupts the exporting thread on the first write, once the workers have filled every buffer and are
+        // waiting for a free one
+        WritableByteChannel interrupting = new WritableByteChannel() {
+            public int write(ByteBuffer src) throws IOException {
+                try {
+                    Thread.sleep(200);
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+                int written = src.remaining();
+                src.position(src.limit());
+                Thread.currentThread().interrupt();
+                return written;
+            }
+
+            public boolean isOpen() {
+                return true;
+            }
+
+            public void close() {
+            }
+        };
+
+        try {
+            exporter.export(session, Collections.singletonList(new TokenOptions.Builder().build()), 1000000,
+                    interrupting);
+            fail("Expected an OpenTokException");
+        } catch (OpenTokException e) {
+            assertTrue(e.getCause() instanceof InterruptedException);
+        }
+        assertTrue(Thread.interrupted());
+
+        // the workers gave up instead of waiting for a free buffer, so the pool can finish
+        workers.shutdown();
+        assertTrue(workers.awaitTermination(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testTokenExporterRejectedWorker() throws Exception {
+        Session session = new Session("1_MX4xMjM0NTZ-flNhdCBNYXIgMTUgMTQ6NDI6MjMgUERUIDIwMTR-MC40OTAxMzAyNX4",
+                123456, "1234567890abcdef1234567890abcdef1234567890") { };
+        // runs one worker, and rejects the others
+        final ExecutorService pool = Executors.newSingleThreadExecutor();
+        final AtomicInteger accepted = new AtomicInteger();
+        TokenExporter exporter = new TokenExporter.Builder().parallelism(3).bufferSize(16 * 1024)
+                .executor(new Executor() {
+                    public void execute(Runnable command) {
+                        if (accepted.incrementAndGet() > 1) {
+                            throw new RejectedExecutionException();
+                        }
+                        pool.execute(command);
+                    }
+                })
+                .build();
+
+        try {
+            exporter.export(session, Collections.singletonList(new TokenOptions.Builder().build()), 1000000,
+                    new ByteArrayOutputStream());
+            fail("Expected an OpenTokException");
+        } catch (OpenTokException e) {
+            assertTrue(e.getCause() instanceof RejectedExecutionException);
+        }
+        pool.shutdown();
+        assertTrue(pool.awaitTermination(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testSigningProvider() throws OpenTokException, SignatureException, NoSuchAlgorithmException,
+            InvalidKeyException {
+        int apiKey = 123456;
+        String apiSecret = "1234567890abcdef1234567890abcdef1234567890";
+        String data = "session_id=1_MX4xMjM0NTZ-flNhdCBNYXIgMTUgMTQ6NDI6MjMgUERUIDIwMTR-MC40OTAxMzAyNX4";
+        Provider defaultProvider = Mac.getInstance("HmacSHA1").getProvider();
+
+        OpenTok named = new OpenTok.Builder(apiKey, apiSecret).signingProvider(defaultProvider.getName()).build();
+        OpenTok fastest = new OpenTok.Builder(apiKey, apiSecret).selectFastestSigningProvider().build();
+        TokenSigner signer = new TokenSigner(apiSecret, defaultProvider);
+
+        assertEquals(defaultProvider, new OpenTok(apiKey, apiSecret).getSigningProvider());
+        assertEquals(defaultProvider, named.getSigningProvider());
+        assertNotNull(fastest.getSigningProvider());
+        assertEquals(defaultProvider, signer.getProvider());
+        assertEquals(Crypto.signData(data, apiSecret), signer.sign(data));
+        assertEquals(Crypto.signData(data, apiSecret), Crypto.signData(data, apiSecret, defaultProvider));
+        try {
+            new OpenTok.Builder(apiKey, apiSecret).signingProvider("NoSuchProvider");
+            fail("Expected an InvalidArgumentException");
+        } catch (InvalidArgumentException e) {
+        }
+    }
+
+    @Test
+    public void testTokenSignerMatchesSignData() throws
+            SignatureException, NoSuchAlgorithmException, InvalidKeyException, UnsupportedEncodingException {
+
+        String apiSecret = "1234567890abcdef1234567890abcdef1234567890";
+        String data = "session_id=1_MX4xMjM0NTZ-flNhdCBNYXIgMTUgMTQ6NDI6MjMgUERUIDIwMTR-MC40OTAxMzAyNX4" +
+                "&create_time=1426434143&nonce=-1264725424&role=publisher&expire_time=1426520543";
+        TokenSigner signer = new TokenSigner(apiSecret);
+        byte[] dataBytes = data.getBytes("UTF-8");
+        byte[] signature = new byte[signer.getSignatureLength()];
+
+        int length = signer.sign(dataBytes, 0, dataBytes.length, signature, 0);
+
+        assertEquals(Crypto.signData(data, apiSecret), signer.sign(data));
+        assertEquals(40, length);
+        assertEquals(Crypto.signData(data, apiSecret), new String(signature, "UTF-8"));
+    }
+
     @Test
     public void testTokenBadSessionId() throws OpenTokException {
         int apiKey = 123456;
@@ -364,6 +1185,473 @@ public class OpenTokTest {
 
     // TODO: test get archive failure scenarios
 
+    @Test
+    public void testConnectionPoolOptions() throws OpenTokException {
+        String archiveId = "ARCHIVEID";
+        stubFor(get(urlEqualTo("/v2/partner/"+this.apiKey+"/archive/"+archiveId))
+                .willReturn(aResponse()
+                        .withStatus(200)
+                        .withHeader("Content-Type", "application/json")
+                        .withBody("{\"id\" : \"" + archiveId + "\", \"partnerId\" : 123456, " +
+                                "\"status\" : \"available\"}")));
+        OpenTok opentok = new OpenTok.Builder(apiKey, apiSecret)
+                .apiUrl(apiUrl)
+                .maxConnections(4, 2)
+                .keepAliveTimeout(30, TimeUnit.SECONDS)
+                .connectionTtl(5, TimeUnit.MINUTES)
+                .ioThreadMultiplier(1)
+                .build();
+
+        for (int i = 0; i < 3; i++) {
+            assertEquals(archiveId, opentok.getArchive(archiveId).getId());
+        }
+        try {
+            new OpenTok.Builder(apiKey, apiSecret).maxConnections(0, 1);
+            fail("Expected an InvalidArgumentException");
+        } catch (InvalidArgumentException e) {
+        }
+        try {
+            new OpenTok.Builder(apiKey, apiSecret).keepAliveTimeout(0, TimeUnit.SECONDS);
+            fail("Expected an InvalidArgumentException");
+        } catch (InvalidArgumentException e) {
+        }
+    }
+
+    @Test
+    public void testRequestTimeouts() throws OpenTokException {
+        String archiveId = "ARCHIVEID";
+        stubFor(get(urlEqualTo("/v2/partner/"+this.apiKey+"/archive/"+archiveId))
+                .willReturn(aResponse()
+                        .withStatus(200)
+                        .withFixedDelay(1000)
+                        .withHeader("Content-Type", "application/json")
+                        .withBody("{\"id\" : \"" + archiveId + "\", \"partnerId\" : 123456, " +
+                                "\"status\" : \"available\"}")));
+        OpenTok opentok = new OpenTok.Builder(apiKey, apiSecret)
+                .apiUrl(apiUrl)
+                .requestTimeout(Operation.GET_ARCHIVE, 200, TimeUnit.MILLISECONDS)
+                .build();
+
+        try {
+            sdk.getArchive(archiveId, 200, TimeUnit.MILLISECONDS);
+            fail("Expected a RequestTimeoutException");
+        } catch (RequestTimeoutException e) {
+        }
+        try {
+            opentok.getArchive(archiveId);
+            fail("Expected a RequestTimeoutException");
+        } catch (RequestTimeoutException e) {
+        }
+        assertEquals(archiveId, sdk.getArchive(archiveId, 5, TimeUnit.SECONDS).getId());
+    }
+
+    @Test
+    public void testRetries() throws OpenTokException {
+        String archiveId = "ARCHIVEID";
+        String sessionId = "SESSIONID";
+        stubFor(get(urlEqualTo("/v2/partner/"+this.apiKey+"/archive/"+archiveId))
+                .inScenario("retry").whenScenarioStateIs(Scenario.STARTED)
+                .willReturn(aResponse().withStatus(503))
+                .willSetStateTo("recovered"));
+        stubFor(get(urlEqualTo("/v2/partner/"+this.apiKey+"/archive/"+archiveId))
+                .inScenario("retry").whenScenarioStateIs("recovered")
+                .willReturn(aResponse()
+                        .withStatus(200)
+                        .withHeader("Content-Type", "application/json")
+                        .withBody("{\"id\" : \"" + archiveId + "\", \"partnerId\" : 123456, " +
+                                "\"status\" : \"available\"}")));
+        stubFor(post(urlEqualTo("/v2/partner/"+this.apiKey+"/archive"))
+                .willReturn(aResponse().withStatus(500)));
+        OpenTok opentok = new OpenTok.Builder(apiKey, apiSecret)
+                .apiUrl(apiUrl)
+                .retryPolicy(new RetryPolicy.Builder()
+                        .maxAttempts(3)
+                        .backoff(1, 10, TimeUnit.MILLISECONDS)
+                        .build())
+                .build();
+
+        // reads are retried after a server error
+        assertEquals(archiveId, opentok.getArchive(archiveId).getId());
+        assertEquals(2, opentok.getRetryPolicy().getAttempts());
+        assertEquals(1, opentok.getRetryPolicy().getRetries());
+
+        // starting an archive is not, since the server may have started it
+        try {
+            opentok.startArchive(sessionId, null);
+            fail("Expected a RequestException");
+        } catch (RequestException e) {
+        }
+        assertEquals(3, opentok.getRetryPolicy().getAttempts());
+        assertEquals(0, opentok.getRetryPolicy().getGiveUps());
+        verify(1, postRequestedFor(urlEqualTo("/v2/partner/"+this.apiKey+"/archive")));
+
+        // nothing listens on this port, so every attempt fails to connect
+        OpenTok unreachable = new OpenTok.Builder(apiKey, apiSecret)
+                .apiUrl("http://localhost:1")
+                .retryPolicy(new RetryPolicy.Builder()
+                        .maxAttempts(2)
+                        .backoff(1, 10, TimeUnit.MILLISECONDS)
+                        .build())
+                .build();
+        try {
+            unreachable.startArchive(sessionId, null);
+            fail("Expected a RequestException");
+        } catch (RequestException e) {
+        }
+        assertEquals(2, unreachable.getRetryPolicy().getAttempts());
+        assertEquals(1, unreachable.getRetryPolicy().getGiveUps());
+    }
+
+    @Test
+    public void testNoRetriesByDefault() throws OpenTokException {
+        String archiveId = "ARCHIVEID";
+        stubFor(get(urlEqualTo("/v2/partner/"+this.apiKey+"/archive/"+archiveId))
+                .willReturn(aResponse()
+                        .withStatus(503)));
+        try {
+            sdk.getArchive(archiveId);
+            fail("Expected a RequestException");
+        } catch (RequestException e) {
+        }
+        verify(1, getRequestedFor(urlEqualTo("/v2/partner/"+this.apiKey+"/archive/"+archiveId)));
+        assertEquals(1, sdk.getRetryPolicy().getMaxAttempts());
+        assertEquals(0, sdk.getRetryPolicy().getRetries());
+
+        // a request that cannot even be built fails the call instead of escaping it
+        try {
+            sdk.getArchive("bad id%", 2, TimeUnit.SECONDS);
+            fail("Expected an OpenTokException");
+        } catch (RequestTimeoutException e) {
+            fail("The call must fail as soon as its request cannot be sent");
+        } catch (OpenTokException e) {
+            assertTrue(e.getCause() instanceof RuntimeException);
+        }
+    }
+
+    @Test
+    public void testCircuitBreaker() throws Exception {
+        String archiveId = "ARCHIVEID";
+        String url = "/v2/partner/"+this.apiKey+"/archive/"+archiveId;
+        stubFor(get(urlEqualTo(url))
+                .willReturn(aResponse().withStatus(500)));
+        final List<String> changes = Collections.synchronizedList(new ArrayList<String>());
+        OpenTok opentok = new OpenTok.Builder(apiKey, apiSecret)
+                .apiUrl(apiUrl)
+                .retryPolicy(new RetryPolicy.Builder().maxAttempts(1).build())
+                .circuitBreaker(new CircuitBreaker.Builder()
+                        .window(4, 4)
+                        .failureRateThreshold(0.5)
+                        .openDuration(200, TimeUnit.MILLISECONDS, 1)
+                        .listener(new CircuitBreaker.Listener() {
+                            public void onStateChange(EndpointFamily family, CircuitBreaker.State from,
+                                                      CircuitBreaker.State to) {
+                                changes.add(family + ":" + from + "->" + to);
+                            }
+                        }))
+                .build();
+
+        for (int i = 0; i < 4; i++) {
+            try {
+                opentok.getArchive(archiveId);
+                fail("Expected a RequestException");
+            } catch (RequestException e) {
+                assertFalse(e instanceof CircuitOpenException);
+            }
+        }
+        CircuitBreaker breaker = opentok.getCircuitBreaker(EndpointFamily.ARCHIVE_READ);
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertEquals(CircuitBreaker.State.CLOSED,
+                opentok.getCircuitBreaker(EndpointFamily.ARCHIVE_WRITE).getState());
+
+        // while the breaker is open, calls fail without reaching the server
+        try {
+            opentok.getArchive(archiveId);
+            fail("Expected a CircuitOpenException");
+        } catch (CircuitOpenException e) {
+        }
+        verify(4, getRequestedFor(urlEqualTo(url)));
+        assertEquals(1, breaker.getRejectedCalls());
+
+        // once the open duration has passed, a successful probe closes it
+        stubFor(get(urlEqualTo(url))
+                .willReturn(aResponse()
+                        .withStatus(200)
+                        .withHeader("Content-Type", "application/json")
+                        .withBody("{\"id\" : \"" + archiveId + "\", \"partnerId\" : 123456, " +
+                                "\"status\" : \"available\"}")));
+        Thread.sleep(250);
+        assertEquals(archiveId, opentok.getArchive(archiveId).getId());
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        assertEquals(Arrays.asList("ARCHIVE_READ:CLOSED->OPEN", "ARCHIVE_READ:OPEN->HALF_OPEN",
+                "ARCHIVE_READ:HALF_OPEN->CLOSED"), changes);
+
+        // a call admitted before the breaker opened is not counted as a probe of the half-open breaker
+        CircuitBreaker sessions = new CircuitBreaker.Builder()
+                .window(2, 2)
+                .openDuration(50, TimeUnit.MILLISECONDS, 1)
+                .build(EndpointFamily.SESSION_CREATE);
+        long early = sessions.tryAcquire();
+        sessions.onComplete(sessions.tryAcquire(), true, 0);
+        sessions.onComplete(sessions.tryAcquire(), true, 0);
+        assertEquals(CircuitBreaker.State.OPEN, sessions.getState());
+        Thread.sleep(100);
+        long probe = sessions.tryAcquire();
+        assertEquals(CircuitBreaker.State.HALF_OPEN, sessions.getState());
+        sessions.onComplete(early, false, 0);
+        assertEquals(CircuitBreaker.State.HALF_OPEN, sessions.getState());
+        assertEquals(CircuitBreaker.REJECTED, sessions.tryAcquire());
+        sessions.onComplete(probe, false, 0);
+        assertEquals(CircuitBreaker.State.CLOSED, sessions.getState());
+    }
+
+    @Test
+    public void testCircuitBreakerIgnoresConnectionLimit() throws Exception {
+        stubFor(post(urlEqualTo("/session/create"))
+                .willReturn(aResponse()
+                        .withStatus(200)
+                        .withHeader("Content-Type", "text/xml")
+                        .withFixedDelay(200)
+                        .withBody("<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?><sessions><Session><" +
+                                "session_id>SESSIONID</session_id><partner_id>123456</partner_id><create_dt>" +
+                                "Mon Mar 17 00:41:31 PDT 2014</create_dt></Session></sessions>")));
+        OpenTok opentok = new OpenTok.Builder(apiKey, apiSecret)
+                .apiUrl(apiUrl)
+                .maxConnections(1, 1)
+                .circuitBreaker(new CircuitBreaker.Builder().window(2, 2))
+                .build();
+
+        // the requests over the connection limit fail without reaching the API, which says nothing about it
+        BatchResult<Session> result = opentok.createSessions(4, new SessionProperties.Builder().build(), 4);
+        assertTrue(result.hasErrors());
+        CircuitBreaker breaker = opentok.getCircuitBreaker(EndpointFamily.SESSION_CREATE);
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        assertEquals(0, breaker.getFailureRate(), 0);
+    }
+
+    @Test
+    public void testRateLimit() throws Exception {
+        String archiveId = "ARCHIVEID";
+        stubFor(get(urlEqualTo("/v2/partner/"+this.apiKey+"/archive/"+archiveId))
+                .willReturn(aResponse()
+                        .withStatus(200)
+                        .withHeader("Content-Type", "application/json")
+                        .withBody("{\"id\" : \"" + archiveId + "\", \"partnerId\" : 123456, " +
+                                "\"status\" : \"available\"}")));
+        OpenTok opentok = new OpenTok.Builder(apiKey, apiSecret)
+                .apiUrl(apiUrl)
+                .rateLimit(Operation.GET_ARCHIVE, new RateLimiter.Builder(1, 1, TimeUnit.HOURS).build(),
+                        RateLimiter.Priority.INTERACTIVE, 0, TimeUnit.SECONDS)
+                .build();
+        assertEquals(archiveId, opentok.getArchive(archiveId).getId());
+        try {
+            opentok.getArchive(archiveId);
+            fail("Expected a RateLimitException");
+        } catch (RateLimitException e) {
+        }
+        verify(1, getRequestedFor(urlEqualTo("/v2/partner/"+this.apiKey+"/archive/"+archiveId)));
+
+        // a waiting interactive caller gets the next permit before a batch caller that waited longer
+        final RateLimiter limiter = new RateLimiter.Builder(1, 300, TimeUnit.MILLISECONDS).maxQueued(2).build();
+        assertTrue(limiter.tryAcquire(RateLimiter.Priority.BATCH));
+        final List<RateLimiter.Priority> order =
+                Collections.synchronizedList(new ArrayList<RateLimiter.Priority>());
+        List<Thread> waiters = new ArrayList<Thread>();
+        for (final RateLimiter.Priority priority : Arrays.asList(RateLimiter.Priority.BATCH,
+                RateLimiter.Priority.INTERACTIVE)) {
+            Thread waiter = new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        if (limiter.acquire(priority, 5, TimeUnit.SECONDS)) {
+                            order.add(priority);
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            });
+            int queued = limiter.getQueueLength();
+            waiter.start();
+            waiters.add(waiter);
+            while (limiter.getQueueLength() == queued) {
+                Thread.sleep(1);
+            }
+        }
+        // the queue is full
+        assertFalse(limiter.acquire(RateLimiter.Priority.INTERACTIVE, 5, TimeUnit.SECONDS));
+        for (Thread waiter : waiters) {
+            waiter.join();
+        }
+        assertEquals(Arrays.asList(RateLimiter.Priority.INTERACTIVE, RateLimiter.Priority.BATCH), order);
+
+        // an asynchronous call waits for its permit without blocking the calling thread
+        OpenTok throttled = new OpenTok.Builder(apiKey, apiSecret)
+                .apiUrl(apiUrl)
+                .rateLimit(Operation.GET_ARCHIVE, new RateLimiter.Builder(1, 500, TimeUnit.MILLISECONDS).build(),
+                        RateLimiter.Priority.BATCH, 5, TimeUnit.SECONDS)
+                .build();
+        throttled.getArchive(archiveId);
+        long start = System.nanoTime();
+        OpenTokFuture<Archive> archive = throttled.getArchiveAsync(archiveId);
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 250);
+        assertFalse(archive.isDone());
+        assertEquals(archiveId, archive.getResult(5, TimeUnit.SECONDS).getId());
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 250);
+
+        // a callback waiting in the queue is rejected when its wait times out
+        final CountDownLatch rejected = new CountDownLatch(1);
+        RateLimiter empty = new RateLimiter.Builder(1, 1, TimeUnit.HOURS).build();
+        assertTrue(empty.tryAcquire(RateLimiter.Priority.INTERACTIVE));
+        empty.acquire(RateLimiter.Priority.INTERACTIVE, 50, TimeUnit.MILLISECONDS, new RateLimiter.Callback() {
+            public void onAcquired() {
+            }
+
+            public void onRejected() {
+                rejected.countDown();
+            }
+        });
+        assertEquals(1, empty.getQueueLength());
+        assertTrue(rejected.await(5, TimeUnit.SECONDS));
+        assertEquals(0, empty.getQueueLength());
+
+        // a call that times out or is cancelled while it waits leaves the queue and takes no permit
+        RateLimiter quota = new RateLimiter.Builder(1, 300, TimeUnit.MILLISECONDS).maxQueued(1).build();
+        OpenTok limited = new OpenTok.Builder(apiKey, apiSecret)
+                .apiUrl(apiUrl)
+                .rateLimit(Operation.GET_ARCHIVE, quota, RateLimiter.Priority.INTERACTIVE, 5, TimeUnit.SECONDS)
+                .build();
+        assertTrue(quota.tryAcquire(RateLimiter.Priority.INTERACTIVE));
+        try {
+            limited.getArchiveAsync(archiveId).getResult(50, TimeUnit.MILLISECONDS);
+            fail("Expected a RequestTimeoutException");
+        } catch (RequestTimeoutException e) {
+        }
+        assertEquals(0, quota.getQueueLength());
+        OpenTokFuture<Archive> cancelled = limited.getArchiveAsync(archiveId);
+        assertEquals(1, quota.getQueueLength());
+        assertTrue(cancelled.cancel(true));
+        assertEquals(0, quota.getQueueLength());
+        Thread.sleep(400);
+        assertEquals(1, quota.getAcquired());
+        assertEquals(archiveId, limited.getArchive(archiveId).getId());
+    }
+
+    @Test
+    public void testCoalescedArchiveReads() throws Exception {
+        String archiveId = "ARCHIVEID";
+        stubFor(get(urlEqualTo("/v2/partner/"+this.apiKey+"/archive/"+archiveId))
+                .willReturn(aResponse()
+                        .withStatus(200)
+                        .withFixedDelay(300)
+                        .withHeader("Content-Type", "application/json")
+                        .withBody("{\"id\" : \"" + archiveId + "\", \"partnerId\" : 123456, " +
+                                "\"status\" : \"available\"}")));
+        stubFor(get(urlEqualTo("/v2/partner/"+this.apiKey+"/archive?count=2"))
+                .willReturn(aResponse()
+                        .withStatus(200)
+                        .withFixedDelay(300)
+                        .withHeader("Content-Type", "application/json")
+                        .withBody("{\"count\" : 60, \"items\" : [ {\"id\" : \"" + archiveId + "\"}, " +
+                                "{\"id\" : \"OTHERID\"} ]}")));
+
+        OpenTok coalesced = new OpenTok.Builder(apiKey, apiSecret).apiUrl(apiUrl).coalesceArchiveReads(true).build();
+        List<OpenTokFuture<Archive>> archives = new ArrayList<OpenTokFuture<Archive>>();
+        for (int i = 0; i < 10; i++) {
+            archives.add(coalesced.getArchiveAsync(archiveId));
+        }
+        // giving up on one call does not affect the others
+        archives.get(0).cancel(true);
+        for (OpenTokFuture<Archive> archive : archives.subList(1, archives.size())) {
+            assertSame(archives.get(1).get(), archive.get());
+        }
+        verify(1, getRequestedFor(urlEqualTo("/v2/partner/"+this.apiKey+"/archive/"+archiveId)));
+
+        OpenTokFuture<ArchiveList> first = coalesced.listArchivesAsync(0, 2);
+        OpenTokFuture<ArchiveList> second = coalesced.listArchivesAsync(0, 2);
+        ArchiveList firstList = first.get();
+        ArchiveList secondList = second.get();
+        assertNotSame(firstList, secondList);
+        firstList.clear();
+        assertEquals(2, secondList.size());
+        assertEquals(60, secondList.getTotalCount());
+        verify(1, getRequestedFor(urlEqualTo("/v2/partner/"+this.apiKey+"/archive?count=2")));
+
+        // calls made after the shared request has completed send a new one
+        assertEquals(archiveId, coalesced.getArchive(archiveId).getId());
+        verify(2, getRequestedFor(urlEqualTo("/v2/partner/"+this.apiKey+"/archive/"+archiveId)));
+
+        // once every caller has given up, the shared request is cancelled and the next call sends a new one
+        try {
+            coalesced.getArchive(archiveId, 50, TimeUnit.MILLISECONDS);
+            fail("Expected a RequestTimeoutException");
+        } catch (RequestTimeoutException e) {
+            // expected
+        }
+        assertEquals(archiveId, coalesced.getArchive(archiveId).getId());
+        verify(4, getRequestedFor(urlEqualTo("/v2/partner/"+this.apiKey+"/archive/"+archiveId)));
+    }
+
+    @Test
+    public void testCoalescedArchiveReadThatCannotStart() throws OpenTokException {
+        String archiveId = "bad id%";
+        OpenTok coalesced = new OpenTok.Builder(apiKey, apiSecret).apiUrl(apiUrl).coalesceArchiveReads(true).build();
+        for (int i = 0; i < 2; i++) {
+            try {
+                coalesced.getArchive(archiveId, 2, TimeUnit.SECONDS);
+                fail("Expected an OpenTokException");
+            } catch (RequestTimeoutException e) {
+                fail("A call that could not start must not leave later calls waiting for it");
+            } catch (OpenTokException e) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void testGetArchiveAsync() throws Exception {
+        String archiveId = "ARCHIVEID";
+        stubFor(get(urlEqualTo("/v2/partner/"+this.apiKey+"/archive/"+archiveId))
+                .willReturn(aResponse()
+                        .withStatus(200)
+                        .withHeader("Content-Type", "application/json")
+                        .withBody("{\"createdAt\" : 1395187836000, \"duration\" : 62, \"id\" : \"" + archiveId +
+                                "\", \"partnerId\" : 123456, \"sessionId\" : \"SESSIONID\", " +
+                                "\"status\" : \"available\"}")));
+        stubFor(get(urlEqualTo("/v2/partner/"+this.apiKey+"/archive/FORBIDDEN"))
+                .willReturn(aResponse().withStatus(403)));
+        final CountDownLatch callbacks = new CountDownLatch(1);
+        final List<Object> outcomes = Collections.synchronizedList(new ArrayList<Object>());
+
+        OpenTokFuture<Archive> future = sdk.getArchiveAsync(archiveId);
+        OpenTokFuture<String> sessionId = future.transform(new OpenTokFuture.Transformer<Archive, String>() {
+            public String apply(Archive archive) {
+                return archive.getSessionId();
+            }
+        });
+        sdk.getArchiveAsync("FORBIDDEN").addCallback(new OpenTokFuture.Callback<Archive>() {
+            public void onSuccess(Archive result) {
+                outcomes.add(result);
+                callbacks.countDown();
+            }
+
+            public void onFailure(OpenTokException e) {
+                outcomes.add(e);
+                callbacks.countDown();
+            }
+        });
+
+        assertEquals(archiveId, future.get().getId());
+        assertEquals("SESSIONID", sessionId.get());
+        assertTrue(callbacks.await(5, TimeUnit.SECONDS));
+        assertEquals(1, outcomes.size());
+        assertTrue(outcomes.get(0) instanceof RequestException);
+        try {
+            sdk.getArchiveAsync("FORBIDDEN").get();
+            fail("Expected an ExecutionException");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof RequestException);
+        }
+    }
+
     @Test
     public void testListArchives() throws OpenTokException {
 
@@ -607,4 +1895,57 @@ public class OpenTokTest {
 
         assertNotNull(archive);
     }
+
+    @Test
+    public void testArchiveStreamParsingMatchesStringParsing() throws Exception {
+        String archiveId = "ARCHIVEID";
+        // a name with multi-byte characters and a property the Archive class does not know
+        String archiveBody = "{\n" +
+                "          \"createdAt\" : 1395187836000,\n" +
+                "          \"duration\" : 62,\n" +
+                "          \"id\" : \"" + archiveId + "\",\n" +
+                "          \"name\" : \"Cours de fran\u00e7ais \u2013 \u00e9t\u00e9\",\n" +
+                "          \"partnerId\" : 123456,\n" +
+                "          \"reason\" : \"\",\n" +
+                "          \"sessionId\" : \"SESSIONID\",\n" +
+                "          \"size\" : 8347554,\n" +
+                "          \"status\" : \"available\",\n" +
+                "          \"url\" : \"http://tokbox.com.archive2.s3.amazonaws.com/123456%2F" + archiveId +
+                "%2Farchive.mp4?Expires=1395188695\",\n" +
+                "          \"thisisnotaproperty\" : null\n" +
+                "        }";
+        String listBody = "{\n \"count\" : 2,\n \"items\" : [ " + archiveBody + ", " + archiveBody + " ]\n}";
+        stubFor(get(urlEqualTo("/v2/partner/" + this.apiKey + "/archive/" + archiveId))
+                .willReturn(aResponse()
+                        .withStatus(200)
+                        .withHeader("Content-Type", "application/json; charset=utf-8")
+                        .withBody(archiveBody)));
+        stubFor(get(urlEqualTo("/v2/partner/" + this.apiKey + "/archive"))
+                .willReturn(aResponse()
+                        .withStatus(200)
+                        .withHeader("Content-Type", "application/json; charset=utf-8")
+                        .withBody(listBody)));
+        stubFor(post(urlEqualTo("/v2/partner/" + this.apiKey + "/archive"))
+                .willReturn(aResponse()
+                        .withStatus(200)
+                        .withHeader("Content-Type", "application/json; charset=utf-8")
+                        .withBody(archiveBody)));
+        stubFor(post(urlEqualTo("/v2/partner/" + this.apiKey + "/archive/" + archiveId + "/stop"))
+                .willReturn(aResponse()
+                        .withStatus(200)
+                        .withHeader("Content-Type", "application/json; charset=utf-8")
+                        .withBody(archiveBody)));
+
+        // the archives used to be parsed from the response body decoded into a String
+        String expected = new ObjectMapper().reader(Archive.class).readValue(archiveBody).toString();
+        String expectedList = new ObjectMapper().reader(ArchiveList.class).readValue(listBody).toString();
+
+        assertEquals(expected, sdk.getArchive(archiveId).toString());
+        assertEquals(expected, sdk.startArchive("SESSIONID", null).toString());
+        assertEquals(expected, sdk.stopArchive(archiveId).toString());
+        ArchiveList archives = sdk.listArchives();
+        assertEquals(2, archives.getTotalCount());
+        assertEquals(expectedList, archives.toString());
+        assertEquals("Cours de fran\u00e7ais \u2013 \u00e9t\u00e9", archives.get(0).getName());
+    }
 }
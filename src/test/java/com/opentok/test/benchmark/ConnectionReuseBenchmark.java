@@ -0,0 +1,135 @@
+/**
+ * OpenTok Java SDK
+ * Copyright (C) 2015 TokBox, Inc.
+ * http://www.tokbox.com
+ *
+ * Licensed under The MIT License (MIT). See LICENSE file for more information.
+ */
+package com.opentok.test.benchmark;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.opentok.Archive;
+import com.opentok.OpenTok;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures how often connections to the OpenTok API are reused when many threads get archives at once, with and
+ * without connection pooling, against a minimal local HTTP server that counts the connections it accepts.
+ *
+ * At the end of each trial, the number of requests per connection is printed. With pooling, it should be close to
+ * the number of requests divided by the number of threads.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(16)
+@Fork(1)
+public class ConnectionReuseBenchmark {
+
+    private static final byte[] RESPONSE;
+    static {
+        String body = "{\"createdAt\" : 1395187836000, \"duration\" : 62, \"id\" : \"ARCHIVEID\", " +
+                "\"partnerId\" : 123456, \"sessionId\" : \"SESSIONID\", \"status\" : \"available\"}";
+        RESPONSE = ("HTTP/1.1 200 OK\r\nContent-Type: application/json\r\nContent-Length: " + body.length() +
+                "\r\n\r\n" + body).getBytes();
+    }
+
+    @Param({"true", "false"})
+    public boolean pooling;
+
+    private ServerSocket server;
+    private final AtomicLong connections = new AtomicLong();
+    private final AtomicLong requests = new AtomicLong();
+    private OpenTok opentok;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        server = new ServerSocket(0, 128, InetAddress.getByName("127.0.0.1"));
+        Thread acceptor = new Thread(new Runnable() {
+            public void run() {
+                while (!server.isClosed()) {
+                    try {
+                        serve(server.accept());
+                    } catch (IOException e) {
+                        // the server was closed
+                    }
+                }
+            }
+        }, "benchmark-server");
+        acceptor.setDaemon(true);
+        acceptor.start();
+
+        opentok = new OpenTok.Builder(123456, "1234567890abcdef1234567890abcdef1234567890")
+                .apiUrl("http://127.0.0.1:" + server.getLocalPort())
+                .connectionPooling(pooling)
+                .build();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        server.close();
+        System.out.printf("%n%d requests over %d connections, %.1f requests per connection%n",
+                requests.get(), connections.get(), requests.get() / (double) Math.max(1, connections.get()));
+    }
+
+    @Benchmark
+    public Archive getArchive() throws Exception {
+        return opentok.getArchive("ARCHIVEID");
+    }
+
+    // answers every request of the connection with the same archive, until the client closes it
+    private void serve(final Socket socket) {
+        connections.incrementAndGet();
+        Thread thread = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), "US-ASCII"));
+                    OutputStream out = socket.getOutputStream();
+                    String line;
+                    while ((line = in.readLine()) != null) {
+                        if (line.isEmpty()) {
+                            requests.incrementAndGet();
+                            out.write(RESPONSE);
+                            out.flush();
+                        }
+                    }
+                } catch (IOException e) {
+                    // the client closed the connection
+                } finally {
+                    try {
+                        socket.close();
+                    } catch (IOException e) {
+                        // already closed
+                    }
+                }
+            }
+        }, "benchmark-connection");
+        thread.setDaemon(true);
+        thread.start();
+    }
+}
@@ -0,0 +1,80 @@
+/**
+ * OpenTok Java SDK
+ * Copyright (C) 2015 TokBox, Inc.
+ * http://www.tokbox.com
+ *
+ * Licensed under The MIT License (MIT). See LICENSE file for more information.
+ */
+package com.opentok.test.benchmark;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import com.opentok.util.NodeSaltedNonceSource;
+import com.opentok.util.ThreadLocalNonceSource;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compares the throughput of the nonce sources against creating a new Random for each token, as token generation
+ * used to do. New Randoms all update one global seed uniquifier, so they stop scaling as threads are added.
+ *
+ * Run the {@link #main(String[])} method to measure each of them with 1, 2, 4, ... threads, up to the number of
+ * processors. Scaling is linear when the throughput doubles with the number of threads.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NonceBenchmark {
+
+    private NodeSaltedNonceSource nodeSalted;
+
+    @Setup
+    public void setUp() throws Exception {
+        nodeSalted = new NodeSaltedNonceSource(42);
+    }
+
+    @Benchmark
+    public int newRandom() {
+        return new Random().nextInt();
+    }
+
+    @Benchmark
+    public int threadLocal() {
+        return ThreadLocalNonceSource.INSTANCE.nextNonce();
+    }
+
+    @Benchmark
+    public int nodeSalted() {
+        return nodeSalted.nextNonce();
+    }
+
+    public static void main(String[] args) throws Exception {
+        int processors = Runtime.getRuntime().availableProcessors();
+        for (int threads = 1; ; threads = Math.min(threads * 2, processors)) {
+            Options options = new OptionsBuilder()
+                    .include(NonceBenchmark.class.getName())
+                    .threads(threads)
+                    .build();
+            new Runner(options).run();
+            if (threads == processors) {
+                break;
+            }
+        }
+    }
+}
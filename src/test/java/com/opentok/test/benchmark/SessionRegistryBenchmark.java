@@ -0,0 +1,96 @@
+/**
+ * OpenTok Java SDK
+ * Copyright (C) 2015 TokBox, Inc.
+ * http://www.tokbox.com
+ *
+ * Licensed under The MIT License (MIT). See LICENSE file for more information.
+ */
+package com.opentok.test.benchmark;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import com.opentok.OpenTok;
+import com.opentok.Session;
+import com.opentok.TokenOptions;
+
+import org.apache.commons.codec.binary.Base64;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares generating tokens for a mix of hot and cold sessions with {@link OpenTok#generateToken(String,
+ * TokenOptions)}, which reuses the Session objects it keeps for recent sessions, against building a new Session
+ * object for each token, as <code>OpenTok.generateToken</code> used to.
+ *
+ * Most tokens are for a small set of hot sessions, such as the large events of the moment, and the rest are spread
+ * over many cold sessions, most of which are not among the recent sessions anymore when they are used again.
+ *
+ * Run with <code>gradle benchmark -Pjmh="SessionRegistryBenchmark -prof gc"</code> to see bytes allocated per token.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SessionRegistryBenchmark {
+
+    // the length of the precomputed sequence of session IDs, a power of two
+    private static final int SEQUENCE_LENGTH = 1 << 16;
+
+    @Param({"100"})
+    public int hotSessions;
+
+    @Param({"100000"})
+    public int coldSessions;
+
+    // the share of the tokens that are for hot sessions
+    @Param({"0.9"})
+    public double hotShare;
+
+    private final int apiKey = 123456;
+    private final String apiSecret = "1234567890abcdef1234567890abcdef1234567890";
+    private final TokenOptions options = new TokenOptions.Builder().build();
+    private OpenTok opentok;
+    private String[] sequence;
+    private int next;
+
+    @Setup
+    public void setUp() throws Exception {
+        opentok = new OpenTok(apiKey, apiSecret);
+        Random random = new Random(42);
+        sequence = new String[SEQUENCE_LENGTH];
+        for (int i = 0; i < SEQUENCE_LENGTH; i++) {
+            sequence[i] = random.nextDouble() < hotShare
+                    ? sessionId(random.nextInt(hotSessions))
+                    : sessionId(hotSessions + random.nextInt(coldSessions));
+        }
+    }
+
+    private String sessionId(int session) throws Exception {
+        String decoded = "1~" + apiKey + "~Mon Mar 17 00:41:31 PDT 2014~" + session + "~";
+        return "1_" + Base64.encodeBase64URLSafeString(decoded.getBytes("UTF-8"));
+    }
+
+    @Benchmark
+    public String sessionPerToken() throws Exception {
+        String sessionId = sequence[next++ & (SEQUENCE_LENGTH - 1)];
+        // the constructor is protected, as it is only meant for OpenTok
+        return new Session(sessionId, apiKey, apiSecret) { }.generateToken(options);
+    }
+
+    @Benchmark
+    public String registeredSessions() throws Exception {
+        return opentok.generateToken(sequence[next++ & (SEQUENCE_LENGTH - 1)], options);
+    }
+}
@@ -0,0 +1,68 @@
+/**
+ * OpenTok Java SDK
+ * Copyright (C) 2015 TokBox, Inc.
+ * http://www.tokbox.com
+ *
+ * Licensed under The MIT License (MIT). See LICENSE file for more information.
+ */
+package com.opentok.test.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.StringReader;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.xpath.XPath;
+import javax.xml.xpath.XPathFactory;
+
+import com.opentok.util.SessionResponseParser;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.xml.sax.InputSource;
+
+/**
+ * Compares reading the session ID of a session creation response with a new XPath evaluation per response, as
+ * <code>OpenTok.createSession</code> used to, against a shared {@link SessionResponseParser} reading the bytes of the
+ * response.
+ *
+ * Run with <code>gradle benchmark -Pjmh="SessionResponseParsingBenchmark -prof gc"</code> to see bytes allocated per
+ * response.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SessionResponseParsingBenchmark {
+
+    private final String response = "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?><sessions><Session>" +
+            "<session_id>1_MX4xMjM0NTZ-flNhdCBNYXIgMTUgMTQ6NDI6MjMgUERUIDIwMTR-MC40OTAxMzAyNX4</session_id>" +
+            "<partner_id>123456</partner_id><create_dt>Mon Mar 17 00:41:31 PDT 2014</create_dt></Session></sessions>";
+    private final SessionResponseParser parser = new SessionResponseParser();
+    private byte[] responseBytes;
+
+    @Setup
+    public void setUp() throws Exception {
+        responseBytes = response.getBytes("UTF-8");
+    }
+
+    @Benchmark
+    public String xpathPerResponse() throws Exception {
+        XPath xpath = XPathFactory.newInstance().newXPath();
+        return xpath.evaluate("/sessions/Session/session_id", new InputSource(new StringReader(response)));
+    }
+
+    @Benchmark
+    public String streamParser() throws Exception {
+        return parser.readSessionId(new ByteArrayInputStream(responseBytes));
+    }
+}
@@ -0,0 +1,76 @@
+/**
+ * OpenTok Java SDK
+ * Copyright (C) 2015 TokBox, Inc.
+ * http://www.tokbox.com
+ *
+ * Licensed under The MIT License (MIT). See LICENSE file for more information.
+ */
+package com.opentok.test.benchmark;
+
+import java.security.Security;
+import java.util.concurrent.TimeUnit;
+
+import com.opentok.util.Crypto;
+import com.opentok.util.TokenSigner;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares signing token data with {@link Crypto#signData(String, String)}, which looks up and initializes a new
+ * Mac for every signature, against a reused {@link TokenSigner}.
+ *
+ * Run with <code>gradle benchmark -Pjmh="TokenSigningBenchmark -prof gc"</code> to see bytes allocated per signature.
+ * Add <code>-p provider=SunJCE,...</code> to compare the installed JCA providers.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TokenSigningBenchmark {
+
+    // the name of the JCA provider the TokenSigner uses, empty for the default one
+    @Param({""})
+    public String provider;
+
+    private String apiSecret = "1234567890abcdef1234567890abcdef1234567890";
+    private String data = "session_id=1_MX4xMjM0NTZ-flNhdCBNYXIgMTUgMTQ6NDI6MjMgUERUIDIwMTR-MC40OTAxMzAyNX4" +
+            "&create_time=1426434143&nonce=-1264725424&role=publisher&expire_time=1426520543";
+    private byte[] dataBytes;
+    private byte[] signature;
+    private TokenSigner signer;
+
+    @Setup
+    public void setUp() throws Exception {
+        signer = new TokenSigner(apiSecret, provider.isEmpty() ? null : Security.getProvider(provider));
+        dataBytes = data.getBytes("UTF-8");
+        signature = new byte[signer.getSignatureLength()];
+    }
+
+    @Benchmark
+    public String signDataPerCall() throws Exception {
+        return Crypto.signData(data, apiSecret);
+    }
+
+    @Benchmark
+    public String signerString() {
+        return signer.sign(data);
+    }
+
+    @Benchmark
+    public byte[] signerBytes() {
+        signer.sign(dataBytes, 0, dataBytes.length, signature, 0);
+        return signature;
+    }
+}
@@ -0,0 +1,69 @@
+/**
+ * OpenTok Java SDK
+ * Copyright (C) 2015 TokBox, Inc.
+ * http://www.tokbox.com
+ *
+ * Licensed under The MIT License (MIT). See LICENSE file for more information.
+ */
+package com.opentok.test.benchmark;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import com.opentok.test.Helpers;
+import com.opentok.util.Crypto;
+import com.opentok.util.TokenVerifier;
+import org.apache.commons.codec.binary.Base64;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares verifying a token the way the test {@link Helpers} do (splitting strings, URL decoding every field and
+ * looking up a new Mac) against a {@link TokenVerifier}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TokenVerificationBenchmark {
+
+    private int apiKey = 123456;
+    private String apiSecret = "1234567890abcdef1234567890abcdef1234567890";
+    private String token;
+    private TokenVerifier verifier;
+
+    @Setup
+    public void setUp() throws Exception {
+        long now = System.currentTimeMillis() / 1000L;
+        String data = "session_id=1_MX4xMjM0NTZ-flNhdCBNYXIgMTUgMTQ6NDI6MjMgUERUIDIwMTR-MC40OTAxMzAyNX4" +
+                "&create_time=" + now + "&nonce=-1264725424&role=publisher&expire_time=" + (now + 60*60*24) +
+                "&connection_data=name%3DBob";
+        String inner = "partner_id=" + apiKey + "&sig=" + Crypto.signData(data, apiSecret) + ":" + data;
+        token = "T1==" + Base64.encodeBase64String(inner.getBytes("UTF-8")).replace('+', '-').replace('/', '_');
+        verifier = new TokenVerifier(apiKey, apiSecret);
+    }
+
+    @Benchmark
+    public Map<String, String> helpers() throws Exception {
+        if (!Helpers.verifyTokenSignature(token, apiSecret)) {
+            throw new IllegalStateException();
+        }
+        return Helpers.decodeToken(token);
+    }
+
+    @Benchmark
+    public TokenVerifier.Claims verifier() throws Exception {
+        return verifier.verify(token);
+    }
+}